@@ -0,0 +1,85 @@
+package com.connectfour.benchmarks;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// 
+// Reproducible boards for the benchmarks.
+// 
+// Every fixture comes from a fixed seed, so runs before and after a change measure
+// exactly the same positions.
+public final class BoardFixtures {
+    private static final long SEED = 0x42656E6368L; // "Bench"
+    
+    private BoardFixtures() {}
+    
+    // 
+// Generates complete random games.
+// 
+// @param geometry The board to play on
+// @param count The number of games
+// @return The column sequence of each game, in play order
+    public static int[][] randomGames(BoardGeometry geometry, int count) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int[][] games = new int[count][];
+        for (int i = 0; i < count; i++) {
+            games[i] = playRandomGame(geometry, random);
+        }
+        return games;
+    }
+    
+    // 
+// Finds a random game that is still undecided with only a couple of empty cells left.
+// This is the worst case for win checks and full-board detection: every line is
+// crowded and no early exit applies.
+// 
+// @param geometry The board to play on
+// @param emptyCells The number of cells to leave empty
+// @return The game state after those moves
+    public static GameState nearFullBoard(BoardGeometry geometry, int emptyCells) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int target = geometry.getCellCount() - emptyCells;
+        while (true) {
+            int[] moves = playRandomGame(geometry, random);
+            if (moves.length < target) {
+                continue;
+            }
+            GameState state = replay(geometry, moves, target);
+            if (state.getStatus() == GameStatus.IN_PROGRESS) {
+                return state;
+            }
+        }
+    }
+    
+    // 
+// Replays the first moves of a game on a new game state.
+// 
+// @param geometry The board to play on
+// @param moves The column sequence
+// @param length The number of moves to replay
+// @return The resulting game state
+    public static GameState replay(BoardGeometry geometry, int[] moves, int length) {
+        GameState state = new GameState("red", "yellow", geometry);
+        for (int i = 0; i < length; i++) {
+            state.makeMove(moves[i]);
+        }
+        return state;
+    }
+    
+    private static int[] playRandomGame(BoardGeometry geometry, SplittableRandom random) {
+        GameState state = new GameState("red", "yellow", geometry);
+        List<Integer> moves = new ArrayList<>();
+        while (state.getStatus() == GameStatus.IN_PROGRESS) {
+            int column = random.nextInt(geometry.getColumns());
+            if (state.makeMove(column)) {
+                moves.add(column);
+            }
+        }
+        return moves.stream().mapToInt(Integer::intValue).toArray();
+    }
+} 
@@ -0,0 +1,133 @@
+package com.connectfour.benchmarks;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.PlayerColor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// 
+// Benchmarks for the game model: playing moves, win checks and copying.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameStateBenchmark {
+    private static final int GAMES = 256;
+    
+    // Preset boards, see BoardGeometry.presets()
+    @Param({"6x7x4", "7x8x4", "6x9x5"})
+    public String board;
+    
+    private BoardGeometry geometry;
+    private int[][] games;
+    private int gameIndex;
+    
+    private GameState midGame;
+    private GameState nearFull;
+    private GameSnapshot nearFullSnapshot;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = board.split("x");
+        geometry = BoardGeometry.of(Integer.parseInt(size[0]), Integer.parseInt(size[1]), Integer.parseInt(size[2]));
+        games = BoardFixtures.randomGames(geometry, GAMES);
+        
+        int[] longest = games[0];
+        for (int[] game : games) {
+            if (game.length > longest.length) {
+                longest = game;
+            }
+        }
+        midGame = BoardFixtures.replay(geometry, longest, longest.length / 2);
+        nearFull = BoardFixtures.nearFullBoard(geometry, 2);
+        nearFullSnapshot = nearFull.snapshot();
+    }
+    
+    // 
+// Plays a whole random game with GameState.makeMove, including the win and draw
+// checks after every move.
+    @Benchmark
+    public GameState playRandomGame() {
+        int[] moves = games[gameIndex];
+        gameIndex = (gameIndex + 1) % GAMES;
+        GameState state = new GameState("red", "yellow", geometry);
+        for (int column : moves) {
+            state.makeMove(column);
+        }
+        return state;
+    }
+    
+    // 
+// Same random game, played on immutable snapshots.
+    @Benchmark
+    public GameSnapshot playRandomGameSnapshot() {
+        int[] moves = games[gameIndex];
+        gameIndex = (gameIndex + 1) % GAMES;
+        GameSnapshot snapshot = GameSnapshot.empty(geometry);
+        for (int column : moves) {
+            snapshot = snapshot.play(column);
+        }
+        return snapshot;
+    }
+    
+    // 
+// Win check for every column of a crowded, undecided board.
+    @Benchmark
+    public void checkForWinNearFull(Blackhole blackhole) {
+        for (int column = 0; column < geometry.getColumns(); column++) {
+            blackhole.consume(nearFull.isWinningMove(column, PlayerColor.RED));
+            blackhole.consume(nearFull.isWinningMove(column, PlayerColor.YELLOW));
+        }
+    }
+    
+    // 
+// Line detection on a single bitboard, without the drop computation.
+    @Benchmark
+    public boolean hasWonNearFull() {
+        return geometry.hasWon(nearFull.getStones(PlayerColor.RED));
+    }
+    
+    @Benchmark
+    public GameState copyMidGame() {
+        return midGame.copy();
+    }
+    
+    @Benchmark
+    public GameState copyNearFull() {
+        return nearFull.copy();
+    }
+    
+    @Benchmark
+    public GameSnapshot snapshotNearFull() {
+        return nearFull.snapshot();
+    }
+    
+    @Benchmark
+    public int cellScanNearFull() {
+        // What the UI does on every update
+        int occupied = 0;
+        for (int row = 0; row < nearFullSnapshot.getRows(); row++) {
+            for (int col = 0; col < nearFullSnapshot.getColumns(); col++) {
+                occupied += nearFullSnapshot.getCellState(row, col).ordinal();
+            }
+        }
+        return occupied;
+    }
+} 
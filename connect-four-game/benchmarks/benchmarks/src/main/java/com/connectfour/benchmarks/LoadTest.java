@@ -0,0 +1,488 @@
+package com.connectfour.benchmarks;
+
+import com.connectfour.common.messages.GameStartMessage;
+import com.connectfour.common.messages.GameStateUpdateMessage;
+import com.connectfour.common.messages.LoginRequestMessage;
+import com.connectfour.common.messages.LoginResponseMessage;
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MessageChannel;
+import com.connectfour.common.messages.MessageCodec;
+import com.connectfour.common.messages.MoveAppliedMessage;
+import com.connectfour.common.messages.MoveMessage;
+import com.connectfour.common.messages.PlayAgainRequestMessage;
+import com.connectfour.common.messages.ResyncRequestMessage;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// 
+// Load test of a running game server: many simulated players connect, log in, get
+// matched and play random moves for a while.
+// 
+// All players are driven from one thread through a Selector, so the test itself needs
+// no thread per connection and the server's threading is what gets measured. Run it
+// against the server in each of its I/O modes (connectfour.server.io) to compare them;
+// run-load-test.command does that. Turn bots off on the server under test, or players
+// left without an opponent get one.
+// 
+// The result is written as JSON: how many players connected and logged in and how long
+// that took, then the moves played, with the latency from sending a move to hearing it
+// back from the server as percentiles.
+// 
+// Usage: LoadTest [--host localhost] [--port 8080] [--clients 1000] [--seconds 30]
+//                 [--think-millis 100] [--label NAME] [--seed N] [--out FILE]
+public final class LoadTest {
+    // Connections opened but not yet logged in, so the server's accept backlog is not flooded
+    private static final int MAX_PENDING_LOGINS = 256;
+    
+    private static final long LOGIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    
+    private final InetSocketAddress address;
+    private final int clients;
+    private final long durationNanos;
+    private final long thinkNanos;
+    private final String label;
+    private final long seed;
+    
+    private Selector selector;
+    private final PriorityQueue<Player> moveQueue = new PriorityQueue<>((a, b) -> Long.compare(a.moveDue, b.moveDue));
+    private final LatencyRecorder loginLatency = new LatencyRecorder();
+    private final LatencyRecorder moveLatency = new LatencyRecorder();
+    private int opened;
+    private int pendingLogins;
+    private int loggedIn;
+    private int failed;
+    private int disconnected;
+    private int gamesFinished;
+    private int resyncs;
+    
+    private LoadTest(InetSocketAddress address, int clients, long durationNanos, long thinkNanos, String label, long seed) {
+        this.address = address;
+        this.clients = clients;
+        this.durationNanos = durationNanos;
+        this.thinkNanos = thinkNanos;
+        this.label = label;
+        this.seed = seed;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = 8080;
+        int clients = 1000;
+        int seconds = 30;
+        int thinkMillis = 100;
+        String label = "server";
+        long seed = 1;
+        Path output = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            String value = (i + 1 < args.length) ? args[i + 1] : null;
+            if (value == null) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--host":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(value);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--think-millis":
+                    thinkMillis = Integer.parseInt(value);
+                    break;
+                case "--label":
+                    label = value;
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--out":
+                    output = Paths.get(value);
+                    break;
+                default:
+                    usage();
+            }
+            i++;
+        }
+        
+        LoadTest test = new LoadTest(new InetSocketAddress(host, port), clients, TimeUnit.SECONDS.toNanos(seconds),
+                TimeUnit.MILLISECONDS.toNanos(thinkMillis), label, seed);
+        String json = test.run();
+        if (output != null) {
+            Files.writeString(output, json);
+            System.err.println("Results written to " + output);
+        } else {
+            System.out.println(json);
+        }
+    }
+    
+    private static void usage() {
+        System.err.println("Usage: LoadTest [--host HOST] [--port N] [--clients N] [--seconds N] [--think-millis N]"
+                + " [--label NAME] [--seed N] [--out FILE]");
+        System.exit(1);
+    }
+    
+    private String run() throws IOException {
+        System.err.println("Connecting " + clients + " players to " + address + " (" + label + ")");
+        selector = Selector.open();
+        List<Player> players = new ArrayList<>();
+        long start = System.nanoTime();
+        long loginDeadline = start + LOGIN_TIMEOUT_NANOS;
+        long loginNanos = -1;
+        long playDeadline = Long.MAX_VALUE;
+        
+        while (true) {
+            long now = System.nanoTime();
+            
+            // Open connections while few logins are outstanding
+            while (opened < clients && pendingLogins < MAX_PENDING_LOGINS && now < loginDeadline) {
+                Player player = new Player(opened, new SplittableRandom(seed * 0x9E3779B97F4A7C15L + opened));
+                players.add(player);
+                opened++;
+                pendingLogins++;
+                player.open();
+            }
+            if (loginNanos < 0 && (loggedIn + failed == clients || now >= loginDeadline)) {
+                loginNanos = now - start;
+                playDeadline = now + durationNanos;
+                System.err.printf(Locale.ROOT, "%d of %d players logged in after %.1f s, playing for %d s%n",
+                        loggedIn, clients, loginNanos / 1e9, TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+            }
+            if (now >= playDeadline) {
+                break;
+            }
+            
+            // Send the moves whose thinking time is over
+            while (!moveQueue.isEmpty() && moveQueue.peek().moveDue <= now) {
+                moveQueue.poll().sendMove(now);
+            }
+            
+            long wakeUp = Math.min(playDeadline, moveQueue.isEmpty() ? Long.MAX_VALUE : moveQueue.peek().moveDue);
+            long timeoutMillis = (wakeUp == Long.MAX_VALUE) ? 100 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeUp - now));
+            selector.select(Math.min(timeoutMillis, 100));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                ((Player) key.attachment()).handle(key);
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        
+        for (Player player : players) {
+            player.close();
+        }
+        selector.close();
+        
+        double playSeconds = (elapsedNanos - loginNanos) / 1e9;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"label\": \"").append(label).append("\",\n");
+        json.append("  \"server\": \"").append(address.getHostString()).append(':').append(address.getPort()).append("\",\n");
+        json.append("  \"clients\": ").append(clients).append(",\n");
+        json.append("  \"thinkMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(thinkNanos)).append(",\n");
+        json.append("  \"connections\": {\"loggedIn\": ").append(loggedIn).append(", \"failed\": ").append(failed)
+                .append(", \"disconnectedWhilePlaying\": ").append(disconnected)
+                .append(", \"secondsToLogIn\": ").append(format(loginNanos / 1e9))
+                .append(",\n    \"loginMillis\": ").append(loginLatency.toJson()).append("},\n");
+        json.append("  \"moves\": {\"count\": ").append(moveLatency.count())
+                .append(", \"perSecond\": ").append(format(moveLatency.count() / playSeconds))
+                .append(", \"gamesFinished\": ").append(gamesFinished)
+                .append(", \"resyncs\": ").append(resyncs)
+                .append(",\n    \"latencyMillis\": ").append(moveLatency.toJson()).append("},\n");
+        json.append("  \"playSeconds\": ").append(format(playSeconds)).append("\n");
+        json.append("}\n");
+        
+        System.err.printf(Locale.ROOT, "%s: %d/%d logged in, %d moves, move latency p50 %s ms, p99 %s ms%n", label,
+                loggedIn, clients, moveLatency.count(), format(moveLatency.percentile(50)),
+                format(moveLatency.percentile(99)));
+        return json.toString();
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+    
+    // One simulated player and its connection
+    private final class Player {
+        private final int index;
+        private final SplittableRandom random;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(256);
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(256);
+        private boolean handshaken;
+        private boolean loggedIn;
+        private boolean closed;
+        private long openedAt;
+        
+        private GameState state;
+        private PlayerColor color;
+        private boolean awaitingResync;
+        private int queuedFor = -1; // move count the queued or sent move was chosen for
+        private long moveDue;
+        private long moveSentAt;
+        
+        Player(int index, SplittableRandom random) {
+            this.index = index;
+            this.random = random;
+        }
+        
+        void open() {
+            openedAt = System.nanoTime();
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.connect(address);
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                writeBuffer.putInt(MessageChannel.HANDSHAKE);
+                writeBuffer.put(MessageCodec.encode(new LoginRequestMessage("load-" + index)));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        
+        void handle(SelectionKey key) {
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        
+        private void send(Message message) {
+            byte[] frame = MessageCodec.encode(message);
+            if (writeBuffer.remaining() < frame.length) {
+                writeBuffer = ByteBuffer.allocate(writeBuffer.capacity() * 2 + frame.length).put(writeBuffer.flip());
+            }
+            writeBuffer.put(frame);
+            try {
+                flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        
+        private void flush() throws IOException {
+            if (closed || !channel.isConnected()) {
+                return;
+            }
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            boolean pending = writeBuffer.hasRemaining();
+            writeBuffer.compact();
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        
+        private void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                fail(null);
+                return;
+            }
+            readBuffer.flip();
+            if (!handshaken) {
+                if (readBuffer.remaining() < Integer.BYTES) {
+                    readBuffer.compact();
+                    return;
+                }
+                if (readBuffer.getInt() != MessageChannel.HANDSHAKE) {
+                    throw new IOException("Server does not speak the binary protocol");
+                }
+                handshaken = true;
+            }
+            while (!closed && readBuffer.remaining() >= Integer.BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+                readBuffer.position(readBuffer.position() + Integer.BYTES);
+                byte[] body = new byte[length];
+                readBuffer.get(body);
+                handleMessage(MessageCodec.decode(body));
+            }
+            readBuffer.compact();
+            if (readBuffer.position() >= Integer.BYTES && Integer.BYTES + readBuffer.getInt(0) > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Integer.BYTES + readBuffer.getInt(0));
+                readBuffer = larger.put(readBuffer.flip());
+            }
+        }
+        
+        private void handleMessage(Message message) {
+            switch (message.getType()) {
+                case LOGIN_RESPONSE:
+                    pendingLogins--;
+                    if (((LoginResponseMessage) message).isSuccess()) {
+                        loggedIn = true;
+                        LoadTest.this.loggedIn++;
+                        loginLatency.add(System.nanoTime() - openedAt);
+                    } else {
+                        failed++;
+                        close();
+                    }
+                    break;
+                case GAME_START: {
+                    GameStartMessage start = (GameStartMessage) message;
+                    // The server may announce the same game twice; a move may already be on its way
+                    boolean sameGame = state != null && color == start.getAssignedColor()
+                            && state.getMoveCount() == start.getInitialState().getMoveCount();
+                    color = start.getAssignedColor();
+                    state = start.getInitialState();
+                    awaitingResync = false;
+                    if (!sameGame) {
+                        queuedFor = -1;
+                        moveSentAt = 0;
+                    }
+                    onState();
+                    break;
+                }
+                case GAME_STATE_UPDATE:
+                    state = ((GameStateUpdateMessage) message).getGameState();
+                    awaitingResync = false;
+                    onState();
+                    break;
+                case MOVE_APPLIED:
+                    if (!awaitingResync) {
+                        MoveAppliedMessage move = (MoveAppliedMessage) message;
+                        if (state == null || move.getSequence() != state.getMoveCount() + 1 || !state.makeMove(move.getColumn())
+                                || state.getZobristHash() != move.getChecksum()) {
+                            awaitingResync = true;
+                            resyncs++;
+                            send(new ResyncRequestMessage());
+                        } else {
+                            onState();
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        // Notes the answer to a sent move, then queues the next move or asks for a rematch
+        private void onState() {
+            if (moveSentAt != 0 && state.getMoveCount() > queuedFor) {
+                moveLatency.add(System.nanoTime() - moveSentAt);
+                moveSentAt = 0;
+            }
+            if (state.getStatus() != GameStatus.IN_PROGRESS) {
+                if (color == PlayerColor.RED) {
+                    gamesFinished++;
+                }
+                send(new PlayAgainRequestMessage(true));
+                return;
+            }
+            if (state.getCurrentTurn() == color && queuedFor != state.getMoveCount()) {
+                queuedFor = state.getMoveCount();
+                moveDue = System.nanoTime() + thinkNanos;
+                moveQueue.add(this);
+            }
+        }
+        
+        void sendMove(long now) {
+            if (closed || state == null || state.getMoveCount() != queuedFor || state.getCurrentTurn() != color) {
+                return;
+            }
+            int column;
+            do {
+                column = random.nextInt(state.getColumns());
+            } while (!state.canPlay(column));
+            moveSentAt = now;
+            send(new MoveMessage(column));
+        }
+        
+        private void fail(IOException e) {
+            if (closed) {
+                return;
+            }
+            if (!loggedIn) {
+                pendingLogins--;
+                failed++;
+            } else {
+                disconnected++;
+            }
+            close();
+        }
+        
+        void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+    }
+    
+    // Latencies in nanoseconds, reported in milliseconds
+    private static final class LatencyRecorder {
+        private long[] samples = new long[1024];
+        private int count;
+        private long[] sorted;
+        
+        void add(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+            sorted = null;
+        }
+        
+        int count() {
+            return count;
+        }
+        
+        // Nearest-rank percentile
+        double percentile(int percent) {
+            if (count == 0) {
+                return 0;
+            }
+            if (sorted == null) {
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * count);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+        
+        String toJson() {
+            return "{\"p50\": " + format(percentile(50)) + ", \"p90\": " + format(percentile(90))
+                    + ", \"p99\": " + format(percentile(99)) + ", \"max\": " + format(percentile(100)) + "}";
+        }
+    }
+} 
@@ -0,0 +1,140 @@
+package com.connectfour.benchmarks;
+
+import com.connectfour.common.messages.GameStartMessage;
+import com.connectfour.common.messages.GameStateUpdateMessage;
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MessageCodec;
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.PlayerColor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// 
+// Benchmarks for Java serialization and the binary MessageCodec encoding of the messages
+// sent on every move and game start.
+// 
+// Each serialization operation uses a fresh ObjectOutputStream, so class descriptors are
+// written every time; this is the cost of the first message on a connection and an upper
+// bound for the following ones.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageSerializationBenchmark {
+    private GameStateUpdateMessage updateMessage;
+    private GameStartMessage startMessage;
+    private byte[] updateBytes;
+    private byte[] startBytes;
+    private byte[] updateBody;
+    private byte[] startBody;
+    
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        GameState nearFull = BoardFixtures.nearFullBoard(BoardGeometry.STANDARD, 2);
+        updateMessage = new GameStateUpdateMessage(nearFull.copy());
+        startMessage = new GameStartMessage(new GameState("red", "yellow"), PlayerColor.RED, "yellow");
+        updateBytes = serialize(updateMessage);
+        startBytes = serialize(startMessage);
+        updateBody = body(MessageCodec.encode(updateMessage));
+        startBody = body(MessageCodec.encode(startMessage));
+    }
+    
+    @Benchmark
+    public byte[] serializeGameStateUpdate() {
+        return serialize(updateMessage);
+    }
+    
+    @Benchmark
+    public byte[] serializeGameStart() {
+        return serialize(startMessage);
+    }
+    
+    @Benchmark
+    public Object deserializeGameStateUpdate() throws IOException, ClassNotFoundException {
+        return deserialize(updateBytes);
+    }
+    
+    @Benchmark
+    public Object deserializeGameStart() throws IOException, ClassNotFoundException {
+        return deserialize(startBytes);
+    }
+    
+    // 
+// Serializes then deserializes an update, the full path of one move notification.
+    @Benchmark
+    public Object roundTripGameStateUpdate() throws IOException, ClassNotFoundException {
+        return deserialize(serialize(updateMessage));
+    }
+    
+    @Benchmark
+    public byte[] encodeGameStateUpdate() {
+        return MessageCodec.encode(updateMessage);
+    }
+    
+    @Benchmark
+    public byte[] encodeGameStart() {
+        return MessageCodec.encode(startMessage);
+    }
+    
+    @Benchmark
+    public Message decodeGameStateUpdate() throws IOException {
+        return MessageCodec.decode(updateBody);
+    }
+    
+    @Benchmark
+    public Message decodeGameStart() throws IOException {
+        return MessageCodec.decode(startBody);
+    }
+    
+    // 
+// Encodes then decodes an update with the binary protocol, for comparison with
+// roundTripGameStateUpdate.
+    @Benchmark
+    public Message roundTripBinaryGameStateUpdate() throws IOException {
+        return MessageCodec.decode(body(MessageCodec.encode(updateMessage)));
+    }
+    
+    // Strips the length prefix, which MessageCodec.read consumes before decoding
+    private static byte[] body(byte[] frame) {
+        return Arrays.copyOfRange(frame, Integer.BYTES, frame.length);
+    }
+    
+    private byte[] serialize(Message message) {
+        buffer.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+    
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+} 
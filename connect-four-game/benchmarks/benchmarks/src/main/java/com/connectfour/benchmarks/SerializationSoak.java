@@ -0,0 +1,253 @@
+package com.connectfour.benchmarks;
+
+import com.connectfour.common.messages.ChatMessage;
+import com.connectfour.common.messages.GameStateUpdateMessage;
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MessageChannel;
+import com.connectfour.common.messages.MoveMessage;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+// 
+// Soak test of a Java serialization connection: sends a long run of messages through a
+// MessageChannel over loopback and watches the heap.
+// 
+// Both ends run in this process, so the heap holds the handle tables of the writing and
+// the reading object stream. Every message is a new object, as on the server, in the mix
+// a game produces: full game states, moves and chat. After every sample interval the heap
+// is measured after a garbage collection. With the stream reset policy of MessageChannel
+// the heap stays flat; with resets turned off
+// (-Dconnectfour.serialization.resetMessages=0 -Dconnectfour.serialization.resetBytes=0)
+// it grows with every message until the run fails.
+// 
+// The result is written as JSON: the heap and the bytes the stream retained at every
+// sample, the growth from the first sample after warm-up to the last, and the stream
+// resets. The run fails, with exit code 2, if the heap grew by more than
+// --max-heap-growth-mb or the stream retained more than --max-retained-bytes at any
+// sample.
+// 
+// Usage: SerializationSoak [--messages 1000000] [--samples 20] [--seed N] [--out FILE]
+//                          [--max-heap-growth-mb 32] [--max-retained-bytes 1048576]
+public final class SerializationSoak {
+    private static final double DEFAULT_MAX_HEAP_GROWTH_MB = 32;
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 1 << 20; // four times the default reset limit
+    
+    private final int messages;
+    private final int samples;
+    private final long seed;
+    private final double maxHeapGrowthMB;
+    private final long maxRetainedBytes;
+    private boolean passed;
+    private GameState state = new GameState("red", "yellow");
+    
+    private SerializationSoak(int messages, int samples, long seed, double maxHeapGrowthMB, long maxRetainedBytes) {
+        this.messages = messages;
+        this.samples = samples;
+        this.seed = seed;
+        this.maxHeapGrowthMB = maxHeapGrowthMB;
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int messages = 1_000_000;
+        int samples = 20;
+        long seed = 1;
+        double maxHeapGrowthMB = DEFAULT_MAX_HEAP_GROWTH_MB;
+        long maxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
+        Path output = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            String value = (i + 1 < args.length) ? args[i + 1] : null;
+            if (value == null) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--messages":
+                    messages = Integer.parseInt(value);
+                    break;
+                case "--samples":
+                    samples = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--out":
+                    output = Paths.get(value);
+                    break;
+                case "--max-heap-growth-mb":
+                    maxHeapGrowthMB = Double.parseDouble(value);
+                    break;
+                case "--max-retained-bytes":
+                    maxRetainedBytes = Long.parseLong(value);
+                    break;
+                default:
+                    usage();
+            }
+            i++;
+        }
+        
+        SerializationSoak soak = new SerializationSoak(messages, Math.max(2, samples), seed, maxHeapGrowthMB, maxRetainedBytes);
+        String json = soak.run();
+        if (output != null) {
+            Files.writeString(output, json);
+            System.err.println("Results written to " + output);
+        } else {
+            System.out.println(json);
+        }
+        if (!soak.passed) {
+            System.exit(2);
+        }
+    }
+    
+    private static void usage() {
+        System.err.println("Usage: SerializationSoak [--messages N] [--samples N] [--seed N] [--out FILE]"
+                + " [--max-heap-growth-mb N] [--max-retained-bytes N]");
+        System.exit(1);
+    }
+    
+    private String run() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<long[]> points = new ArrayList<>(); // messages, heap bytes, retained bytes
+        long start = System.nanoTime();
+        long resets;
+        
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket socket = new Socket(server.getInetAddress(), server.getLocalPort())) {
+            Socket accepted = server.accept();
+            Reader reader = new Reader(accepted);
+            reader.start();
+            MessageChannel writer = MessageChannel.connectSerialized(socket);
+            
+            SplittableRandom random = new SplittableRandom(seed);
+            int interval = Math.max(1, messages / samples);
+            for (int sent = 1; sent <= messages; sent++) {
+                writer.writeUnflushed(nextMessage(random, sent));
+                if (sent % 64 == 0) {
+                    writer.flush();
+                }
+                if (sent % interval == 0) {
+                    writer.flush();
+                    System.gc();
+                    long heap = memory.getHeapMemoryUsage().getUsed();
+                    points.add(new long[] {sent, heap, writer.getRetainedBytes()});
+                    System.err.printf(Locale.ROOT, "%,d messages: heap %.1f MB, retained %,d bytes%n",
+                            sent, heap / 1e6, writer.getRetainedBytes());
+                }
+            }
+            writer.flush();
+            resets = writer.getResetCount();
+            reader.await(messages);
+            writer.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        // The first sample still includes class loading and JIT warm-up
+        long[] first = points.get(Math.min(1, points.size() - 1));
+        long[] last = points.get(points.size() - 1);
+        long maxRetained = 0;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"messages\": ").append(messages).append(",\n");
+        json.append("  \"seconds\": ").append(format(seconds)).append(",\n");
+        json.append("  \"messagesPerSecond\": ").append(format(messages / seconds)).append(",\n");
+        json.append("  \"streamResets\": ").append(resets).append(",\n");
+        json.append("  \"samples\": [\n");
+        for (int i = 0; i < points.size(); i++) {
+            long[] point = points.get(i);
+            maxRetained = Math.max(maxRetained, point[2]);
+            json.append("    {\"messages\": ").append(point[0])
+                    .append(", \"heapMB\": ").append(format(point[1] / 1e6))
+                    .append(", \"retainedBytes\": ").append(point[2]).append('}')
+                    .append(i + 1 < points.size() ? ",\n" : "\n");
+        }
+        json.append("  ],\n");
+        double heapGrowthMB = (last[1] - first[1]) / 1e6;
+        passed = heapGrowthMB <= maxHeapGrowthMB && maxRetained <= maxRetainedBytes;
+        json.append("  \"maxRetainedBytes\": ").append(maxRetained).append(",\n");
+        json.append("  \"heapGrowthMB\": ").append(format(heapGrowthMB)).append(",\n");
+        json.append("  \"limits\": {\"heapGrowthMB\": ").append(format(maxHeapGrowthMB))
+                .append(", \"retainedBytes\": ").append(maxRetainedBytes).append("},\n");
+        json.append("  \"passed\": ").append(passed).append("\n");
+        json.append("}\n");
+        
+        System.err.printf(Locale.ROOT, "%,d messages in %.1f s, %d stream resets, heap grew %.1f MB after warm-up%n",
+                messages, seconds, resets, heapGrowthMB);
+        if (!passed) {
+            System.err.printf(Locale.ROOT, "FAILED: heap growth %.1f MB (limit %.1f), retained up to %,d bytes (limit %,d)%n",
+                    heapGrowthMB, maxHeapGrowthMB, maxRetained, maxRetainedBytes);
+        }
+        return json.toString();
+    }
+    
+    // A new message object every time, like the server's copies of the game state
+    private Message nextMessage(SplittableRandom random, int sent) {
+        int kind = random.nextInt(10);
+        if (kind < 4) {
+            if (state.getStatus() != GameStatus.IN_PROGRESS) {
+                state = new GameState("red", "yellow");
+            }
+            int column;
+            do {
+                column = random.nextInt(state.getColumns());
+            } while (!state.canPlay(column));
+            state.makeMove(column);
+            return new GameStateUpdateMessage(state.copy());
+        }
+        if (kind < 8) {
+            return new MoveMessage(random.nextInt(state.getColumns()));
+        }
+        return new ChatMessage("red", "message " + sent);
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+    
+    // The other end of the connection, reading every message as a client would
+    private static final class Reader extends Thread {
+        private final Socket socket;
+        private volatile long received;
+        private volatile Exception failure;
+        
+        Reader(Socket socket) {
+            super("soak-reader");
+            this.socket = socket;
+            setDaemon(true);
+        }
+        
+        @Override
+        public void run() {
+            try (MessageChannel channel = MessageChannel.accept(socket)) {
+                while (true) {
+                    channel.read();
+                    received++;
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                failure = e;
+            }
+        }
+        
+        void await(long expected) throws Exception {
+            while (received < expected) {
+                if (!isAlive()) {
+                    throw new IOException("Reader stopped after " + received + " messages", failure);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+} 
@@ -0,0 +1,439 @@
+package com.connectfour.benchmarks;
+
+import com.connectfour.common.ai.AIPlayer;
+import com.connectfour.common.ai.SearchResult;
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// 
+// Headless self-play tournament between two AI configurations.
+// 
+// Games are played on the common model with no UI or network, several at a time. Each
+// opening, a few random moves from a fixed seed, is played twice with the colors swapped,
+// so neither side profits from a lucky opening or from moving first.
+// 
+// A configuration is written DIFFICULTY[:MILLIS[:THREADS]], for example "hard:500" or
+// "montecarlo:1000:2"; MILLIS replaces the level's time per move.
+// 
+// The result is written as JSON: wins, draws and losses of the first configuration with
+// a 95% confidence interval on its score and the matching Elo difference, and for each
+// configuration the search speed and think-time percentiles, plus the peak heap use.
+// The solved position cache is off unless connectfour.ai.cacheSizeMB is set, so games
+// do not learn from each other.
+// 
+// Usage: Tournament --a SPEC --b SPEC [--games 100] [--board 6x7x4] [--opening-plies 2]
+//                   [--parallel N] [--seed N] [--out FILE]
+public final class Tournament {
+    private static final double Z_95 = 1.959964;
+    
+    private final EngineConfig configA;
+    private final EngineConfig configB;
+    private final BoardGeometry geometry;
+    private final int games;
+    private final int openingPlies;
+    private final int parallel;
+    private final long seed;
+    
+    private Tournament(EngineConfig configA, EngineConfig configB, BoardGeometry geometry, int games,
+                       int openingPlies, int parallel, long seed) {
+        this.configA = configA;
+        this.configB = configB;
+        this.geometry = geometry;
+        this.games = games;
+        this.openingPlies = openingPlies;
+        this.parallel = parallel;
+        this.seed = seed;
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        EngineConfig configA = null;
+        EngineConfig configB = null;
+        BoardGeometry geometry = BoardGeometry.STANDARD;
+        int games = 100;
+        int openingPlies = 2;
+        int parallel = -1;
+        long seed = 1;
+        Path output = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            String value = (i + 1 < args.length) ? args[i + 1] : null;
+            if (value == null) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--a":
+                    configA = EngineConfig.parse(value);
+                    break;
+                case "--b":
+                    configB = EngineConfig.parse(value);
+                    break;
+                case "--games":
+                    games = Integer.parseInt(value);
+                    break;
+                case "--board":
+                    String[] size = value.split("x");
+                    geometry = BoardGeometry.of(Integer.parseInt(size[0]), Integer.parseInt(size[1]), Integer.parseInt(size[2]));
+                    break;
+                case "--opening-plies":
+                    openingPlies = Integer.parseInt(value);
+                    break;
+                case "--parallel":
+                    parallel = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--out":
+                    output = Paths.get(value);
+                    break;
+                default:
+                    usage();
+            }
+            i++;
+        }
+        if (configA == null || configB == null) {
+            usage();
+        }
+        if (parallel < 1) {
+            // Every game keeps the threads of both engines busy in turn, not at once
+            int threadsPerGame = Math.max(configA.threads, configB.threads);
+            parallel = Math.max(1, Runtime.getRuntime().availableProcessors() / threadsPerGame);
+        }
+        if (System.getProperty("connectfour.ai.cacheSizeMB") == null) {
+            System.setProperty("connectfour.ai.cacheSizeMB", "0");
+        }
+        
+        Tournament tournament = new Tournament(configA, configB, geometry, games, openingPlies, parallel, seed);
+        String json = tournament.run();
+        if (output != null) {
+            Files.writeString(output, json);
+            System.err.println("Results written to " + output);
+        } else {
+            System.out.println(json);
+        }
+    }
+    
+    private static void usage() {
+        System.err.println("Usage: Tournament --a SPEC --b SPEC [--games N] [--board ROWSxCOLUMNSxCONNECT]"
+                + " [--opening-plies N] [--parallel N] [--seed N] [--out FILE]");
+        System.err.println("SPEC is DIFFICULTY[:MILLIS[:THREADS]], DIFFICULTY one of easy, medium, hard, "
+                + "montecarlo-easy, montecarlo-medium, montecarlo-hard (or montecarlo)");
+        System.exit(1);
+    }
+    
+    private String run() throws InterruptedException {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        
+        System.err.println("Playing " + games + " games of " + configA + " vs " + configB + " on " + geometry
+                + ", " + parallel + " at a time");
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        List<Future<GameRecord>> futures = new ArrayList<>();
+        for (int game = 0; game < games; game++) {
+            int index = game;
+            futures.add(pool.submit(() -> playGame(index)));
+        }
+        
+        int wins = 0;
+        int draws = 0;
+        int losses = 0;
+        double[] scores = new double[games];
+        long totalMoves = 0;
+        EngineStats statsA = new EngineStats();
+        EngineStats statsB = new EngineStats();
+        for (int game = 0; game < games; game++) {
+            GameRecord record;
+            try {
+                record = futures.get(game).get();
+            } catch (ExecutionException e) {
+                pool.shutdownNow();
+                throw new IllegalStateException("Game " + game + " failed", e.getCause());
+            }
+            if (record.scoreA == 1.0) {
+                wins++;
+            } else if (record.scoreA == 0.5) {
+                draws++;
+            } else {
+                losses++;
+            }
+            scores[game] = record.scoreA;
+            totalMoves += record.moves;
+            statsA.add(record.statsA);
+            statsB.add(record.statsB);
+            if ((game + 1) % 10 == 0 || game + 1 == games) {
+                System.err.printf(Locale.ROOT, "%d/%d games: +%d =%d -%d%n", game + 1, games, wins, draws, losses);
+            }
+        }
+        pool.shutdown();
+        long elapsedNanos = System.nanoTime() - start;
+        
+        long peakHeap = 0;
+        for (MemoryPoolMXBean heapPool : heapPools) {
+            peakHeap += heapPool.getPeakUsage().getUsed();
+        }
+        
+        // Score of A with a normal approximation of its 95% confidence interval
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= games;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        variance = (games > 1) ? variance / (games - 1) : 0;
+        double margin = Z_95 * Math.sqrt(variance / games);
+        double low = Math.max(0, mean - margin);
+        double high = Math.min(1, mean + margin);
+        
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"board\": \"").append(geometry.getRows()).append('x').append(geometry.getColumns())
+                .append('x').append(geometry.getConnect()).append("\",\n");
+        json.append("  \"games\": ").append(games).append(",\n");
+        json.append("  \"openingPlies\": ").append(openingPlies).append(",\n");
+        json.append("  \"seed\": ").append(seed).append(",\n");
+        json.append("  \"parallel\": ").append(parallel).append(",\n");
+        json.append("  \"a\": ").append(configA.toJson()).append(",\n");
+        json.append("  \"b\": ").append(configB.toJson()).append(",\n");
+        json.append("  \"result\": {\"wins\": ").append(wins).append(", \"draws\": ").append(draws)
+                .append(", \"losses\": ").append(losses).append(",\n");
+        json.append("    \"score\": ").append(format(mean)).append(", \"scoreLow95\": ").append(format(low))
+                .append(", \"scoreHigh95\": ").append(format(high)).append(",\n");
+        json.append("    \"elo\": ").append(format(elo(mean))).append(", \"eloLow95\": ").append(format(elo(low)))
+                .append(", \"eloHigh95\": ").append(format(elo(high))).append("},\n");
+        json.append("  \"statsA\": ").append(statsA.toJson()).append(",\n");
+        json.append("  \"statsB\": ").append(statsB.toJson()).append(",\n");
+        json.append("  \"averageGameLength\": ").append(format((double) totalMoves / games)).append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(format(elapsedNanos / 1e9)).append(",\n");
+        json.append("  \"peakHeapBytes\": ").append(peakHeap).append("\n");
+        json.append("}\n");
+        
+        PrintStream summary = System.err;
+        summary.printf(Locale.ROOT, "%s vs %s: +%d =%d -%d, score %.3f [%.3f, %.3f], Elo %s [%s, %s]%n",
+                configA, configB, wins, draws, losses, mean, low, high, format(elo(mean)), format(elo(low)), format(elo(high)));
+        return json.toString();
+    }
+    
+    // Plays one game; even games give A the first move, odd games replay the previous opening with colors swapped
+    private GameRecord playGame(int index) {
+        GameSnapshot state = opening(index / 2);
+        boolean aIsRed = index % 2 == 0;
+        AIPlayer playerA = configA.create(aIsRed ? PlayerColor.RED : PlayerColor.YELLOW);
+        AIPlayer playerB = configB.create(aIsRed ? PlayerColor.YELLOW : PlayerColor.RED);
+        EngineStats statsA = new EngineStats();
+        EngineStats statsB = new EngineStats();
+        try {
+            while (state.getStatus() == GameStatus.IN_PROGRESS) {
+                boolean aToMove = (state.getCurrentTurn() == PlayerColor.RED) == aIsRed;
+                AIPlayer player = aToMove ? playerA : playerB;
+                SearchResult before = player.getLastSearchResult();
+                long start = System.nanoTime();
+                int column = player.getBestMove(state);
+                long thinkNanos = System.nanoTime() - start;
+                SearchResult after = player.getLastSearchResult();
+                (aToMove ? statsA : statsB).addMove(thinkNanos, (after != before) ? after : null);
+                state = state.play(column);
+            }
+        } finally {
+            playerA.shutdown();
+            playerB.shutdown();
+        }
+        
+        double scoreA;
+        if (state.getStatus() == GameStatus.DRAW) {
+            scoreA = 0.5;
+        } else {
+            boolean redWon = state.getStatus() == GameStatus.RED_WINS;
+            scoreA = (redWon == aIsRed) ? 1.0 : 0.0;
+        }
+        return new GameRecord(scoreA, state.getMoveCount(), statsA, statsB);
+    }
+    
+    // Random moves from the seed that leave the game undecided
+    private GameSnapshot opening(int openingIndex) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + openingIndex);
+        while (true) {
+            GameSnapshot state = GameSnapshot.empty(geometry);
+            for (int ply = 0; ply < openingPlies && state.getStatus() == GameStatus.IN_PROGRESS; ply++) {
+                int column;
+                do {
+                    column = random.nextInt(geometry.getColumns());
+                } while (!state.canPlay(column));
+                state = state.play(column);
+            }
+            if (state.getStatus() == GameStatus.IN_PROGRESS) {
+                return state;
+            }
+        }
+    }
+    
+    private static double elo(double score) {
+        double clamped = Math.min(Math.max(score, 1e-3), 1 - 1e-3);
+        return -400 * Math.log10(1 / clamped - 1);
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+    
+    private static final class GameRecord {
+        final double scoreA;
+        final int moves;
+        final EngineStats statsA;
+        final EngineStats statsB;
+        
+        GameRecord(double scoreA, int moves, EngineStats statsA, EngineStats statsB) {
+            this.scoreA = scoreA;
+            this.moves = moves;
+            this.statsA = statsA;
+            this.statsB = statsB;
+        }
+    }
+    
+    // Move timings and search counters of one configuration
+    private static final class EngineStats {
+        private long[] thinkNanos = new long[64];
+        private int moves;
+        private int searchedMoves;
+        private long nodes;
+        private long searchNanos;
+        private long depthTotal;
+        
+        void addMove(long nanos, SearchResult result) {
+            if (moves == thinkNanos.length) {
+                thinkNanos = Arrays.copyOf(thinkNanos, moves * 2);
+            }
+            thinkNanos[moves++] = nanos;
+            if (result != null) {
+                searchedMoves++;
+                nodes += result.getNodes();
+                searchNanos += result.getElapsedNanos();
+                depthTotal += result.getDepth();
+            }
+        }
+        
+        void add(EngineStats other) {
+            for (int i = 0; i < other.moves; i++) {
+                addMove(other.thinkNanos[i], null);
+            }
+            searchedMoves += other.searchedMoves;
+            nodes += other.nodes;
+            searchNanos += other.searchNanos;
+            depthTotal += other.depthTotal;
+        }
+        
+        String toJson() {
+            long[] sorted = Arrays.copyOf(thinkNanos, moves);
+            Arrays.sort(sorted);
+            long nodesPerSecond = (searchNanos > 0) ? (long) (nodes * 1e9 / searchNanos) : 0;
+            return "{\"moves\": " + moves
+                    + ", \"searchedMoves\": " + searchedMoves
+                    + ", \"nodes\": " + nodes
+                    + ", \"nodesPerSecond\": " + nodesPerSecond
+                    + ", \"averageDepth\": " + format(searchedMoves > 0 ? (double) depthTotal / searchedMoves : 0)
+                    + ", \"thinkMillis\": {\"p50\": " + format(percentile(sorted, 50))
+                    + ", \"p90\": " + format(percentile(sorted, 90))
+                    + ", \"p99\": " + format(percentile(sorted, 99))
+                    + ", \"max\": " + format(percentile(sorted, 100)) + "}}";
+        }
+        
+        // Nearest-rank percentile, in milliseconds
+        private static double percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+    }
+    
+    // One side of the tournament: an AI level with its time per move and thread count
+    private static final class EngineConfig {
+        final String difficulty;
+        final long timeMillis;
+        final int threads;
+        
+        private EngineConfig(String difficulty, long timeMillis, int threads) {
+            this.difficulty = difficulty;
+            this.timeMillis = timeMillis;
+            this.threads = threads;
+        }
+        
+        static EngineConfig parse(String spec) {
+            String[] parts = spec.split(":");
+            String name = parts[0].toLowerCase(Locale.ROOT).replace("-", "").replace(" ", "");
+            String difficulty;
+            switch (name) {
+                case "easy":
+                    difficulty = "Easy";
+                    break;
+                case "medium":
+                    difficulty = "Medium";
+                    break;
+                case "hard":
+                    difficulty = "Hard";
+                    break;
+                case "montecarloeasy":
+                case "mctseasy":
+                    difficulty = "Monte Carlo Easy";
+                    break;
+                case "montecarlomedium":
+                case "mctsmedium":
+                    difficulty = "Monte Carlo Medium";
+                    break;
+                case "montecarlo":
+                case "montecarlohard":
+                case "mcts":
+                case "mctshard":
+                    difficulty = "Monte Carlo Hard";
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown difficulty: " + parts[0]);
+            }
+            long timeMillis = (parts.length > 1) ? Long.parseLong(parts[1]) : -1;
+            int threads = (parts.length > 2) ? Integer.parseInt(parts[2]) : 1;
+            return new EngineConfig(difficulty, timeMillis, threads);
+        }
+        
+        AIPlayer create(PlayerColor color) {
+            return new AIPlayer(difficulty, color, threads, timeMillis);
+        }
+        
+        String toJson() {
+            return "{\"difficulty\": \"" + difficulty + "\", \"timeMillis\": " + timeMillis + ", \"threads\": " + threads + "}";
+        }
+        
+        @Override
+        public String toString() {
+            return difficulty + ((timeMillis >= 0) ? " " + timeMillis + " ms" : "") + ((threads > 1) ? " x" + threads : "");
+        }
+    }
+} 
@@ -1,13 +1,15 @@
 package com.connectfour.client;
 
 import com.connectfour.common.messages.*;
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
 import com.connectfour.common.model.GameState;
 import com.connectfour.common.model.PlayerColor;
+import com.connectfour.common.trace.Trace;
+import com.connectfour.common.trace.TraceLevel;
 import javafx.application.Platform;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -23,13 +25,15 @@ public class GameClient {
     private final int port;
     
     private Socket socket;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
+    private MessageChannel channel;
     private final ExecutorService executor;
     
     private boolean connected;
     private String username;
-    private GameState currentGameState;
+    private BoardGeometry boardGeometry = BoardGeometry.STANDARD;
+    private volatile GameSnapshot currentSnapshot; // immutable, safe to read from any thread
+    private GameState localState; // updated from the server's moves, on the listening thread only
+    private boolean awaitingResync;
     private PlayerColor assignedColor;
     private String opponentUsername;
     
@@ -52,24 +56,36 @@ public class GameClient {
 // 
 // @param username The username to use for login
     public void connect(String username) {
+        connect(username, BoardGeometry.STANDARD);
+    }
+    
+    // 
+// Connects to the server and attempts to log in, asking to be matched on the given board.
+// 
+// @param username The username to use for login
+// @param boardGeometry The board size to play on
+    public void connect(String username, BoardGeometry boardGeometry) {
         if (connected) {
             return;
         }
         
         this.username = username;
+        this.boardGeometry = boardGeometry;
         
         executor.execute(() -> {
             try {
-                // Connect to the server
+                // Connect to the server, with the binary protocol unless the server predates it
                 socket = new Socket(host, port);
-                outputStream = new ObjectOutputStream(socket.getOutputStream());
-                outputStream.flush();
-                inputStream = new ObjectInputStream(socket.getInputStream());
+                channel = MessageChannel.connect(socket);
+                if (channel == null) {
+                    socket = new Socket(host, port);
+                    channel = MessageChannel.connectSerialized(socket);
+                }
                 
                 connected = true;
                 
                 // Send the login request
-                sendMessage(new LoginRequestMessage(username));
+                sendMessage(new LoginRequestMessage(username, boardGeometry));
                 
                 // Start listening for messages
                 startListening();
@@ -93,7 +109,7 @@ public class GameClient {
         }
         
         try {
-            if (outputStream != null) {
+            if (channel != null) {
                 sendMessage(new DisconnectMessage(reason));
             }
         } catch (Exception e) {
@@ -111,13 +127,9 @@ public class GameClient {
         connected = false;
         
         try {
-            if (inputStream != null) {
-                inputStream.close();
-                inputStream = null;
-            }
-            if (outputStream != null) {
-                outputStream.close();
-                outputStream = null;
+            if (channel != null) {
+                channel.close();
+                channel = null;
             }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -140,13 +152,7 @@ public class GameClient {
             try {
                 while (connected) {
                     try {
-                        Object obj = inputStream.readObject();
-                        
-                        if (obj instanceof Message) {
-                            handleMessage((Message) obj);
-                        } else {
-                            System.err.println("Received unknown object from server: " + obj.getClass().getName());
-                        }
+                        handleMessage(channel.read());
                     } catch (ClassNotFoundException e) {
                         System.err.println("Error reading message from server: " + e.getMessage());
                     }
@@ -175,6 +181,9 @@ public class GameClient {
             case GAME_STATE_UPDATE:
                 handleGameStateUpdate((GameStateUpdateMessage) message);
                 break;
+            case MOVE_APPLIED:
+                handleMoveApplied((MoveAppliedMessage) message);
+                break;
             case CHAT_MESSAGE:
                 handleChatMessage((ChatMessage) message);
                 break;
@@ -206,11 +215,13 @@ public class GameClient {
 // 
 // @param message The game start message
     private void handleGameStart(GameStartMessage message) {
-        this.currentGameState = message.getInitialState();
+        this.localState = message.getInitialState();
+        this.awaitingResync = false;
+        this.currentSnapshot = localState.snapshot();
         this.assignedColor = message.getAssignedColor();
         this.opponentUsername = message.getOpponentUsername();
         
-        notifyGameStarted(currentGameState, assignedColor, opponentUsername);
+        notifyGameStarted(currentSnapshot, assignedColor, opponentUsername);
     }
     
     // 
@@ -218,23 +229,80 @@ public class GameClient {
 // 
 // @param message The game state update message
     private void handleGameStateUpdate(GameStateUpdateMessage message) {
-        System.out.println("Received game state update from server:");
-        System.out.println("  Current turn: " + message.getGameState().getCurrentTurn());
-        System.out.println("  Board state:");
-        for (int row = 0; row < GameState.ROWS; row++) {
-            StringBuilder rowStr = new StringBuilder("    ");
-            for (int col = 0; col < GameState.COLUMNS; col++) {
-                switch(message.getGameState().getCellState(row, col)) {
-                    case EMPTY: rowStr.append("[ ]"); break;
-                    case RED: rowStr.append("[R]"); break;
-                    case YELLOW: rowStr.append("[Y]"); break;
+        if (Trace.isEnabled(TraceLevel.DEBUG)) {
+            GameState state = message.getGameState();
+            StringBuilder board = new StringBuilder();
+            for (int row = 0; row < state.getRows(); row++) {
+                board.append("\n    ");
+                for (int col = 0; col < state.getColumns(); col++) {
+                    switch (state.getCellState(row, col)) {
+                        case EMPTY: board.append("[ ]"); break;
+                        case RED: board.append("[R]"); break;
+                        case YELLOW: board.append("[Y]"); break;
+                    }
                 }
             }
-            System.out.println(rowStr.toString());
+            Trace.log(TraceLevel.DEBUG, "GameClient", "Received game state update from server, current turn: {}{}",
+                    state.getCurrentTurn(), board);
         }
         
-        this.currentGameState = message.getGameState();
-        notifyGameStateUpdated(currentGameState);
+        this.localState = message.getGameState();
+        this.awaitingResync = false;
+        this.currentSnapshot = localState.snapshot();
+        notifyGameStateUpdated(currentSnapshot);
+    }
+    
+    // 
+// Handles a move sent by the server, applying it to the local copy of the game. If the
+// move does not follow on from the local copy, the full state is requested instead.
+// 
+// @param message The move applied message
+    private void handleMoveApplied(MoveAppliedMessage message) {
+        if (awaitingResync) {
+            // The full state is on its way and includes this move
+            return;
+        }
+        String mismatch = applyMove(message);
+        if (mismatch != null) {
+            System.err.println("Out of sync at move " + message.getSequence() + " (" + mismatch
+                    + "), requesting the full game state");
+            Trace.log(TraceLevel.WARN, "GameClient", "Out of sync at move {} ({}), requesting the full game state",
+                    message.getSequence(), mismatch);
+            awaitingResync = true;
+            sendMessage(new ResyncRequestMessage());
+            return;
+        }
+        
+        this.currentSnapshot = localState.snapshot();
+        notifyGameStateUpdated(currentSnapshot);
+    }
+    
+    // 
+// Plays a move from the server on the local copy of the game and checks the result.
+// 
+// @param message The move applied message
+// @return null if the local copy now matches the server's, otherwise what did not match:
+// a gap in the sequence, a move the local copy cannot play, or a different result
+    private String applyMove(MoveAppliedMessage message) {
+        GameState state = localState;
+        if (state == null) {
+            return "no game";
+        }
+        if (message.getSequence() != state.getMoveCount() + 1) {
+            return "expected move " + (state.getMoveCount() + 1);
+        }
+        if (message.getColor() != state.getCurrentTurn()
+                || message.getRow() != state.getDropRow(message.getColumn())
+                || !state.makeMove(message.getColumn())) {
+            return message.getColor() + " cannot play row " + message.getRow() + ", column " + message.getColumn();
+        }
+        if (state.getCurrentTurn() != message.getNextTurn() || state.getStatus() != message.getStatus()) {
+            return "local game is " + state.getStatus() + " with " + state.getCurrentTurn() + " to move";
+        }
+        if (state.getZobristHash() != message.getChecksum()) {
+            return String.format("checksum %016x, server has %016x", state.getZobristHash(), message.getChecksum());
+        }
+        return null;
     }
     
     // 
@@ -273,10 +341,9 @@ public class GameClient {
 // 
 // @param message The message to send
     private void sendMessage(Message message) {
-        if (connected && outputStream != null) {
+        if (connected && channel != null) {
             try {
-                outputStream.writeObject(message);
-                outputStream.flush();
+                channel.write(message);
             } catch (IOException e) {
                 System.err.println("Error sending message to server: " + e.getMessage());
                 cleanup();
@@ -327,8 +394,8 @@ public class GameClient {
     // 
 // Interface for game state-related events.
     public interface GameStateListener {
-        void onGameStarted(GameState gameState, PlayerColor assignedColor, String opponentUsername);
-        void onGameStateUpdated(GameState gameState);
+        void onGameStarted(GameSnapshot gameState, PlayerColor assignedColor, String opponentUsername);
+        void onGameStateUpdated(GameSnapshot gameState);
         void onOpponentDisconnected();
         void onOpponentDeclinedRematch();
     }
@@ -474,7 +541,7 @@ public class GameClient {
 // @param gameState The initial game state
 // @param assignedColor The color assigned to the player
 // @param opponentUsername The username of the opponent
-    private void notifyGameStarted(GameState gameState, PlayerColor assignedColor, String opponentUsername) {
+    private void notifyGameStarted(GameSnapshot gameState, PlayerColor assignedColor, String opponentUsername) {
         Platform.runLater(() -> {
             // CopyOnWriteArrayList is thread-safe and doesn't throw ConcurrentModificationException
             for (GameStateListener listener : gameStateListeners) {
@@ -491,7 +558,7 @@ public class GameClient {
 // Notifies all game state listeners that the game state was updated.
 // 
 // @param gameState The updated game state
-    private void notifyGameStateUpdated(GameState gameState) {
+    private void notifyGameStateUpdated(GameSnapshot gameState) {
         Platform.runLater(() -> {
             // CopyOnWriteArrayList is thread-safe and doesn't throw ConcurrentModificationException
             for (GameStateListener listener : gameStateListeners) {
@@ -552,11 +619,11 @@ public class GameClient {
     }
     
     // 
-// Gets the current game state.
+// Gets the latest game state received from the server.
 // 
-// @return The current game state
-    public GameState getCurrentGameState() {
-        return currentGameState;
+// @return An immutable snapshot of the current game state
+    public GameSnapshot getCurrentSnapshot() {
+        return currentSnapshot;
     }
     
     // 
@@ -583,6 +650,14 @@ public class GameClient {
         return username;
     }
     
+    // 
+// Returns the board size requested at login.
+// 
+// @return The board geometry
+    public BoardGeometry getBoardGeometry() {
+        return boardGeometry;
+    }
+    
     // 
 // Returns whether the client is connected to the server.
 // 
@@ -1,13 +1,16 @@
 package com.connectfour.client.ui;
 
 import com.connectfour.client.GameClient;
-import com.connectfour.client.ai.AIPlayer;
+import com.connectfour.common.ai.AIPlayer;
+import com.connectfour.common.ai.PositionAnalysis;
 import com.connectfour.common.messages.ChatMessage;
+import com.connectfour.common.model.BoardGeometry;
 import com.connectfour.common.model.CellState;
-import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameSnapshot;
 import com.connectfour.common.model.GameStatus;
 import com.connectfour.common.model.PlayerColor;
 import javafx.application.Platform;
+import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -20,6 +23,9 @@ import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import javafx.stage.Stage;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
 // 
 // The main game screen where the Connect Four game is played.
 public class GameScreen implements GameClient.GameStateListener, GameClient.ConnectionListener, GameClient.ChatMessageListener {
@@ -34,9 +40,11 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     private TextFlow chatFlow;
     private TextField chatInput;
     private Circle[][] boardCells;
+    private Label[] hintLabels;
+    private Button hintButton;
     
     // Game state
-    private GameState gameState;
+    private GameSnapshot gameState;
     private PlayerColor playerColor;
     private String opponentUsername;
     private String playerUsername;
@@ -68,7 +76,7 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
         gameClient.addChatMessageListener(this);
         
         // Get initial game state
-        this.gameState = gameClient.getCurrentGameState();
+        this.gameState = gameClient.getCurrentSnapshot();
         this.playerColor = gameClient.getAssignedColor();
         this.opponentUsername = gameClient.getOpponentUsername();
         this.playerUsername = gameClient.getUsername();
@@ -79,7 +87,7 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     
     // 
 // Constructor for AI game.
-    public GameScreen(Stage stage, GameClient gameClient, GameState gameState, PlayerColor playerColor, String aiDifficulty) {
+    public GameScreen(Stage stage, GameClient gameClient, GameSnapshot gameState, PlayerColor playerColor, String aiDifficulty) {
         this.stage = stage;
         this.gameClient = gameClient;
         this.gameState = gameState;
@@ -103,6 +111,12 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     // 
 // Constructor for AI game with username and difficulty.
     public GameScreen(Stage stage, GameClient gameClient, String username, String opponentLabel, String aiDifficulty) {
+        this(stage, gameClient, username, opponentLabel, aiDifficulty, BoardGeometry.STANDARD);
+    }
+    
+    // 
+// Constructor for AI game with username, difficulty and board size.
+    public GameScreen(Stage stage, GameClient gameClient, String username, String opponentLabel, String aiDifficulty, BoardGeometry geometry) {
         this.stage = stage;
         this.gameClient = gameClient;
         this.isAIGame = true;
@@ -111,7 +125,7 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
         this.playerUsername = username;
         
         // Create a new local game state
-        this.gameState = new GameState(username, "Computer");
+        this.gameState = GameSnapshot.empty(geometry);
         
         // Player always starts with RED in local games
         this.playerColor = PlayerColor.RED;
@@ -179,14 +193,19 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
         boardContainer.setCenter(boardGrid);
         boardContainer.setPadding(new Insets(0, 20, 0, 20)); // Add left and right padding
         
-        boardCells = new Circle[GameState.ROWS][GameState.COLUMNS];
+        int rows = gameState.getRows();
+        int columns = gameState.getColumns();
+        boardCells = new Circle[rows][columns];
         
-        for (int row = 0; row < GameState.ROWS; row++) {
-            for (int col = 0; col < GameState.COLUMNS; col++) {
+        // Shrink the cells on larger boards so the board still fits next to the chat
+        double cellSize = Math.min(70, 490.0 / columns);
+        
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
                 StackPane cell = new StackPane();
-                cell.setPrefSize(70, 70);
+                cell.setPrefSize(cellSize, cellSize);
                 
-                Circle circle = new Circle(30);
+                Circle circle = new Circle(cellSize * 3 / 7);
                 circle.setFill(Color.WHITE);
                 circle.setStroke(Color.LIGHTGRAY);
                 circle.setStrokeWidth(1);
@@ -202,6 +221,16 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
             }
         }
         
+        // Hints are shown under the columns they are about
+        hintLabels = new Label[columns];
+        for (int col = 0; col < columns; col++) {
+            Label hintLabel = new Label();
+            hintLabel.setStyle("-fx-font-size: 11px;");
+            GridPane.setHalignment(hintLabel, HPos.CENTER);
+            hintLabels[col] = hintLabel;
+            boardGrid.add(hintLabel, col, rows);
+        }
+        
         rootLayout.setCenter(boardContainer);
     }
     
@@ -258,6 +287,15 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
         HBox turnInfoBox = new HBox();
         turnInfoBox.setAlignment(Pos.CENTER);
         turnInfoBox.getChildren().add(turnLabel);
+        
+        // Hints are only offered against the computer
+        if (isAIGame) {
+            hintButton = new Button("Hint");
+            hintButton.setStyle("-fx-background-color: white; -fx-border-color: #CCCCCC;");
+            hintButton.setOnAction(e -> showHint());
+            turnInfoBox.setSpacing(15);
+            turnInfoBox.getChildren().add(hintButton);
+        }
         turnInfoBox.setPadding(new Insets(10, 0, 10, 0));
         
         // Create game over buttons
@@ -336,23 +374,15 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
         
         if (isAIGame) {
             // Make move locally
-            boolean moveSuccess = gameState.makeMove(column);
-            if (moveSuccess) {
+            if (gameState.canPlay(column)) {
+                gameState = gameState.play(column);
                 updateBoard();
                 updateGameStatus();
                 
                 // If game is still in progress, let AI make its move
                 if (gameState.getStatus() == GameStatus.IN_PROGRESS) {
                     isAITurn = true;
-                    // Add a small delay before AI moves
-                    new Thread(() -> {
-                        try {
-                            Thread.sleep(500);
-                            Platform.runLater(this::makeAIMove);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }).start();
+                    makeAIMove();
                 }
             }
         } else {
@@ -362,21 +392,94 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     }
     
     // 
-// Makes a move for the AI player.
+// Asks the AI for its move. The search runs on the AI's own worker thread and
+// the move is applied on the JavaFX thread once it is ready. A request that is
+// cancelled because the game moved on is ignored; one that fails still gets a move,
+// so that the game cannot hang on the AI's turn.
     private void makeAIMove() {
         if (gameState.getStatus() == GameStatus.IN_PROGRESS && isAITurn) {
-            int column = aiPlayer.getBestMove(gameState);
-            boolean moveSuccess = gameState.makeMove(column);
-            
-            if (moveSuccess) {
-                updateBoard();
-                updateGameStatus();
-                isAITurn = false;
+            GameSnapshot requestedState = gameState;
+            aiPlayer.requestMove(requestedState).whenComplete((column, error) -> {
+                Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+                if (cause instanceof CancellationException) {
+                    return;
+                }
+                if (cause != null) {
+                    System.err.println("AI move failed, playing a random move instead: " + cause);
+                    Platform.runLater(() -> applyAIMove(requestedState, -1));
+                } else {
+                    Platform.runLater(() -> applyAIMove(requestedState, column));
+                }
+            });
+        }
+    }
+    
+    // 
+// Plays the AI's move, unless the game moved on while the AI was thinking. A column
+// that cannot be played is replaced by a random legal one.
+// 
+// @param requestedState The game state the move was computed for
+// @param column The column chosen by the AI, or -1 if it has none
+    private void applyAIMove(GameSnapshot requestedState, int column) {
+        if (gameState != requestedState || !isAITurn) {
+            return;
+        }
+        if (!gameState.canPlay(column)) {
+            if (column >= 0) {
+                System.err.println("AI chose column " + column + ", which cannot be played; playing a random move instead");
+            }
+            column = aiPlayer.getRandomMove(gameState);
+        }
+        
+        gameState = gameState.play(column);
+        updateBoard();
+        updateGameStatus();
+        isAITurn = false;
+        
+        // Think ahead while the player decides on their reply
+        if (gameState.getStatus() == GameStatus.IN_PROGRESS) {
+            aiPlayer.ponder(gameState);
+        }
+    }
+    
+    // 
+// Asks the AI to evaluate every column of the current position. The analysis runs
+// in the background and is shown under the board once it is ready.
+    private void showHint() {
+        if (gameState.getStatus() != GameStatus.IN_PROGRESS || isAITurn) {
+            return;
+        }
+        GameSnapshot requestedState = gameState;
+        hintButton.setDisable(true);
+        aiPlayer.requestAnalysis(requestedState).whenComplete((analysis, error) -> Platform.runLater(() -> {
+            hintButton.setDisable(false);
+            if (analysis != null) {
+                applyHint(requestedState, analysis);
+            }
+        }));
+    }
+    
+    // 
+// Shows an analysis under the board, unless the game moved on in the meantime.
+// 
+// @param requestedState The game state that was analysed
+// @param analysis The evaluation of its columns
+    private void applyHint(GameSnapshot requestedState, PositionAnalysis analysis) {
+        if (gameState != requestedState) {
+            return;
+        }
+        int bestColumn = analysis.getBestColumn();
+        for (int col = 0; col < hintLabels.length; col++) {
+            Label hintLabel = hintLabels[col];
+            hintLabel.setText(analysis.describe(col));
+            if (analysis.isWin(col)) {
+                hintLabel.setTextFill(Color.FORESTGREEN);
+            } else if (analysis.isLoss(col)) {
+                hintLabel.setTextFill(Color.FIREBRICK);
             } else {
-                // If AI couldn't make a valid move (shouldn't happen with proper implementation),
-                // try another column
-                makeAIMove();
+                hintLabel.setTextFill(Color.DIMGRAY);
             }
+            hintLabel.setStyle("-fx-font-size: 11px;" + (col == bestColumn ? " -fx-font-weight: bold;" : ""));
         }
     }
     
@@ -395,8 +498,8 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
 // Updates the game board to reflect the current game state.
     private void updateBoard() {
         System.out.println("Updating board UI from game state...");
-        for (int row = 0; row < GameState.ROWS; row++) {
-            for (int col = 0; col < GameState.COLUMNS; col++) {
+        for (int row = 0; row < gameState.getRows(); row++) {
+            for (int col = 0; col < gameState.getColumns(); col++) {
                 CellState cellState = gameState.getCellState(row, col);
                 
                 switch (cellState) {
@@ -414,6 +517,11 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
                 }
             }
         }
+        // Hints belong to the position they were asked for
+        for (Label hintLabel : hintLabels) {
+            hintLabel.setText("");
+        }
+        
         // Force a layout refresh
         boardGrid.requestLayout();
     }
@@ -506,8 +614,11 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     private void requestPlayAgain(boolean wantToPlayAgain) {
         if (isAIGame) {
             if (wantToPlayAgain) {
+                // Stop a search still running for the finished game
+                aiPlayer.cancel();
+                
                 // Create a new game state for the AI game
-                gameState = new GameState(gameClient.getUsername(), opponentUsername);
+                gameState = GameSnapshot.empty(gameState.getGeometry());
                 
                 // Reset the AI game
                 isAITurn = (playerColor != PlayerColor.RED);
@@ -532,6 +643,11 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     // 
 // Returns to the lobby screen.
     private void returnToLobby() {
+        // Stop the AI's search and worker thread
+        if (aiPlayer != null) {
+            aiPlayer.shutdown();
+        }
+        
         // Stop background music when returning to lobby
         if (backgroundMusic != null) {
             backgroundMusic.stop();
@@ -554,7 +670,7 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     }
     
     @Override
-    public void onGameStarted(GameState gameState, PlayerColor assignedColor, String opponentUsername) {
+    public void onGameStarted(GameSnapshot gameState, PlayerColor assignedColor, String opponentUsername) {
         this.gameState = gameState;
         this.playerColor = assignedColor;
         this.opponentUsername = opponentUsername;
@@ -568,7 +684,7 @@ public class GameScreen implements GameClient.GameStateListener, GameClient.Conn
     }
     
     @Override
-    public void onGameStateUpdated(GameState gameState) {
+    public void onGameStateUpdated(GameSnapshot gameState) {
         // Debug logging
         System.out.println("Game state updated. Current turn: " + gameState.getCurrentTurn() + 
                            ", Player color: " + playerColor + 
@@ -1,7 +1,8 @@
 package com.connectfour.client.ui;
 
 import com.connectfour.client.GameClient;
-import com.connectfour.client.ai.AIPlayer;
+import com.connectfour.common.ai.AIPlayer;
+import com.connectfour.common.model.BoardGeometry;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.geometry.Rectangle2D;
@@ -9,6 +10,7 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
@@ -23,6 +25,7 @@ public class LoginScreen implements GameClient.ConnectionListener {
     private final Stage stage;
     private final GameClient gameClient;
     private TextField usernameField;
+    private ComboBox<BoardGeometry> boardSizeBox;
     private Button playOnlineButton;
     private Button playWithComputerButton;
     private Label statusLabel;
@@ -63,6 +66,13 @@ public class LoginScreen implements GameClient.ConnectionListener {
         usernameField.setPromptText("Enter your username");
         usernameField.setMaxWidth(250);
         
+        // Board size, players are only matched with someone who picked the same board
+        Label boardSizeLabel = new Label("Board:");
+        boardSizeBox = new ComboBox<>();
+        boardSizeBox.getItems().addAll(BoardGeometry.presets());
+        boardSizeBox.setValue(BoardGeometry.STANDARD);
+        boardSizeBox.setMaxWidth(250);
+        
         // Create buttons
         playOnlineButton = new Button("Play Online");
         playOnlineButton.setDefaultButton(true);
@@ -87,7 +97,7 @@ public class LoginScreen implements GameClient.ConnectionListener {
         layout.setAlignment(Pos.CENTER);
         layout.setPadding(new Insets(30));
         layout.setStyle("-fx-background-color: #F7F5F2;");
-        layout.getChildren().addAll(titleLabel, usernameLabel, usernameField, buttonBox, statusLabel);
+        layout.getChildren().addAll(titleLabel, usernameLabel, usernameField, boardSizeLabel, boardSizeBox, buttonBox, statusLabel);
         
         // Create scene with 50% of screen size
         Scene scene = new Scene(layout, width, height);
@@ -121,7 +131,7 @@ public class LoginScreen implements GameClient.ConnectionListener {
         statusLabel.setStyle("-fx-text-fill: blue;");
         
         // Connect to the server
-        gameClient.connect(username);
+        gameClient.connect(username, boardSizeBox.getValue());
     }
     
     // 
@@ -152,17 +162,30 @@ public class LoginScreen implements GameClient.ConnectionListener {
         Button mediumButton = new Button("Medium");
         Button hardButton = new Button("Hard");
         
+        // Monte Carlo levels, scaled by thinking time
+        Label monteCarloLabel = new Label("Monte Carlo tree search:");
+        Button monteCarloEasyButton = new Button("Easy");
+        Button monteCarloMediumButton = new Button("Medium");
+        Button monteCarloHardButton = new Button("Hard");
+        
         // Style buttons
         String buttonStyle = "-fx-min-width: 100px; -fx-padding: 10px;";
         easyButton.setStyle(buttonStyle);
         mediumButton.setStyle(buttonStyle);
         hardButton.setStyle(buttonStyle);
+        monteCarloEasyButton.setStyle(buttonStyle);
+        monteCarloMediumButton.setStyle(buttonStyle);
+        monteCarloHardButton.setStyle(buttonStyle);
         
         HBox buttonBox = new HBox(15);
         buttonBox.setAlignment(Pos.CENTER);
         buttonBox.getChildren().addAll(easyButton, mediumButton, hardButton);
         
-        dialogContent.getChildren().addAll(difficultyLabel, buttonBox);
+        HBox monteCarloBox = new HBox(15);
+        monteCarloBox.setAlignment(Pos.CENTER);
+        monteCarloBox.getChildren().addAll(monteCarloEasyButton, monteCarloMediumButton, monteCarloHardButton);
+        
+        dialogContent.getChildren().addAll(difficultyLabel, buttonBox, monteCarloLabel, monteCarloBox);
         
         // Create dialog
         Dialog<String> dialog = new Dialog<>();
@@ -186,13 +209,28 @@ public class LoginScreen implements GameClient.ConnectionListener {
             dialog.close();
         });
         
+        monteCarloEasyButton.setOnAction(e -> {
+            dialog.setResult("Monte Carlo Easy");
+            dialog.close();
+        });
+        
+        monteCarloMediumButton.setOnAction(e -> {
+            dialog.setResult("Monte Carlo Medium");
+            dialog.close();
+        });
+        
+        monteCarloHardButton.setOnAction(e -> {
+            dialog.setResult("Monte Carlo Hard");
+            dialog.close();
+        });
+        
         // Show dialog and start game with selected difficulty
         dialog.showAndWait().ifPresent(difficulty -> {
             // Remove this as a connection listener
             gameClient.removeConnectionListener(this);
             
             // Start local game against AI with selected difficulty
-            GameScreen gameScreen = new GameScreen(stage, gameClient, username, "Computer (" + difficulty + ")", difficulty);
+            GameScreen gameScreen = new GameScreen(stage, gameClient, username, "Computer (" + difficulty + ")", difficulty, boardSizeBox.getValue());
             gameScreen.show();
         });
     }
@@ -1,7 +1,7 @@
 package com.connectfour.client.ui;
 
 import com.connectfour.client.GameClient;
-import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameSnapshot;
 import com.connectfour.common.model.PlayerColor;
 import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
@@ -105,13 +105,32 @@ public class WaitingScreen implements GameClient.ConnectionListener, GameClient.
         hardButton.setPrefWidth(120);
         hardButton.setOnAction(e -> startAIGame("Hard"));
         
+        // Monte Carlo levels, scaled by thinking time
+        Label monteCarloLabel = new Label("Monte Carlo tree search:");
+        
+        Button monteCarloEasyButton = new Button("Easy");
+        monteCarloEasyButton.setPrefWidth(100);
+        monteCarloEasyButton.setOnAction(e -> startAIGame("Monte Carlo Easy"));
+        
+        Button monteCarloMediumButton = new Button("Medium");
+        monteCarloMediumButton.setPrefWidth(100);
+        monteCarloMediumButton.setOnAction(e -> startAIGame("Monte Carlo Medium"));
+        
+        Button monteCarloHardButton = new Button("Hard");
+        monteCarloHardButton.setPrefWidth(100);
+        monteCarloHardButton.setOnAction(e -> startAIGame("Monte Carlo Hard"));
+        
+        HBox monteCarloButtons = new HBox(10);
+        monteCarloButtons.setAlignment(Pos.CENTER);
+        monteCarloButtons.getChildren().addAll(monteCarloEasyButton, monteCarloMediumButton, monteCarloHardButton);
+        
         Button backButton = new Button("Back");
         backButton.setOnAction(e -> show()); // Go back to waiting screen
         
         // Create difficulty buttons layout
         VBox difficultyButtons = new VBox(10);
         difficultyButtons.setAlignment(Pos.CENTER);
-        difficultyButtons.getChildren().addAll(easyButton, mediumButton, hardButton);
+        difficultyButtons.getChildren().addAll(easyButton, mediumButton, hardButton, monteCarloLabel, monteCarloButtons);
         
         // Create layout
         VBox layout = new VBox(20);
@@ -120,7 +139,7 @@ public class WaitingScreen implements GameClient.ConnectionListener, GameClient.
         layout.getChildren().addAll(titleLabel, promptLabel, difficultyButtons, backButton);
         
         // Create scene
-        Scene scene = new Scene(layout, 400, 300);
+        Scene scene = new Scene(layout, 400, 380);
         
         // Set the scene to the stage
         stage.setScene(scene);
@@ -139,7 +158,7 @@ public class WaitingScreen implements GameClient.ConnectionListener, GameClient.
         gameClient.removeGameStateListener(this);
         
         // Create a local game state
-        GameState gameState = new GameState(gameClient.getUsername(), "Computer (" + difficulty + ")");
+        GameSnapshot gameState = GameSnapshot.empty(gameClient.getBoardGeometry());
         
         // Show the game screen with AI opponent
         GameScreen gameScreen = new GameScreen(stage, gameClient, gameState, PlayerColor.RED, difficulty);
@@ -201,7 +220,7 @@ public class WaitingScreen implements GameClient.ConnectionListener, GameClient.
     }
     
     @Override
-    public void onGameStarted(GameState gameState, PlayerColor assignedColor, String opponentUsername) {
+    public void onGameStarted(GameSnapshot gameState, PlayerColor assignedColor, String opponentUsername) {
         // Game is starting, stop the waiting animation
         stopWaitingAnimation();
         
@@ -215,7 +234,7 @@ public class WaitingScreen implements GameClient.ConnectionListener, GameClient.
     }
     
     @Override
-    public void onGameStateUpdated(GameState gameState) {
+    public void onGameStateUpdated(GameSnapshot gameState) {
         // Not used in waiting screen
     }
     
@@ -0,0 +1,529 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+import com.connectfour.common.model.Position;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// 
+// AI player for Connect Four with three difficulty levels, plus three Monte Carlo levels
+// that play by tree search over random games instead of alpha-beta. The Monte Carlo
+// levels differ only in the time they may think; the stronger ones get more playouts.
+// 
+// Moves can be computed synchronously with getBestMove, or in the background with
+// requestMove, which runs the search on the player's own worker thread and can be
+// cancelled when the game is left.
+// 
+// The searching levels can also ponder: while the opponent thinks, ponder guesses their
+// reply and searches the position it leads to. If the guess is right, the request for
+// that position picks up the running search instead of starting over; if it is wrong,
+// the pondering is dropped, though the transposition table it filled is kept.
+// 
+// Any level can also analyse a position for hints or game review: analyze scores every
+// legal column with an engine of its own, and keeps the last few analyses by position.
+public class AIPlayer {
+    public enum Difficulty {
+        EASY(0, false), MEDIUM(0, false), HARD(1500, false),
+        MONTE_CARLO_EASY(250, true), MONTE_CARLO_MEDIUM(750, true), MONTE_CARLO_HARD(1500, true);
+        
+        private final long searchTimeMillis;
+        private final boolean monteCarlo;
+        
+        Difficulty(long searchTimeMillis, boolean monteCarlo) {
+            this.searchTimeMillis = searchTimeMillis;
+            this.monteCarlo = monteCarlo;
+        }
+        
+        // 
+// Gets the time the level may spend searching for a move. Levels that
+// do not search answer at once.
+// 
+// @return The search time budget in milliseconds
+        public long getSearchTimeMillis() {
+            return searchTimeMillis;
+        }
+        
+        public boolean isSearching() {
+            return searchTimeMillis > 0;
+        }
+        
+        public boolean isMonteCarlo() {
+            return monteCarlo;
+        }
+    }
+    
+    // Moves requested with requestMove are never answered faster than this, so the
+    // human can see their own move land before the reply
+    private static final long MIN_MOVE_DELAY_MILLIS = 500;
+    
+    // Transposition table of the Hard level, 8 bytes per entry
+    private static final int SEARCH_TABLE_ENTRIES = 1 << 20;
+    
+    // Tree of each Monte Carlo search thread, about 15 bytes per node
+    private static final int MCTS_TREE_NODES = 1 << 18;
+    
+    // Time spent guessing the opponent's reply before pondering on it
+    private static final long PREDICTION_TIME_MILLIS = 100;
+    
+    // Pondering gives up after this long, so an idle game does not keep a core busy
+    private static final long MAX_PONDER_MILLIS = 60_000;
+    
+    // Time one analysis may take, and how many analysed positions are kept
+    private static final long ANALYSIS_TIME_MILLIS = 1000;
+    private static final int ANALYSIS_CACHE_SIZE = 128;
+    
+    private final Difficulty difficulty;
+    private final long searchTimeMillis;
+    private final Random random;
+    private final SearchEngine searchEngine;
+    private final MctsEngine mctsEngine;
+    private final ExecutorService worker;
+    private Future<?> pendingMove;
+    private final PlayerColor aiColor;
+    private final PlayerColor playerColor;
+    
+    // The position being pondered on, the thread searching it and the result once it stops
+    private GameSnapshot ponderState;
+    private Thread ponderThread;
+    private long ponderStartNanos;
+    private SearchResult ponderResult;
+    
+    private volatile SearchResult lastResult;
+    
+    // The analysis engine, its thread and its results, created with the first analysis
+    private final Object analysisLock = new Object();
+    private volatile SearchEngine analysisEngine;
+    private ExecutorService analysisWorker;
+    private final Map<Long, PositionAnalysis> analyses = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PositionAnalysis> eldest) {
+            return size() > ANALYSIS_CACHE_SIZE;
+        }
+    };
+    
+    // 
+// Creates a new AI player with the specified difficulty.
+// 
+// @param difficultyStr The difficulty as a string
+// @param aiColor The color assigned to the AI
+    public AIPlayer(String difficultyStr, PlayerColor aiColor) {
+        this(difficultyStr, aiColor, SearchEngine.defaultThreads());
+    }
+    
+    // 
+// Creates a new AI player with the specified difficulty and number of search threads.
+// 
+// @param difficultyStr The difficulty as a string
+// @param aiColor The color assigned to the AI
+// @param searchThreads The number of threads the Hard level searches with
+    public AIPlayer(String difficultyStr, PlayerColor aiColor, int searchThreads) {
+        this(difficultyStr, aiColor, searchThreads, -1);
+    }
+    
+    // 
+// Creates a new AI player with the specified difficulty, number of search threads and
+// time per move.
+// 
+// @param difficultyStr The difficulty as a string
+// @param aiColor The color assigned to the AI
+// @param searchThreads The number of threads the searching levels use
+// @param searchTimeMillis The search time per move, or a negative value for the level's own
+    public AIPlayer(String difficultyStr, PlayerColor aiColor, int searchThreads, long searchTimeMillis) {
+        this.difficulty = getDifficultyFromString(difficultyStr);
+        this.searchTimeMillis = (searchTimeMillis >= 0) ? searchTimeMillis : difficulty.getSearchTimeMillis();
+        this.aiColor = aiColor;
+        this.playerColor = (aiColor == PlayerColor.RED) ? PlayerColor.YELLOW : PlayerColor.RED;
+        this.random = new Random();
+        this.searchEngine = (difficulty == Difficulty.HARD) ? new SearchEngine(SEARCH_TABLE_ENTRIES, searchThreads) : null;
+        this.mctsEngine = difficulty.isMonteCarlo() ? new MctsEngine(MCTS_TREE_NODES, searchThreads) : null;
+        this.worker = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "ai-" + this.difficulty.name().toLowerCase());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // 
+// Converts a string difficulty to the corresponding enum value. "Monte Carlo" on its
+// own, the name of the single Monte Carlo level of earlier versions, is the hard one.
+// 
+// @param difficultyStr The difficulty as a string
+// @return The difficulty enum value
+    private Difficulty getDifficultyFromString(String difficultyStr) {
+        if ("Medium".equalsIgnoreCase(difficultyStr)) {
+            return Difficulty.MEDIUM;
+        } else if ("Hard".equalsIgnoreCase(difficultyStr)) {
+            return Difficulty.HARD;
+        } else if ("Monte Carlo Easy".equalsIgnoreCase(difficultyStr)) {
+            return Difficulty.MONTE_CARLO_EASY;
+        } else if ("Monte Carlo Medium".equalsIgnoreCase(difficultyStr)) {
+            return Difficulty.MONTE_CARLO_MEDIUM;
+        } else if ("Monte Carlo Hard".equalsIgnoreCase(difficultyStr) || "Monte Carlo".equalsIgnoreCase(difficultyStr)) {
+            return Difficulty.MONTE_CARLO_HARD;
+        } else {
+            return Difficulty.EASY;
+        }
+    }
+    
+    // 
+// Gets the best move for the AI based on the current game state.
+// 
+// @param gameState The current game state
+// @return The column to make a move in (0-based index)
+    public int getBestMove(GameSnapshot gameState) {
+        switch (difficulty) {
+            case MEDIUM:
+                return getMediumMove(gameState);
+            case HARD:
+                return getHardMove(gameState);
+            case MONTE_CARLO_EASY:
+            case MONTE_CARLO_MEDIUM:
+            case MONTE_CARLO_HARD:
+                return getMonteCarloMove(gameState);
+            case EASY:
+            default:
+                return getEasyMove(gameState);
+        }
+    }
+    
+    // 
+// Computes a move on the AI's worker thread. A request that is still running is
+// cancelled first.
+// 
+// @param gameState The game state to move in
+// @return A future completed with the chosen column, or cancelled if cancel() is called first
+    public synchronized CompletableFuture<Integer> requestMove(GameSnapshot gameState) {
+        if (gameState.equals(ponderState)) {
+            // Ponder hit: the pondering search keeps whatever is left of the budget
+            long budget = TimeUnit.MILLISECONDS.toNanos(searchTimeMillis);
+            long remaining = budget - (System.nanoTime() - ponderStartNanos);
+            if (remaining <= 0) {
+                stopPondering(gameState);
+            } else {
+                CompletableFuture.delayedExecutor(remaining, TimeUnit.NANOSECONDS).execute(() -> stopPondering(gameState));
+            }
+        } else {
+            cancel();
+        }
+        
+        long start = System.nanoTime();
+        CompletableFuture<Integer> move = new CompletableFuture<>();
+        pendingMove = worker.submit(() -> {
+            try {
+                int column = getPonderedMove(gameState);
+                if (column < 0) {
+                    column = getBestMove(gameState);
+                }
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (elapsedMillis < MIN_MOVE_DELAY_MILLIS) {
+                    Thread.sleep(MIN_MOVE_DELAY_MILLIS - elapsedMillis);
+                }
+                move.complete(column);
+            } catch (InterruptedException e) {
+                move.cancel(false);
+            } catch (RuntimeException e) {
+                move.completeExceptionally(e);
+            }
+        });
+        return move;
+    }
+    
+    // 
+// Cancels the move being computed by requestMove, if any. Its future is not completed
+// with a move.
+    public synchronized void cancel() {
+        if (pendingMove != null) {
+            pendingMove.cancel(true);
+            pendingMove = null;
+        }
+        if (ponderThread != null) {
+            ponderThread.interrupt();
+        }
+        ponderState = null;
+        if (searchEngine != null) {
+            searchEngine.stop();
+        }
+        if (mctsEngine != null) {
+            mctsEngine.stop();
+        }
+    }
+    
+    // 
+// Starts searching in the background for the position the AI expects after the
+// opponent's reply. Only the searching levels ponder; the search stops when the next
+// move is requested, cancel() is called or MAX_PONDER_MILLIS have passed.
+// 
+// @param gameState The game state with the opponent to move
+    public synchronized void ponder(GameSnapshot gameState) {
+        cancel();
+        if (!difficulty.isSearching() || gameState.getStatus() != GameStatus.IN_PROGRESS) {
+            return;
+        }
+        pendingMove = worker.submit(() -> runPonder(gameState));
+    }
+    
+    private void runPonder(GameSnapshot gameState) {
+        // The opponent's likely reply is what a short search of their position prefers
+        int reply = search(new Position(gameState), TimeUnit.MILLISECONDS.toNanos(PREDICTION_TIME_MILLIS)).getColumn();
+        GameSnapshot predicted = gameState.play(reply);
+        if (predicted.getStatus() != GameStatus.IN_PROGRESS) {
+            return;
+        }
+        
+        synchronized (this) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            ponderState = predicted;
+            ponderThread = Thread.currentThread();
+            ponderStartNanos = System.nanoTime();
+            ponderResult = null;
+        }
+        SearchResult result = null;
+        try {
+            result = search(new Position(predicted), TimeUnit.MILLISECONDS.toNanos(MAX_PONDER_MILLIS));
+        } finally {
+            synchronized (this) {
+                ponderThread = null;
+                ponderResult = result;
+                Thread.interrupted(); // a stop that arrived after the search ended
+            }
+        }
+    }
+    
+    // Ends the pondering search on the given position, if it is still running
+    private synchronized void stopPondering(GameSnapshot gameState) {
+        if (ponderThread != null && gameState.equals(ponderState)) {
+            ponderThread.interrupt();
+        }
+    }
+    
+    // Gets the move found by pondering on the given position, or -1 if there is none
+    private synchronized int getPonderedMove(GameSnapshot gameState) {
+        if (ponderResult == null || !gameState.equals(ponderState) || ponderResult.getDepth() == 0) {
+            return -1;
+        }
+        return ponderResult.getColumn();
+    }
+    
+    // 
+// Cancels any pending move and stops the worker thread. The player cannot be
+// used for requestMove afterwards.
+    public synchronized void shutdown() {
+        cancel();
+        worker.shutdownNow();
+        if (analysisWorker != null) {
+            analysisWorker.shutdownNow();
+        }
+        SearchEngine engine = analysisEngine;
+        if (engine != null) {
+            engine.shutdown();
+        }
+        if (searchEngine != null) {
+            searchEngine.shutdown();
+        }
+        if (mctsEngine != null) {
+            mctsEngine.shutdown();
+        }
+    }
+    
+    // 
+// Evaluates every legal column of a position: a proven win, loss or draw with its
+// distance to the end, or an estimate with its search depth. A position analysed
+// before is answered from the kept results without searching again. Runs on the
+// calling thread and does not disturb the AI's own moves or pondering.
+// 
+// @param gameState The game state to analyse
+// @return The evaluation of every column
+// @throws IllegalArgumentException if the game is already over
+    public PositionAnalysis analyze(GameSnapshot gameState) {
+        if (gameState.getStatus() != GameStatus.IN_PROGRESS) {
+            throw new IllegalArgumentException("Cannot analyse a finished game");
+        }
+        synchronized (analysisLock) {
+            long hash = gameState.getZobristHash();
+            PositionAnalysis cached = analyses.get(hash);
+            if (cached != null && cached.getGeometry().equals(gameState.getGeometry())
+                    && cached.getMoveCount() == gameState.getMoveCount()) {
+                return cached;
+            }
+            if (analysisEngine == null) {
+                analysisEngine = new SearchEngine(SEARCH_TABLE_ENTRIES, 1);
+            }
+            PositionAnalysis analysis = analysisEngine.analyze(new Position(gameState),
+                    TimeUnit.MILLISECONDS.toNanos(ANALYSIS_TIME_MILLIS));
+            analyses.put(hash, analysis);
+            return analysis;
+        }
+    }
+    
+    // 
+// Analyses a position on a background thread of its own, see analyze.
+// 
+// @param gameState The game state to analyse
+// @return A future completed with the evaluation of every column
+    public CompletableFuture<PositionAnalysis> requestAnalysis(GameSnapshot gameState) {
+        return CompletableFuture.supplyAsync(() -> analyze(gameState), getAnalysisWorker());
+    }
+    
+    private synchronized ExecutorService getAnalysisWorker() {
+        if (analysisWorker == null) {
+            analysisWorker = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "ai-analysis");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return analysisWorker;
+    }
+    
+    // 
+// Gets a random valid move without searching, the move of the Easy difficulty. Callers
+// also use it when a requested move failed.
+// 
+// @param gameState The current game state, with at least one playable column
+// @return The column to make a move in
+    public int getRandomMove(GameSnapshot gameState) {
+        List<Integer> validMoves = getValidMoves(gameState);
+        return validMoves.get(random.nextInt(validMoves.size()));
+    }
+    
+    // 
+// Gets a random valid move (Easy difficulty).
+// 
+// @param gameState The current game state
+// @return The column to make a move in
+    private int getEasyMove(GameSnapshot gameState) {
+        return getRandomMove(gameState);
+    }
+    
+    // 
+// Gets a semi-intelligent move (Medium difficulty).
+// Plays a winning move if possible, or blocks the opponent from winning.
+// Otherwise, plays a random move.
+// 
+// @param gameState The current game state
+// @return The column to make a move in
+    private int getMediumMove(GameSnapshot gameState) {
+        // Check for winning moves
+        List<Integer> validMoves = getValidMoves(gameState);
+        Position position = new Position(gameState);
+        
+        // Try each valid move to see if it results in a win
+        for (int column : validMoves) {
+            if (position.isWinningMove(column)) {
+                return column;
+            }
+        }
+        
+        // Check for opponent winning moves to block
+        for (int column : validMoves) {
+            if (position.isBlockingMove(column)) {
+                return column;
+            }
+        }
+        
+        // If no winning or blocking move, choose a random move
+        return validMoves.get(random.nextInt(validMoves.size()));
+    }
+    
+    // 
+// Gets the best move found by the search engine (Hard difficulty).
+// Positions in the opening book or the solved position cache are answered without
+// searching; otherwise the engine deepens until the result is solved or the level's time budget runs out.
+// 
+// @param gameState The current game state
+// @return The column to make a move in
+    private int getHardMove(GameSnapshot gameState) {
+        Position position = new Position(gameState);
+        OpeningBook book = OpeningBook.forGeometry(gameState.getGeometry());
+        if (book != null) {
+            int bookMove = book.getBestMove(position);
+            if (bookMove >= 0 && position.canPlay(bookMove)) {
+                return bookMove;
+            }
+        }
+        SolvedCache cache = SolvedCache.shared();
+        if (cache != null) {
+            int cachedMove = cache.getBestMove(position);
+            if (cachedMove >= 0 && position.canPlay(cachedMove)) {
+                return cachedMove;
+            }
+        }
+        
+        long budget = TimeUnit.MILLISECONDS.toNanos(searchTimeMillis);
+        return search(position, budget).getColumn();
+    }
+    
+    // 
+// Gets the most promising move found by Monte Carlo tree search (Monte Carlo difficulties)
+// within the level's time budget.
+// 
+// @param gameState The current game state
+// @return The column to make a move in
+    private int getMonteCarloMove(GameSnapshot gameState) {
+        Position position = new Position(gameState);
+        long budget = TimeUnit.MILLISECONDS.toNanos(searchTimeMillis);
+        return search(position, budget).getColumn();
+    }
+    
+    // 
+// Searches a position with the level's engine. Solved results of the alpha-beta
+// engine are kept in the solved position cache.
+// 
+// @param position The position to search
+// @param budgetNanos The time the search may take, in nanoseconds
+// @return The search result
+    private SearchResult search(Position position, long budgetNanos) {
+        SearchResult result;
+        if (difficulty.isMonteCarlo()) {
+            result = mctsEngine.search(position, budgetNanos);
+        } else {
+            result = searchEngine.search(position, position.getGeometry().getCellCount(), budgetNanos);
+            SolvedCache cache = SolvedCache.shared();
+            if (cache != null && result.isSolved()) {
+                cache.store(position, result.getScore(), result.getColumn());
+            }
+        }
+        lastResult = result;
+        return result;
+    }
+    
+    // 
+// Gets the result of the most recent search, for statistics. Moves taken from the
+// opening book or the solved position cache, and the levels that do not search,
+// leave it unchanged.
+// 
+// @return The last search result, or null if the player has not searched yet
+    public SearchResult getLastSearchResult() {
+        return lastResult;
+    }
+    
+    // 
+// Gets a list of valid moves (columns where a piece can be placed).
+// 
+// @param gameState The current game state
+// @return List of valid column indexes
+    private List<Integer> getValidMoves(GameSnapshot gameState) {
+        List<Integer> validMoves = new ArrayList<>();
+        
+        for (int col = 0; col < gameState.getColumns(); col++) {
+            if (gameState.canPlay(col)) {
+                validMoves.add(col);
+            }
+        }
+        
+        return validMoves;
+    }
+} 
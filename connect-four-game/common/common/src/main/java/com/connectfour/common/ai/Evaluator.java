@@ -0,0 +1,180 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.PlayerColor;
+import com.connectfour.common.model.Position;
+
+import java.util.Arrays;
+
+// 
+// Static evaluation for positions the search cannot see to the end.
+// 
+// The board is scored by its winning windows, every run of connect cells in a row (69 of
+// them on a 6x7 board). A window that holds stones of one player only is still open to
+// them and counts for that player, the more so the fuller it is; a window holding stones
+// of both players is dead and counts for nobody.
+// 
+// The evaluator follows the search move by move: play and undo update the stone counts
+// of the windows through the changed cell and keep the score as a running sum, so
+// evaluate is a lookup rather than a scan over the board. One instance follows one
+// position and must be reset when the search starts on another.
+final class Evaluator {
+    // Value of an open window by the number of stones in it
+    private static final int[] WINDOW_WEIGHTS = {0, 1, 3, 9, 27, 81, 243};
+    
+    // Keeps crowded large boards clear of the range of proven results
+    private static final int MAX_SCORE = SearchEngine.WIN_SCORE / 2;
+    
+    private final BoardGeometry geometry;
+    private final long[] windowMasks;
+    
+    // Windows through each bit index: cellWindows[cellStart[bit]] up to cellStart[bit + 1]
+    private final int[] cellStart;
+    private final int[] cellWindows;
+    
+    // Stones in every window, packed as RED + YELLOW * (connect + 1), and the sum of the
+    // window values from RED's side
+    private final int yellowStep;
+    private final int[] windowStates;
+    private int score;
+    
+    // Change of a window's value when RED or YELLOW adds a stone to it, by window state
+    private final int[] redDelta;
+    private final int[] yellowDelta;
+    
+    // Cells played since the last reset, as bit index * 2 + 1 for YELLOW
+    private final int[] moveStack;
+    private int stackSize;
+    
+    Evaluator(BoardGeometry geometry) {
+        this.geometry = geometry;
+        
+        int rows = geometry.getRows();
+        int columns = geometry.getColumns();
+        int connect = geometry.getConnect();
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        long[] masks = new long[rows * columns * directions.length];
+        int windowCount = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                for (int[] direction : directions) {
+                    int endRow = row + direction[0] * (connect - 1);
+                    int endCol = col + direction[1] * (connect - 1);
+                    if (endRow < 0 || endRow >= rows || endCol < 0 || endCol >= columns) {
+                        continue;
+                    }
+                    long window = 0;
+                    for (int i = 0; i < connect; i++) {
+                        window |= geometry.cell(row + direction[0] * i, col + direction[1] * i);
+                    }
+                    masks[windowCount++] = window;
+                }
+            }
+        }
+        this.windowMasks = Arrays.copyOf(masks, windowCount);
+        
+        this.cellStart = new int[Long.SIZE + 1];
+        this.cellWindows = new int[windowCount * connect];
+        int entries = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            cellStart[bit] = entries;
+            for (int window = 0; window < windowCount; window++) {
+                if ((windowMasks[window] & (1L << bit)) != 0) {
+                    cellWindows[entries++] = window;
+                }
+            }
+        }
+        cellStart[Long.SIZE] = entries;
+        
+        this.yellowStep = connect + 1;
+        this.redDelta = new int[yellowStep * yellowStep];
+        this.yellowDelta = new int[yellowStep * yellowStep];
+        for (int red = 0; red < connect; red++) {
+            for (int yellow = 0; yellow < connect; yellow++) {
+                int state = red + yellow * yellowStep;
+                redDelta[state] = value(red + 1, yellow, connect) - value(red, yellow, connect);
+                yellowDelta[state] = value(red, yellow + 1, connect) - value(red, yellow, connect);
+            }
+        }
+        this.windowStates = new int[windowCount];
+        this.moveStack = new int[geometry.getCellCount()];
+    }
+    
+    BoardGeometry getGeometry() {
+        return geometry;
+    }
+    
+    // 
+// Counts the stones of every window of a position from scratch.
+// 
+// @param position The position the following play and undo calls start from
+    void reset(Position position) {
+        boolean redToMove = position.getSideToMove() == PlayerColor.RED;
+        long red = redToMove ? position.getCurrentStones() : position.getOpponentStones();
+        long yellow = redToMove ? position.getOpponentStones() : position.getCurrentStones();
+        int connect = geometry.getConnect();
+        score = 0;
+        for (int window = 0; window < windowMasks.length; window++) {
+            int redStones = Long.bitCount(red & windowMasks[window]);
+            int yellowStones = Long.bitCount(yellow & windowMasks[window]);
+            windowStates[window] = redStones + yellowStones * yellowStep;
+            score += value(redStones, yellowStones, connect);
+        }
+        stackSize = 0;
+    }
+    
+    // 
+// Adds the stone the player to move is about to drop in a column. Call before
+// Position.play.
+// 
+// @param position The position before the move
+// @param column The column played
+    void play(Position position, int column) {
+        int bit = Long.numberOfTrailingZeros(geometry.dropCell(position.getMask(), column));
+        boolean yellow = position.getSideToMove() == PlayerColor.YELLOW;
+        moveStack[stackSize++] = (bit << 1) | (yellow ? 1 : 0);
+        int[] delta = yellow ? yellowDelta : redDelta;
+        int step = yellow ? yellowStep : 1;
+        for (int i = cellStart[bit], end = cellStart[bit + 1]; i < end; i++) {
+            int window = cellWindows[i];
+            int state = windowStates[window];
+            score += delta[state];
+            windowStates[window] = state + step;
+        }
+    }
+    
+    // 
+// Removes the stone added by the last play.
+    void undo() {
+        int move = moveStack[--stackSize];
+        int bit = move >>> 1;
+        boolean yellow = (move & 1) != 0;
+        int[] delta = yellow ? yellowDelta : redDelta;
+        int step = yellow ? yellowStep : 1;
+        for (int i = cellStart[bit], end = cellStart[bit + 1]; i < end; i++) {
+            int window = cellWindows[i];
+            int state = windowStates[window] - step;
+            windowStates[window] = state;
+            score -= delta[state];
+        }
+    }
+    
+    // Value of one window for RED; a full window is a win and never scored here
+    private static int value(int red, int yellow, int connect) {
+        if (red >= connect || yellow >= connect || (red > 0 && yellow > 0)) {
+            return 0;
+        }
+        return (red > 0) ? WINDOW_WEIGHTS[Math.min(red, WINDOW_WEIGHTS.length - 1)]
+                : -WINDOW_WEIGHTS[Math.min(yellow, WINDOW_WEIGHTS.length - 1)];
+    }
+    
+    // 
+// Scores the position the evaluator follows, from the point of view of the player to move.
+// 
+// @param position The position to score
+// @return A score well inside (-SearchEngine.WIN_SCORE, SearchEngine.WIN_SCORE)
+    int evaluate(Position position) {
+        int bounded = Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+        return (position.getSideToMove() == PlayerColor.RED) ? bounded : -bounded;
+    }
+} 
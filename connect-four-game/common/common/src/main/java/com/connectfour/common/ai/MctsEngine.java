@@ -0,0 +1,395 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 
+// Monte Carlo tree search with UCT selection and random playouts.
+// 
+// Unlike SearchEngine it needs no evaluation function: a position is worth what random
+// games played from it score on average, and the tree grows towards the moves that have
+// done best so far. It can be stopped at any time and always has a move, so the time
+// budget alone sets how well it plays.
+// 
+// Each thread grows its own tree from the root (root parallelization); the trees share
+// nothing while searching and their root visit counts are added up at the end. A tree
+// is a set of parallel primitive arrays indexed by node, with the children of a node
+// stored next to each other, so growing it allocates nothing.
+// 
+// One instance should only be used by one thread at a time, apart from stop().
+public class MctsEngine {
+    private static final int DEFAULT_TREE_NODES = 1 << 18; // about 4 MB per thread
+    
+    // Exploration constant of UCT, sqrt(2) for results between 0 and 1
+    private static final double EXPLORATION = Math.sqrt(2);
+    
+    // Scale of the score reported for a win rate, well below the proven results of SearchEngine
+    private static final int MAX_ESTIMATE = 1000;
+    
+    // How many playouts are run between two looks at the clock
+    private static final int CHECK_INTERVAL_MASK = 255;
+    
+    // Result of the move that leads into a node
+    private static final byte OUTCOME_OPEN = 0;
+    private static final byte OUTCOME_WIN = 1;
+    private static final byte OUTCOME_DRAW = 2;
+    
+    private static final AtomicInteger ENGINE_COUNT = new AtomicInteger();
+    
+    private final Tree[] trees;
+    private final ExecutorService helperPool;
+    
+    private volatile boolean stopRequested;
+    
+    public MctsEngine() {
+        this(DEFAULT_TREE_NODES, SearchEngine.defaultThreads());
+    }
+    
+    // 
+// Creates an engine.
+// 
+// @param treeNodes The number of nodes each thread's tree can hold, about 15 bytes each
+// @param threads The number of search threads, including the calling thread
+    public MctsEngine(int treeNodes, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        }
+        this.trees = new Tree[threads];
+        for (int i = 0; i < threads; i++) {
+            trees[i] = new Tree(treeNodes);
+        }
+        
+        if (threads > 1) {
+            int engineId = ENGINE_COUNT.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.helperPool = Executors.newFixedThreadPool(threads - 1, task -> {
+                Thread thread = new Thread(task, "mcts-" + engineId + "-helper-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.helperPool = null;
+        }
+    }
+    
+    public int getThreads() {
+        return trees.length;
+    }
+    
+    // 
+// Searches a position until the time budget runs out or stop() is called.
+// 
+// @param position The position to search; it is restored before returning
+// @param timeBudgetNanos The time the search may take, in nanoseconds
+// @return The most visited move
+// @throws IllegalStateException if the position has no legal move
+    public SearchResult search(Position position, long timeBudgetNanos) {
+        return search(position, timeBudgetNanos, Long.MAX_VALUE);
+    }
+    
+    // 
+// Searches a position until the time budget or the number of playouts runs out, or
+// stop() is called. Every thread runs up to maxPlayouts playouts of its own.
+// 
+// @param position The position to search; it is restored before returning
+// @param timeBudgetNanos The time the search may take, in nanoseconds
+// @param maxPlayouts The number of playouts per thread
+// @return The most visited move
+// @throws IllegalStateException if the position has no legal move
+    public SearchResult search(Position position, long timeBudgetNanos, long maxPlayouts) {
+        long start = System.nanoTime();
+        stopRequested = false;
+        int columns = position.getGeometry().getColumns();
+        
+        // A win in one needs no statistics
+        boolean canMove = false;
+        for (int column = 0; column < columns; column++) {
+            if (position.isWinningMove(column)) {
+                int score = SearchEngine.WIN_SCORE - (position.getMoveCount() + 1);
+                return new SearchResult(column, score, 1, position.getMoveCount(), 1, 0, System.nanoTime() - start);
+            }
+            canMove |= position.canPlay(column);
+        }
+        if (!canMove) {
+            throw new IllegalStateException("No legal move");
+        }
+        
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < trees.length; i++) {
+            Tree helper = trees[i];
+            Position copy = position.copy();
+            helpers.add(helperPool.submit(() -> helper.grow(copy, start, timeBudgetNanos, maxPlayouts)));
+        }
+        try {
+            trees[0].grow(position, start, timeBudgetNanos, maxPlayouts);
+        } finally {
+            stopRequested = true;
+            awaitHelpers(helpers);
+        }
+        
+        // Add up the root children of every tree
+        long[] visits = new long[columns];
+        long[] halfPoints = new long[columns];
+        long playouts = 0;
+        int depth = 0;
+        for (Tree tree : trees) {
+            tree.addRootStatistics(visits, halfPoints);
+            playouts += tree.playouts;
+            depth = Math.max(depth, tree.maxDepth);
+        }
+        int best = -1;
+        for (int column = 0; column < columns; column++) {
+            if (position.canPlay(column) && (best < 0 || visits[column] > visits[best])) {
+                best = column;
+            }
+        }
+        double winRate = (visits[best] > 0) ? halfPoints[best] / (2.0 * visits[best]) : 0.5;
+        int score = (int) Math.round((2 * winRate - 1) * MAX_ESTIMATE);
+        
+        // Playouts prove nothing, so the result is never reported as solved
+        return new SearchResult(best, score, depth, position.getMoveCount(), Integer.MAX_VALUE, playouts,
+                System.nanoTime() - start);
+    }
+    
+    private void awaitHelpers(List<Future<?>> helpers) {
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // the helpers stop on their own, keep waiting for them
+                } catch (ExecutionException e) {
+                    break; // a failed helper only loses its playouts
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // 
+// Asks a running search to return as soon as possible. Safe to call from any thread.
+    public void stop() {
+        stopRequested = true;
+    }
+    
+    // 
+// Stops the helper threads. The engine cannot search afterwards.
+    public void shutdown() {
+        stop();
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+    }
+    
+    // 
+// The search tree of one thread. Node 0 is the root; the score of a node is kept in
+// half points (win 2, draw 1, loss 0) for the player who made the move leading to it.
+    private final class Tree {
+        private final int capacity;
+        private final int[] firstChild;
+        private final byte[] childCount;
+        private final byte[] move;
+        private final byte[] outcome;
+        private final int[] visits;
+        private final int[] halfPoints;
+        
+        private final SplittableRandom random = new SplittableRandom();
+        private int[] path = new int[0];
+        private int[] playable = new int[0];
+        
+        private int size;
+        private long playouts;
+        private int maxDepth;
+        
+        Tree(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Tree must hold at least one node: " + capacity);
+            }
+            this.capacity = capacity;
+            this.firstChild = new int[capacity];
+            this.childCount = new byte[capacity];
+            this.move = new byte[capacity];
+            this.outcome = new byte[capacity];
+            this.visits = new int[capacity];
+            this.halfPoints = new int[capacity];
+        }
+        
+        void grow(Position position, long start, long timeBudgetNanos, long maxPlayouts) {
+            int cells = position.getGeometry().getCellCount();
+            if (path.length < cells + 1) {
+                path = new int[cells + 1];
+            }
+            if (playable.length < position.getGeometry().getColumns()) {
+                playable = new int[position.getGeometry().getColumns()];
+            }
+            boolean timeLimited = timeBudgetNanos != Long.MAX_VALUE;
+            
+            size = 1;
+            childCount[0] = 0;
+            outcome[0] = OUTCOME_OPEN;
+            visits[0] = 0;
+            halfPoints[0] = 0;
+            playouts = 0;
+            maxDepth = 0;
+            
+            while (playouts < maxPlayouts && !stopRequested) {
+                playout(position, cells);
+                playouts++;
+                if ((playouts & CHECK_INTERVAL_MASK) == 0) {
+                    if (Thread.currentThread().isInterrupted()
+                            || (timeLimited && System.nanoTime() - start >= timeBudgetNanos)) {
+                        break;
+                    }
+                }
+            }
+        }
+        
+        // Selects down to a leaf, expands it, plays a random game from it and backs the result up
+        private void playout(Position position, int cells) {
+            int node = 0;
+            int depth = 0;
+            path[0] = 0;
+            while (childCount[node] > 0 && outcome[node] == OUTCOME_OPEN) {
+                node = select(node);
+                position.play(move[node]);
+                path[++depth] = node;
+            }
+            
+            // Half points for the player who moved into the leaf
+            int result;
+            if (outcome[node] == OUTCOME_WIN) {
+                result = 2;
+            } else if (outcome[node] == OUTCOME_DRAW) {
+                result = 1;
+            } else {
+                if (expand(node, position, cells)) {
+                    node = select(node);
+                    position.play(move[node]);
+                    path[++depth] = node;
+                }
+                if (outcome[node] == OUTCOME_WIN) {
+                    result = 2;
+                } else if (outcome[node] == OUTCOME_DRAW) {
+                    result = 1;
+                } else {
+                    result = 2 - rollout(position, cells);
+                }
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            
+            for (int i = depth; i >= 0; i--) {
+                int current = path[i];
+                visits[current]++;
+                halfPoints[current] += result;
+                result = 2 - result;
+                if (i > 0) {
+                    position.undo();
+                }
+            }
+        }
+        
+        private int select(int node) {
+            int first = firstChild[node];
+            int count = childCount[node];
+            double logVisits = Math.log(visits[node]);
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < first + count; child++) {
+                if (visits[child] == 0) {
+                    return child;
+                }
+                double value = halfPoints[child] / (2.0 * visits[child])
+                        + EXPLORATION * Math.sqrt(logVisits / visits[child]);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+        
+        // Adds a child for every legal move, unless the tree is full
+        private boolean expand(int node, Position position, int cells) {
+            int columns = position.getGeometry().getColumns();
+            if (size + columns > capacity) {
+                return false;
+            }
+            firstChild[node] = size;
+            int count = 0;
+            for (int i = 0; i < columns; i++) {
+                int column = columns / 2 + ((i % 2 == 0) ? i / 2 : -(i + 1) / 2);
+                if (!position.canPlay(column)) {
+                    continue;
+                }
+                int child = size++;
+                move[child] = (byte) column;
+                childCount[child] = 0;
+                visits[child] = 0;
+                halfPoints[child] = 0;
+                if (position.isWinningMove(column)) {
+                    outcome[child] = OUTCOME_WIN;
+                } else if (position.getMoveCount() + 1 == cells) {
+                    outcome[child] = OUTCOME_DRAW;
+                } else {
+                    outcome[child] = OUTCOME_OPEN;
+                }
+                count++;
+            }
+            childCount[node] = (byte) count;
+            return true;
+        }
+        
+        // Plays uniformly random moves to the end; returns half points for the player to move
+        private int rollout(Position position, int cells) {
+            int columns = position.getGeometry().getColumns();
+            int played = 0;
+            int result;
+            while (true) {
+                if (position.getMoveCount() == cells) {
+                    result = 1;
+                    break;
+                }
+                int count = 0;
+                for (int column = 0; column < columns; column++) {
+                    if (position.canPlay(column)) {
+                        playable[count++] = column;
+                    }
+                }
+                int column = playable[random.nextInt(count)];
+                if (position.isWinningMove(column)) {
+                    result = (played % 2 == 0) ? 2 : 0;
+                    break;
+                }
+                position.play(column);
+                played++;
+            }
+            for (int i = 0; i < played; i++) {
+                position.undo();
+            }
+            return result;
+        }
+        
+        void addRootStatistics(long[] columnVisits, long[] columnHalfPoints) {
+            if (size == 0) {
+                return;
+            }
+            int first = firstChild[0];
+            for (int child = first; child < first + childCount[0]; child++) {
+                columnVisits[move[child]] += visits[child];
+                columnHalfPoints[move[child]] += halfPoints[child];
+            }
+        }
+    }
+} 
@@ -0,0 +1,184 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.Position;
+import com.connectfour.common.trace.Trace;
+import com.connectfour.common.trace.TraceLevel;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 
+// Read-only opening book of solved positions, written by OpeningBookGenerator.
+// 
+// The file is mapped into memory and searched in place, so opening a book reads
+// nothing but the header and lookups cost a binary search over the mapped pages.
+// Mirror-image positions share one entry, keyed by Position.getSymmetricKey().
+// 
+// File layout, big-endian:
+// 
+//   header   MAGIC, VERSION, rows, columns, connect, plies, entry count (7 ints)
+//   entries  sorted by key, ENTRY_SIZE bytes each:
+//              long   symmetric key
+//              short  score, see SearchEngine
+//              byte   best column, for the orientation whose hash equals the key
+//              byte   reserved
+public final class OpeningBook {
+    private static final String TRACE_SOURCE = "OpeningBook";
+    
+    static final int MAGIC = 0x43344243; // "C4BC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 7 * Integer.BYTES;
+    static final int ENTRY_SIZE = 12;
+    
+    // Returned by getScore when the position is not in the book
+    public static final int NO_SCORE = Integer.MIN_VALUE;
+    
+    // Directory holding the books, the user's home directory unless set
+    private static final String BOOK_DIR_PROPERTY = "connectfour.ai.bookDir";
+    
+    // Books opened so far, shared by all AI players; a missing book is cached as MISSING
+    private static final Map<BoardGeometry, OpeningBook> BOOKS = new ConcurrentHashMap<>();
+    private static final OpeningBook MISSING = new OpeningBook(null, null, 0, 0);
+    
+    private final BoardGeometry geometry;
+    private final MappedByteBuffer entries;
+    private final int entryCount;
+    private final int plies;
+    
+    private OpeningBook(BoardGeometry geometry, MappedByteBuffer entries, int entryCount, int plies) {
+        this.geometry = geometry;
+        this.entries = entries;
+        this.entryCount = entryCount;
+        this.plies = plies;
+    }
+    
+    // 
+// Gets the book for a board from the book directory, opening it on first use.
+// 
+// @param geometry The board size
+// @return The book, or null if there is no readable book for that board
+    public static OpeningBook forGeometry(BoardGeometry geometry) {
+        OpeningBook book = BOOKS.computeIfAbsent(geometry, key -> {
+            Path path = defaultPath(key);
+            if (!Files.isReadable(path)) {
+                return MISSING;
+            }
+            try {
+                return open(path);
+            } catch (IOException | IllegalArgumentException e) {
+                Trace.log(TraceLevel.WARN, TRACE_SOURCE, "Error opening opening book {}: {}", path, e.getMessage());
+                return MISSING;
+            }
+        });
+        return (book == MISSING) ? null : book;
+    }
+    
+    // 
+// Gets the file the book for a board is read from and written to by default.
+// 
+// @param geometry The board size
+// @return The path of the book file
+    public static Path defaultPath(BoardGeometry geometry) {
+        String directory = System.getProperty(BOOK_DIR_PROPERTY, System.getProperty("user.home"));
+        return Paths.get(directory, ".knect4_book_" + geometry.getRows() + "x" + geometry.getColumns()
+                + "x" + geometry.getConnect() + ".bin");
+    }
+    
+    // 
+// Maps a book file.
+// 
+// @param path The book file
+// @return The book
+// @throws IOException if the file cannot be read
+// @throws IllegalArgumentException if the file is not a valid book
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid book size: " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("Not a version " + VERSION + " opening book");
+            }
+            BoardGeometry geometry = BoardGeometry.of(buffer.getInt(8), buffer.getInt(12), buffer.getInt(16));
+            int plies = buffer.getInt(20);
+            int entryCount = buffer.getInt(24);
+            if ((long) entryCount * ENTRY_SIZE != size - HEADER_SIZE) {
+                throw new IllegalArgumentException("Book has " + entryCount + " entries but " + size + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            return new OpeningBook(geometry, buffer, entryCount, plies);
+        }
+    }
+    
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+    
+    public int getPlies() {
+        return plies;
+    }
+    
+    public int size() {
+        return entryCount;
+    }
+    
+    // 
+// Looks up the best move of a position.
+// 
+// @param position The position
+// @return The best column, or -1 if the position is not in the book
+    public int getBestMove(Position position) {
+        int index = find(position);
+        if (index < 0) {
+            return -1;
+        }
+        int column = entries.get(HEADER_SIZE + index * ENTRY_SIZE + 10);
+        // The stored move belongs to the orientation whose hash is the key
+        boolean mirrored = position.getHash() != position.getSymmetricKey();
+        return mirrored ? geometry.getColumns() - 1 - column : column;
+    }
+    
+    // 
+// Looks up the solved score of a position.
+// 
+// @param position The position
+// @return The score from the point of view of the player to move, or NO_SCORE
+    public int getScore(Position position) {
+        int index = find(position);
+        return (index < 0) ? NO_SCORE : entries.getShort(HEADER_SIZE + index * ENTRY_SIZE + 8);
+    }
+    
+    private int find(Position position) {
+        if (!geometry.equals(position.getGeometry()) || position.getMoveCount() > plies) {
+            return -1;
+        }
+        long key = position.getSymmetricKey();
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = entries.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+} 
@@ -0,0 +1,232 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.Position;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 
+// Command line tool that solves every position up to a number of plies and writes
+// them as an OpeningBook.
+// 
+// Only the positions at the last ply are searched, in parallel, with one single-threaded
+// engine per worker. Every shallower position is then scored from its children, which
+// are all in the book already. Mirror images are folded together before any search.
+// 
+// The cost grows steeply with the number of plies: each extra ply multiplies the number
+// of positions to solve and every one of them is solved to the end of the game.
+// 
+// Usage: OpeningBookGenerator [--plies 8] [--board 6x7x4] [--threads N] [--out FILE]
+public final class OpeningBookGenerator {
+    private static final int DEFAULT_PLIES = 8;
+    private static final int ENGINE_TABLE_ENTRIES = 1 << 22; // 32 MB per worker
+    
+    private final BoardGeometry geometry;
+    private final int plies;
+    private final int threads;
+    
+    // Solved positions by symmetric key: score << 8 | best column in the key's orientation
+    private final Map<Long, Integer> solved = new ConcurrentHashMap<>();
+    
+    private OpeningBookGenerator(BoardGeometry geometry, int plies, int threads) {
+        this.geometry = geometry;
+        this.plies = plies;
+        this.threads = threads;
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int plies = DEFAULT_PLIES;
+        BoardGeometry geometry = BoardGeometry.STANDARD;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path output = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            String value = (i + 1 < args.length) ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--plies":
+                    plies = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--board":
+                    String[] size = value.split("x");
+                    geometry = BoardGeometry.of(Integer.parseInt(size[0]), Integer.parseInt(size[1]), Integer.parseInt(size[2]));
+                    i++;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--out":
+                    output = Paths.get(value);
+                    i++;
+                    break;
+                default:
+                    System.err.println("Usage: OpeningBookGenerator [--plies N] [--board ROWSxCOLUMNSxCONNECT] [--threads N] [--out FILE]");
+                    System.exit(1);
+            }
+        }
+        if (output == null) {
+            output = OpeningBook.defaultPath(geometry);
+        }
+        
+        OpeningBookGenerator generator = new OpeningBookGenerator(geometry, plies, threads);
+        long start = System.nanoTime();
+        generator.generate();
+        generator.write(output);
+        System.out.println("Wrote " + generator.solved.size() + " positions to " + output + " in "
+                + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " s");
+    }
+    
+    private void generate() throws InterruptedException {
+        // Unique positions by ply, mirror images folded together
+        List<List<GameSnapshot>> levels = new ArrayList<>();
+        levels.add(List.of(GameSnapshot.empty(geometry)));
+        for (int ply = 0; ply < plies; ply++) {
+            Map<Long, GameSnapshot> next = new HashMap<>();
+            for (GameSnapshot snapshot : levels.get(ply)) {
+                if (hasImmediateWin(snapshot)) {
+                    continue; // scored by its winning move, its other children are never needed
+                }
+                for (int column = 0; column < geometry.getColumns(); column++) {
+                    if (snapshot.canPlay(column)) {
+                        GameSnapshot child = snapshot.play(column);
+                        if (child.getStatus() == GameStatus.IN_PROGRESS) {
+                            next.putIfAbsent(child.getSymmetricKey(), child);
+                        }
+                    }
+                }
+            }
+            levels.add(new ArrayList<>(next.values()));
+            System.out.println("Ply " + (ply + 1) + ": " + next.size() + " positions");
+        }
+        
+        solveLastPly(levels.get(plies));
+        for (int ply = plies - 1; ply >= 0; ply--) {
+            for (GameSnapshot snapshot : levels.get(ply)) {
+                scoreFromChildren(snapshot);
+            }
+        }
+    }
+    
+    private void solveLastPly(List<GameSnapshot> positions) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<SearchEngine> engines = ThreadLocal.withInitial(() -> new SearchEngine(ENGINE_TABLE_ENTRIES, 1));
+        AtomicInteger done = new AtomicInteger();
+        int total = positions.size();
+        
+        for (GameSnapshot snapshot : positions) {
+            pool.execute(() -> {
+                Position position = new Position(snapshot);
+                SearchResult result = engines.get().search(position, geometry.getCellCount());
+                store(snapshot, result.getScore(), result.getColumn());
+                
+                int count = done.incrementAndGet();
+                if (count % 1000 == 0 || count == total) {
+                    System.out.println("Solved " + count + " / " + total);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+    
+    private void scoreFromChildren(GameSnapshot snapshot) {
+        // A position with a winning move is scored by that move alone, as generate never
+        // expanded its other children
+        for (int i = 0; i < geometry.getColumns(); i++) {
+            int column = centreFirst(i);
+            if (snapshot.isWinningMove(column, snapshot.getCurrentTurn())) {
+                store(snapshot, SearchEngine.WIN_SCORE - (snapshot.getMoveCount() + 1), column);
+                return;
+            }
+        }
+        
+        int bestScore = -SearchEngine.WIN_SCORE - 1;
+        int bestColumn = -1;
+        for (int i = 0; i < geometry.getColumns(); i++) {
+            int column = centreFirst(i);
+            if (!snapshot.canPlay(column)) {
+                continue;
+            }
+            int score;
+            GameSnapshot child = snapshot.play(column);
+            if (child.getStatus() == GameStatus.DRAW) {
+                score = 0;
+            } else {
+                score = -(solved.get(child.getSymmetricKey()) >> 8);
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestColumn = column;
+            }
+        }
+        store(snapshot, bestScore, bestColumn);
+    }
+    
+    // Columns from the centre outwards, so that ties go to the central column
+    private int centreFirst(int i) {
+        return geometry.getColumns() / 2 + ((i % 2 == 0) ? i / 2 : -(i + 1) / 2);
+    }
+    
+    private void store(GameSnapshot snapshot, int score, int column) {
+        long key = snapshot.getSymmetricKey();
+        int keyColumn = (snapshot.getZobristHash() == key) ? column : geometry.getColumns() - 1 - column;
+        solved.put(key, (score << 8) | keyColumn);
+    }
+    
+    private boolean hasImmediateWin(GameSnapshot snapshot) {
+        for (int column = 0; column < geometry.getColumns(); column++) {
+            if (snapshot.isWinningMove(column, snapshot.getCurrentTurn())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void write(Path output) throws IOException {
+        long[] keys = new long[solved.size()];
+        int index = 0;
+        for (long key : solved.keySet()) {
+            keys[index++] = key;
+        }
+        Arrays.sort(keys);
+        
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            out.writeInt(OpeningBook.MAGIC);
+            out.writeInt(OpeningBook.VERSION);
+            out.writeInt(geometry.getRows());
+            out.writeInt(geometry.getColumns());
+            out.writeInt(geometry.getConnect());
+            out.writeInt(plies);
+            out.writeInt(keys.length);
+            for (long key : keys) {
+                int packed = solved.get(key);
+                out.writeLong(key);
+                out.writeShort(packed >> 8);
+                out.writeByte(packed & 0xFF);
+                out.writeByte(0);
+            }
+        }
+    }
+} 
@@ -0,0 +1,167 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+
+// 
+// Evaluation of every legal column of one position, as found by SearchEngine.analyze.
+// 
+// Each column's score is what playing it is worth to the player to move, on the same
+// scale as SearchResult: a proven win or loss with its distance to the end, an exact
+// draw, or an estimate from a search of the given depth. Illegal columns, and legal ones
+// the search had no time to reach, have depth 0.
+public final class PositionAnalysis {
+    private final BoardGeometry geometry;
+    private final long hash;
+    private final int moveCount;
+    private final int[] scores;
+    private final int[] depths;
+    private final boolean[] legal;
+    private final int remainingMoves;
+    private final long nodes;
+    private final long elapsedNanos;
+    
+    PositionAnalysis(BoardGeometry geometry, long hash, int moveCount, boolean[] legal, int[] scores, int[] depths,
+                     long nodes, long elapsedNanos) {
+        this.geometry = geometry;
+        this.hash = hash;
+        this.moveCount = moveCount;
+        this.legal = legal;
+        this.scores = scores;
+        this.depths = depths;
+        this.remainingMoves = geometry.getCellCount() - moveCount;
+        this.nodes = nodes;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+    
+    // 
+// Gets the Zobrist hash of the analysed position.
+// 
+// @return The position hash
+    public long getHash() {
+        return hash;
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    public int getColumns() {
+        return scores.length;
+    }
+    
+    public boolean isLegal(int column) {
+        return legal[column];
+    }
+    
+    // 
+// Checks whether the column has a score: it is legal and was searched at least one ply deep.
+// 
+// @param column The column
+// @return true if getScore is meaningful for the column
+    public boolean isEvaluated(int column) {
+        return depths[column] > 0;
+    }
+    
+    // 
+// Gets the score of playing a column, from the point of view of the player to move.
+// 
+// @param column The column
+// @return The score, or 0 if the column is not evaluated
+    public int getScore(int column) {
+        return scores[column];
+    }
+    
+    // 
+// Gets how deep the column was searched, counting the move into it.
+// 
+// @param column The column
+// @return The search depth in plies, or 0 if the column is not evaluated
+    public int getDepth(int column) {
+        return depths[column];
+    }
+    
+    // 
+// Checks whether the column's score is exact: a proven win or loss, or a search that
+// saw the end of every line.
+// 
+// @param column The column
+// @return true if the column is solved
+    public boolean isSolved(int column) {
+        return isEvaluated(column) && (SearchEngine.isDecisive(scores[column]) || depths[column] >= remainingMoves);
+    }
+    
+    public boolean isWin(int column) {
+        return isEvaluated(column) && SearchEngine.isDecisive(scores[column]) && scores[column] > 0;
+    }
+    
+    public boolean isLoss(int column) {
+        return isEvaluated(column) && SearchEngine.isDecisive(scores[column]) && scores[column] < 0;
+    }
+    
+    public boolean isDraw(int column) {
+        return isSolved(column) && scores[column] == 0;
+    }
+    
+    // 
+// Gets the number of moves, by both players and counting the move into the column,
+// until the proven result is reached.
+// 
+// @param column The column
+// @return The distance to the end of the game, or -1 if the column is not a proven win or loss
+    public int getMovesToEnd(int column) {
+        if (!isWin(column) && !isLoss(column)) {
+            return -1;
+        }
+        return SearchEngine.WIN_SCORE - Math.abs(scores[column]) - moveCount;
+    }
+    
+    // 
+// Gets the evaluated column with the highest score, preferring the centre on ties.
+// 
+// @return The best column, or -1 if no column is evaluated
+    public int getBestColumn() {
+        int columns = scores.length;
+        int best = -1;
+        for (int i = 0; i < columns; i++) {
+            int column = columns / 2 + ((i % 2 == 0) ? i / 2 : -(i + 1) / 2);
+            if (isEvaluated(column) && (best < 0 || scores[column] > scores[best])) {
+                best = column;
+            }
+        }
+        return best;
+    }
+    
+    // 
+// Describes a column's evaluation in a few words for display, e.g. "Win in 3" (counting
+// the winner's moves), "Draw" or "+12".
+// 
+// @param column The column
+// @return The description, or an empty string if the column is not evaluated
+    public String describe(int column) {
+        if (!isEvaluated(column)) {
+            return "";
+        }
+        if (isWin(column)) {
+            return "Win in " + (getMovesToEnd(column) + 1) / 2;
+        }
+        if (isLoss(column)) {
+            return "Loss in " + getMovesToEnd(column) / 2;
+        }
+        if (isDraw(column)) {
+            return "Draw";
+        }
+        return (scores[column] > 0 ? "+" : "") + scores[column];
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+} 
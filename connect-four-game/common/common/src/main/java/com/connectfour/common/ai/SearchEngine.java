@@ -0,0 +1,560 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 
+// Negamax search with alpha-beta pruning and a transposition table.
+// 
+// Scores are from the point of view of the player to move. A game won on move m
+// (counting every stone on the board) scores WIN_SCORE - m, so quicker wins score
+// higher and the value of a position does not depend on how the search reached it,
+// which lets proven results be shared through the transposition table. Positions
+// the search cannot see to the end are scored by the Evaluator, which each search
+// thread moves along with its position and whose values stay far below the range of
+// proven results.
+// 
+// A search can be bounded by time and stopped from another thread with stop() or by
+// interrupting the searching thread; it then returns the best move of the last depth
+// it completed.
+// 
+// With more than one thread the engine runs a Lazy SMP search: helper threads search
+// the same root at staggered depths and move orders and share their results through
+// the lock-free transposition table, which lets the main thread cut off more of its
+// own tree. Only the main thread's result is returned.
+// 
+// The engine keeps its table between searches; one instance should only be used by
+// one thread at a time, apart from stop().
+public class SearchEngine {
+    public static final int WIN_SCORE = 10_000;
+    
+    // Any score this far from zero is a proven win or loss
+    private static final int DECISIVE_SCORE = WIN_SCORE - 64;
+    
+    private static final int DEFAULT_TABLE_SIZE = 1 << 20; // 8 MB
+    
+    // How many nodes are searched between two looks at the clock
+    private static final int CHECK_INTERVAL_MASK = 4095;
+    
+    // Default number of search threads, see defaultThreads()
+    private static final String THREADS_PROPERTY = "connectfour.ai.threads";
+    
+    private static final AtomicInteger ENGINE_COUNT = new AtomicInteger();
+    
+    private final TranspositionTable table;
+    private final Searcher[] searchers;
+    private final ExecutorService helperPool;
+    
+    private BoardGeometry tableGeometry;
+    
+    private final LongAdder nodeCounter = new LongAdder();
+    private volatile boolean stopRequested;
+    private volatile boolean searchFinished;
+    
+    public SearchEngine() {
+        this(DEFAULT_TABLE_SIZE, defaultThreads());
+    }
+    
+    // 
+// Creates a single-threaded engine with a transposition table of the given size.
+// 
+// @param tableEntries The number of table entries, 8 bytes each
+    public SearchEngine(int tableEntries) {
+        this(tableEntries, 1);
+    }
+    
+    // 
+// Creates an engine with a transposition table of the given size.
+// 
+// @param tableEntries The number of table entries, 8 bytes each
+// @param threads The number of search threads, including the calling thread
+    public SearchEngine(int tableEntries, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        }
+        this.table = new TranspositionTable(tableEntries);
+        this.searchers = new Searcher[threads];
+        for (int i = 0; i < threads; i++) {
+            searchers[i] = new Searcher(i);
+        }
+        
+        if (threads > 1) {
+            int engineId = ENGINE_COUNT.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.helperPool = Executors.newFixedThreadPool(threads - 1, task -> {
+                Thread thread = new Thread(task, "search-" + engineId + "-helper-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.helperPool = null;
+        }
+    }
+    
+    // 
+// Gets the number of search threads to use when none is given: the value of the
+// connectfour.ai.threads system property, or the number of available processors.
+// 
+// @return The default thread count
+    public static int defaultThreads() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger(THREADS_PROPERTY, processors));
+    }
+    
+    public int getThreads() {
+        return searchers.length;
+    }
+    
+    // 
+// Searches a position by iterative deepening up to the given depth.
+// The search stops early once the result is proven.
+// 
+// @param position The position to search; it is restored before returning
+// @param maxDepth The maximum depth in plies
+// @return The best move found
+// @throws IllegalStateException if the position has no legal move
+    public SearchResult search(Position position, int maxDepth) {
+        return search(position, maxDepth, Long.MAX_VALUE);
+    }
+    
+    // 
+// Searches a position by iterative deepening until the given depth is reached, the
+// result is proven, the time budget runs out or stop() is called. Always returns a
+// legal move: the best one of the deepest completed iteration.
+// 
+// @param position The position to search; it is restored before returning
+// @param maxDepth The maximum depth in plies
+// @param timeBudgetNanos The time the search may take, in nanoseconds
+// @return The best move found
+// @throws IllegalStateException if the position has no legal move
+    public SearchResult search(Position position, int maxDepth, long timeBudgetNanos) {
+        long start = System.nanoTime();
+        stopRequested = false;
+        searchFinished = false;
+        nodeCounter.reset();
+        
+        BoardGeometry geometry = position.getGeometry();
+        prepareTable(geometry);
+        
+        int remaining = geometry.getCellCount() - position.getMoveCount();
+        int limit = Math.min(maxDepth, remaining);
+        
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < searchers.length; i++) {
+            Searcher helper = searchers[i];
+            Position copy = position.copy();
+            helpers.add(helperPool.submit(() -> helper.iterate(copy, limit, start, timeBudgetNanos)));
+        }
+        
+        Searcher main = searchers[0];
+        try {
+            main.iterate(position, limit, start, timeBudgetNanos);
+        } finally {
+            searchFinished = true;
+            awaitHelpers(helpers);
+        }
+        return new SearchResult(main.bestColumn, main.bestScore, main.depthReached, position.getMoveCount(), remaining,
+                nodeCounter.sum(), System.nanoTime() - start);
+    }
+    
+    // 
+// Scores every legal column of a position with a full-window search, so each score is
+// exact at its depth rather than just good enough to rule the move out. Columns are
+// deepened together until each is solved, the time budget runs out or stop() is called.
+// The search runs on the calling thread only.
+// 
+// @param position The position to analyse; it is restored before returning
+// @param timeBudgetNanos The time the analysis may take, in nanoseconds
+// @return The evaluation of every column
+// @throws IllegalStateException if the position has no legal move
+    public PositionAnalysis analyze(Position position, long timeBudgetNanos) {
+        long start = System.nanoTime();
+        stopRequested = false;
+        searchFinished = false;
+        nodeCounter.reset();
+        
+        BoardGeometry geometry = position.getGeometry();
+        prepareTable(geometry);
+        
+        int columns = geometry.getColumns();
+        boolean[] legal = new boolean[columns];
+        int[] scores = new int[columns];
+        int[] depths = new int[columns];
+        for (int column = 0; column < columns; column++) {
+            legal[column] = position.canPlay(column);
+        }
+        try {
+            searchers[0].analyze(position, start, timeBudgetNanos, scores, depths);
+        } finally {
+            searchFinished = true;
+        }
+        return new PositionAnalysis(geometry, position.getHash(), position.getMoveCount(), legal, scores, depths,
+                nodeCounter.sum(), System.nanoTime() - start);
+    }
+    
+    // Entries of another board size are of no use
+    private void prepareTable(BoardGeometry geometry) {
+        if (!geometry.equals(tableGeometry)) {
+            table.clear();
+            tableGeometry = geometry;
+        }
+    }
+    
+    private void awaitHelpers(List<Future<?>> helpers) {
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // the helpers stop on their own, keep waiting for them
+                } catch (ExecutionException e) {
+                    break; // a failed helper only costs speed
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // 
+// Asks a running search to return as soon as possible. Safe to call from any thread.
+    public void stop() {
+        stopRequested = true;
+    }
+    
+    // 
+// Stops the helper threads. The engine cannot search afterwards.
+    public void shutdown() {
+        stop();
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+    }
+    
+    // 
+// Checks whether a score is a proven win or loss rather than an estimate.
+// 
+// @param score A score returned by the engine
+// @return true if the score is decisive
+    public static boolean isDecisive(int score) {
+        return Math.abs(score) > DECISIVE_SCORE;
+    }
+    
+    private static int[] centreFirstOrder(int columns) {
+        int[] order = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            // columns / 2, then alternately one step further left and right of it
+            order[i] = columns / 2 + ((i % 2 == 0) ? i / 2 : -(i + 1) / 2);
+        }
+        return order;
+    }
+    
+    // 
+// The state of one search thread. Searcher 0 runs on the caller's thread and
+// produces the result; the others are Lazy SMP helpers.
+    private final class Searcher {
+        private final int id;
+        private Evaluator evaluator;
+        private int[] columnOrder;
+        private int[] rootOrder;
+        
+        private Position position;
+        private long nodes;
+        private long unreportedNodes;
+        private boolean timeLimited;
+        private long deadline;
+        private boolean aborted;
+        
+        private int bestColumn;
+        private int bestScore;
+        private int depthReached;
+        
+        Searcher(int id) {
+            this.id = id;
+        }
+        
+        private void prepare(Position position) {
+            BoardGeometry geometry = position.getGeometry();
+            if (evaluator == null || !evaluator.getGeometry().equals(geometry)) {
+                evaluator = new Evaluator(geometry);
+                columnOrder = centreFirstOrder(geometry.getColumns());
+                
+                // Helpers start their root moves at different columns to spread out the work
+                rootOrder = new int[columnOrder.length];
+                for (int i = 0; i < columnOrder.length; i++) {
+                    rootOrder[i] = columnOrder[(i + id) % columnOrder.length];
+                }
+            }
+            this.position = position;
+            evaluator.reset(position);
+            this.nodes = 0;
+            this.unreportedNodes = 0;
+            this.aborted = false;
+        }
+        
+        void iterate(Position position, int limit, long start, long timeBudgetNanos) {
+            prepare(position);
+            timeLimited = timeBudgetNanos != Long.MAX_VALUE;
+            deadline = start + timeBudgetNanos;
+            
+            bestColumn = firstPlayableColumn();
+            bestScore = 0;
+            depthReached = 0;
+            
+            // Every other helper searches one ply deeper than the main thread
+            int firstDepth = 1 + (id % 2);
+            for (int depth = firstDepth; depth <= limit; depth++) {
+                int alpha = -WIN_SCORE;
+                int beta = WIN_SCORE;
+                int iterationBest = -1;
+                int iterationScore = -WIN_SCORE;
+                
+                for (int i = -1; i < rootOrder.length; i++) {
+                    // Try the previous iteration's best move first
+                    int column = (i < 0) ? bestColumn : rootOrder[i];
+                    if ((i >= 0 && column == bestColumn) || !position.canPlay(column)) {
+                        continue;
+                    }
+                    
+                    int score;
+                    if (position.isWinningMove(column)) {
+                        score = WIN_SCORE - (position.getMoveCount() + 1);
+                    } else {
+                        play(column);
+                        score = -negamax(depth - 1, -beta, -alpha);
+                        undo();
+                    }
+                    
+                    if (aborted) {
+                        break;
+                    }
+                    if (score > iterationScore) {
+                        iterationScore = score;
+                        iterationBest = column;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                    }
+                }
+                
+                if (aborted) {
+                    break; // keep the result of the last complete iteration
+                }
+                bestColumn = iterationBest;
+                bestScore = iterationScore;
+                depthReached = depth;
+                if (isDecisive(bestScore)) {
+                    break;
+                }
+                // The next iteration takes several times longer, don't start one that cannot finish
+                if (timeLimited && System.nanoTime() - start > timeBudgetNanos / 2) {
+                    break;
+                }
+            }
+            
+            nodeCounter.add(unreportedNodes);
+            this.position = null;
+        }
+        
+        void analyze(Position position, long start, long timeBudgetNanos, int[] scores, int[] depths) {
+            prepare(position);
+            timeLimited = timeBudgetNanos != Long.MAX_VALUE;
+            deadline = start + timeBudgetNanos;
+            firstPlayableColumn();
+            
+            int moveCount = position.getMoveCount();
+            int remaining = position.getGeometry().getCellCount() - moveCount;
+            for (int depth = 1; depth <= remaining; depth++) {
+                boolean unsolved = false;
+                for (int column : columnOrder) {
+                    if (!position.canPlay(column) || isSolved(scores[column], depths[column], remaining)) {
+                        continue;
+                    }
+                    
+                    int score;
+                    if (position.isWinningMove(column)) {
+                        score = WIN_SCORE - (moveCount + 1);
+                    } else {
+                        play(column);
+                        score = -negamax(depth - 1, -WIN_SCORE, WIN_SCORE);
+                        undo();
+                    }
+                    if (aborted) {
+                        break; // the column keeps its score from the previous depth
+                    }
+                    scores[column] = score;
+                    depths[column] = depth;
+                    unsolved |= !isSolved(score, depth, remaining);
+                }
+                
+                if (aborted || !unsolved) {
+                    break;
+                }
+                if (timeLimited && System.nanoTime() - start > timeBudgetNanos / 2) {
+                    break;
+                }
+            }
+            
+            nodeCounter.add(unreportedNodes);
+            this.position = null;
+        }
+        
+        private boolean isSolved(int score, int depth, int remaining) {
+            return depth > 0 && (isDecisive(score) || depth >= remaining);
+        }
+        
+        // Moves on the position and on the evaluator that follows it
+        private void play(int column) {
+            evaluator.play(position, column);
+            position.play(column);
+        }
+        
+        private void undo() {
+            position.undo();
+            evaluator.undo();
+        }
+        
+        private int firstPlayableColumn() {
+            for (int column : columnOrder) {
+                if (position.canPlay(column)) {
+                    return column;
+                }
+            }
+            throw new IllegalStateException("No legal move in position");
+        }
+        
+        private boolean shouldStop() {
+            return stopRequested
+                    || (id > 0 && searchFinished)
+                    || Thread.currentThread().isInterrupted()
+                    || (timeLimited && System.nanoTime() - deadline > 0);
+        }
+        
+        private int negamax(int depth, int alpha, int beta) {
+            unreportedNodes++;
+            if ((++nodes & CHECK_INTERVAL_MASK) == 0) {
+                nodeCounter.add(unreportedNodes);
+                unreportedNodes = 0;
+                if (shouldStop()) {
+                    aborted = true;
+                }
+            }
+            if (aborted) {
+                return 0;
+            }
+            int moveCount = position.getMoveCount();
+            int cells = position.getGeometry().getCellCount();
+            
+            // A win on the next move ends the search at once
+            for (int column : columnOrder) {
+                if (position.isWinningMove(column)) {
+                    return WIN_SCORE - (moveCount + 1);
+                }
+            }
+            if (moveCount + 1 >= cells) {
+                return 0; // the last stone cannot win any more, the game is drawn
+            }
+            
+            // Threats of the opponent: block the only one, or lose to two of them
+            int forcedColumn = -1;
+            for (int column : columnOrder) {
+                if (position.isBlockingMove(column)) {
+                    if (forcedColumn >= 0) {
+                        return -(WIN_SCORE - (moveCount + 2));
+                    }
+                    forcedColumn = column;
+                }
+            }
+            
+            // Without a win on this move, the best possible result is a win two moves later
+            int upperBound = WIN_SCORE - (moveCount + 3);
+            if (beta > upperBound) {
+                beta = upperBound;
+                if (alpha >= beta) {
+                    return beta;
+                }
+            }
+            
+            if (depth <= 0) {
+                return evaluator.evaluate(position);
+            }
+            
+            long hash = position.getHash();
+            int tableMove = -1;
+            int originalAlpha = alpha;
+            long entry = table.probe(hash);
+            if (entry != 0) {
+                tableMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT) {
+                        return score;
+                    } else if (bound == TranspositionTable.LOWER) {
+                        alpha = Math.max(alpha, score);
+                    } else {
+                        beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
+                }
+            }
+            
+            int bestScore = -WIN_SCORE;
+            int bestMove = -1;
+            if (forcedColumn >= 0) {
+                play(forcedColumn);
+                bestScore = -negamax(depth - 1, -beta, -alpha);
+                undo();
+                bestMove = forcedColumn;
+                if (aborted) {
+                    return 0;
+                }
+            } else {
+                for (int i = -1; i < columnOrder.length; i++) {
+                    // Try the move stored in the table first, then centre-first
+                    int column = (i < 0) ? tableMove : columnOrder[i];
+                    if (column < 0 || (i >= 0 && column == tableMove) || !position.canPlay(column)) {
+                        continue;
+                    }
+                    
+                    play(column);
+                    int score = -negamax(depth - 1, -beta, -alpha);
+                    undo();
+                    if (aborted) {
+                        return 0;
+                    }
+                    
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestMove = column;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                        if (alpha >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+            
+            int bound = (bestScore <= originalAlpha) ? TranspositionTable.UPPER
+                    : (bestScore >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(hash, bestScore, depth, bound, bestMove);
+            return bestScore;
+        }
+    }
+} 
@@ -0,0 +1,91 @@
+package com.connectfour.common.ai;
+
+// 
+// Outcome of a search: the chosen column and what the engine knows about it.
+public final class SearchResult {
+    private final int column;
+    private final int score;
+    private final int depth;
+    private final int movesToEnd;
+    private final boolean solved;
+    private final long nodes;
+    private final long elapsedNanos;
+    
+    SearchResult(int column, int score, int depth, int rootMoveCount, int remainingMoves, long nodes, long elapsedNanos) {
+        this.column = column;
+        this.score = score;
+        this.depth = depth;
+        this.movesToEnd = SearchEngine.isDecisive(score) ? SearchEngine.WIN_SCORE - Math.abs(score) - rootMoveCount : -1;
+        this.solved = SearchEngine.isDecisive(score) || depth >= remainingMoves;
+        this.nodes = nodes;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    // 
+// Gets the best column found.
+// 
+// @return The column to play (0-based index)
+    public int getColumn() {
+        return column;
+    }
+    
+    // 
+// Gets the score of the best column from the point of view of the player to move.
+// Scores beyond +/-(WIN_SCORE - cells) are proven wins or losses, anything else is
+// a heuristic estimate.
+// 
+// @return The score
+    public int getScore() {
+        return score;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    // 
+// Checks whether the score is the exact value of the position: a proven win or loss,
+// or a search that reached the end of every line.
+// 
+// @return true if the position is solved
+    public boolean isSolved() {
+        return solved;
+    }
+    
+    public boolean isWin() {
+        return SearchEngine.isDecisive(score) && score > 0;
+    }
+    
+    public boolean isLoss() {
+        return SearchEngine.isDecisive(score) && score < 0;
+    }
+    
+    // 
+// Gets the number of moves, by both players, until the proven result is reached.
+// 
+// @return The distance to the end of the game, or -1 if the result is not proven
+    public int getMovesToEnd() {
+        return movesToEnd;
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    // 
+// Gets the search speed over all search threads.
+// 
+// @return The number of nodes searched per second
+    public long getNodesPerSecond() {
+        return (elapsedNanos > 0) ? nodes * 1_000_000_000L / elapsedNanos : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return "SearchResult[column=" + column + ", score=" + score + ", depth=" + depth + ", nodes=" + nodes + ", nps=" + getNodesPerSecond() + "]";
+    }
+} 
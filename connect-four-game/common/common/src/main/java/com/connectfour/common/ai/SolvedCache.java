@@ -0,0 +1,265 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.Position;
+import com.connectfour.common.trace.Trace;
+import com.connectfour.common.trace.TraceLevel;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// 
+// Disk-backed cache of solved positions, shared by every AI player in the process and
+// kept between launches.
+// 
+// The cache is a memory-mapped file of fixed-size entries, so it lives off the heap and
+// the operating system writes it back on its own. Entries are grouped in buckets of
+// BUCKET_SLOTS by key; when a bucket is full, a clock sweep over its slots evicts the
+// first entry that has not been read since the hand last passed it. The file never
+// grows past the size it was opened with.
+// 
+// Only one process can use the cache file at a time; a second client runs without it.
+// 
+// File layout, big-endian:
+// 
+//   header   MAGIC, VERSION, bucket count, reserved (4 ints)
+//   entries  ENTRY_SIZE bytes each, BUCKET_SLOTS per bucket:
+//              long   symmetric key
+//              int    board, see geometryTag
+//              short  score, see SearchEngine
+//              byte   best column, for the orientation whose hash equals the key
+//              byte   flags, FLAG_USED and FLAG_REFERENCED
+public final class SolvedCache {
+    private static final String TRACE_SOURCE = "SolvedCache";
+    
+    private static final int MAGIC = 0x43345343; // "C4SC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int ENTRY_SIZE = 16;
+    private static final int BUCKET_SLOTS = 8;
+    private static final int BUCKET_SIZE = BUCKET_SLOTS * ENTRY_SIZE;
+    
+    // Most buckets a file may have: 1 GB of them, so that every offset into the one
+    // mapping of the file fits in an int
+    private static final int MAX_BUCKETS = 1 << 23;
+    
+    private static final byte FLAG_USED = 1;
+    private static final byte FLAG_REFERENCED = 2;
+    
+    // Returned by getScore when the position is not in the cache
+    public static final int NO_SCORE = Integer.MIN_VALUE;
+    
+    // Cache file and its size limit; a size of 0 turns the cache off
+    private static final String FILE_PROPERTY = "connectfour.ai.cacheFile";
+    private static final String SIZE_PROPERTY = "connectfour.ai.cacheSizeMB";
+    private static final int DEFAULT_SIZE_MB = 16;
+    
+    private static SolvedCache shared;
+    private static boolean sharedOpened;
+    
+    private final FileChannel channel; // kept open to hold the lock
+    private final MappedByteBuffer buffer;
+    private final int bucketMask;
+    
+    // Clock hand of every bucket; where a sweep starts does not need to survive a restart
+    private final byte[] hands;
+    
+    private SolvedCache(FileChannel channel, MappedByteBuffer buffer, int bucketCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.bucketMask = bucketCount - 1;
+        this.hands = new byte[bucketCount];
+    }
+    
+    // 
+// Gets the cache configured by the connectfour.ai.cacheFile and connectfour.ai.cacheSizeMB
+// system properties, opening it on first use.
+// 
+// @return The cache, or null if it is turned off or cannot be opened
+    public static synchronized SolvedCache shared() {
+        if (!sharedOpened) {
+            sharedOpened = true;
+            long sizeBytes = Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE_MB) * 1024 * 1024;
+            long maxBytes = HEADER_SIZE + (long) MAX_BUCKETS * BUCKET_SIZE;
+            if (sizeBytes > maxBytes) {
+                Trace.log(TraceLevel.WARN, TRACE_SOURCE,
+                        "Solved position cache size {} MB is more than the {} MB a cache file can have, using {} MB",
+                        sizeBytes >> 20, maxBytes >> 20, maxBytes >> 20);
+            }
+            if (sizeBytes > 0) {
+                Path path = Paths.get(System.getProperty(FILE_PROPERTY,
+                        Paths.get(System.getProperty("user.home"), ".knect4_cache.bin").toString()));
+                try {
+                    shared = open(path, sizeBytes);
+                } catch (IOException | IllegalArgumentException e) {
+                    Trace.log(TraceLevel.WARN, TRACE_SOURCE, "Error opening solved position cache {}: {}", path, e.getMessage());
+                }
+            }
+        }
+        return shared;
+    }
+    
+    // 
+// Opens a cache file, creating it if needed. A file written with another size or
+// version is cleared.
+// 
+// @param path The cache file
+// @param maxBytes The largest size the file may have; sizes above 1 GB are capped to it
+// @return The cache, or null if another process is using the file
+// @throws IOException if the file cannot be opened or mapped
+// @throws IllegalArgumentException if maxBytes cannot hold a single bucket
+    public static SolvedCache open(Path path, long maxBytes) throws IOException {
+        int bucketCount = Integer.highestOneBit((int) Math.min((maxBytes - HEADER_SIZE) / BUCKET_SIZE, MAX_BUCKETS));
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("Cache size too small: " + maxBytes);
+        }
+        long size = HEADER_SIZE + (long) bucketCount * BUCKET_SIZE;
+        
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        try {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                return null;
+            }
+            
+            boolean reset = channel.size() != size;
+            if (reset) {
+                channel.truncate(0); // mapping below fills the file with empty slots again
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (!reset && (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != bucketCount)) {
+                for (int offset = HEADER_SIZE; offset < size; offset += ENTRY_SIZE) {
+                    buffer.put(offset + 15, (byte) 0);
+                }
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, bucketCount);
+            return new SolvedCache(channel, buffer, bucketCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    // 
+// Looks up the best move of a position.
+// 
+// @param position The position
+// @return The best column, or -1 if the position is not cached
+    public synchronized int getBestMove(Position position) {
+        int offset = find(position);
+        if (offset < 0) {
+            return -1;
+        }
+        int column = buffer.get(offset + 14);
+        boolean mirrored = position.getHash() != position.getSymmetricKey();
+        return mirrored ? position.getGeometry().getColumns() - 1 - column : column;
+    }
+    
+    // 
+// Looks up the solved score of a position.
+// 
+// @param position The position
+// @return The score from the point of view of the player to move, or NO_SCORE
+    public synchronized int getScore(Position position) {
+        int offset = find(position);
+        return (offset < 0) ? NO_SCORE : buffer.getShort(offset + 12);
+    }
+    
+    // 
+// Stores the solved value of a position, replacing an older entry if its bucket is full.
+// 
+// @param position The position
+// @param score The exact score from the point of view of the player to move
+// @param column The best column
+    public synchronized void store(Position position, int score, int column) {
+        long key = position.getSymmetricKey();
+        int tag = geometryTag(position.getGeometry());
+        boolean mirrored = position.getHash() != key;
+        int keyColumn = mirrored ? position.getGeometry().getColumns() - 1 - column : column;
+        
+        int bucket = bucketOf(key);
+        int bucketOffset = HEADER_SIZE + bucket * BUCKET_SIZE;
+        int slot = -1;
+        for (int i = 0; i < BUCKET_SLOTS && slot < 0; i++) {
+            int offset = bucketOffset + i * ENTRY_SIZE;
+            byte flags = buffer.get(offset + 15);
+            if ((flags & FLAG_USED) == 0
+                    || (buffer.getLong(offset) == key && buffer.getInt(offset + 8) == tag)) {
+                slot = i;
+            }
+        }
+        if (slot < 0) {
+            slot = evict(bucket, bucketOffset);
+        }
+        
+        int offset = bucketOffset + slot * ENTRY_SIZE;
+        buffer.putLong(offset, key);
+        buffer.putInt(offset + 8, tag);
+        buffer.putShort(offset + 12, (short) score);
+        buffer.put(offset + 14, (byte) keyColumn);
+        buffer.put(offset + 15, FLAG_USED);
+    }
+    
+    // 
+// Writes the cache back to disk now rather than when the operating system chooses to.
+    public synchronized void force() {
+        buffer.force();
+    }
+    
+    private int find(Position position) {
+        long key = position.getSymmetricKey();
+        int tag = geometryTag(position.getGeometry());
+        int bucketOffset = HEADER_SIZE + bucketOf(key) * BUCKET_SIZE;
+        for (int i = 0; i < BUCKET_SLOTS; i++) {
+            int offset = bucketOffset + i * ENTRY_SIZE;
+            byte flags = buffer.get(offset + 15);
+            if ((flags & FLAG_USED) != 0 && buffer.getLong(offset) == key && buffer.getInt(offset + 8) == tag) {
+                buffer.put(offset + 15, (byte) (flags | FLAG_REFERENCED));
+                return offset;
+            }
+        }
+        return -1;
+    }
+    
+    // Advances the bucket's clock hand, giving referenced entries a second chance
+    private int evict(int bucket, int bucketOffset) {
+        int hand = hands[bucket];
+        while (true) {
+            int offset = bucketOffset + hand * ENTRY_SIZE;
+            byte flags = buffer.get(offset + 15);
+            int slot = hand;
+            hand = (hand + 1) % BUCKET_SLOTS;
+            if ((flags & FLAG_REFERENCED) == 0) {
+                hands[bucket] = (byte) hand;
+                return slot;
+            }
+            buffer.put(offset + 15, (byte) (flags & ~FLAG_REFERENCED));
+        }
+    }
+    
+    private int bucketOf(long key) {
+        return (int) (key ^ (key >>> 32)) & bucketMask;
+    }
+    
+    // The Zobrist keys of a cell do not depend on the board size, so entries carry the board too
+    private static int geometryTag(BoardGeometry geometry) {
+        return (geometry.getRows() << 16) | (geometry.getColumns() << 8) | geometry.getConnect();
+    }
+} 
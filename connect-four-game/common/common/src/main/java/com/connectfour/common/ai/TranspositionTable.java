@@ -0,0 +1,99 @@
+package com.connectfour.common.ai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// 
+// Fixed-size transposition table for the search engine.
+// 
+// Each entry is a single long in one flat array, so the table never allocates after
+// construction and its footprint is exactly 8 bytes per entry. An entry packs:
+// 
+//   bits 32-63  upper half of the position hash, to detect index collisions
+//   bits 16-31  score (signed)
+//   bits  8-15  search depth
+//   bits  6-7   bound type (EXACT, LOWER or UPPER)
+//   bits  0-5   best column + 1, or 0 if unknown
+// 
+// The slot is chosen from the lower bits of the hash. New results always replace the
+// old entry in their slot.
+// 
+// The table is shared by all search threads without locks. Entries are read and
+// written as whole longs with opaque access, so a reader sees either the old or the
+// new entry, never a mix, and the hash check rejects entries of other positions.
+public final class TranspositionTable {
+    private static final VarHandle ENTRY = MethodHandles.arrayElementVarHandle(long[].class);
+    
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+    
+    private final long[] entries;
+    private final int indexMask;
+    
+    // 
+// Creates a table with room for at least the given number of entries,
+// rounded up to a power of two.
+// 
+// @param capacity The minimum number of entries
+    public TranspositionTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.entries = new long[size];
+        this.indexMask = size - 1;
+    }
+    
+    // 
+// Looks up a position.
+// 
+// @param hash The Zobrist hash of the position
+// @return The packed entry, or 0 if the position is not in the table
+    public long probe(long hash) {
+        long entry = (long) ENTRY.getOpaque(entries, (int) hash & indexMask);
+        return (entry != 0 && (entry >>> 32) == (hash >>> 32)) ? entry : 0L;
+    }
+    
+    // 
+// Stores a search result.
+// 
+// @param hash The Zobrist hash of the position
+// @param score The score of the position
+// @param depth The depth the position was searched to
+// @param bound EXACT, LOWER or UPPER
+// @param move The best column found, or -1 if none
+    public void store(long hash, int score, int depth, int bound, int move) {
+        long entry = (hash & 0xFFFFFFFF00000000L)
+                | ((long) (score & 0xFFFF) << 16)
+                | ((long) (depth & 0xFF) << 8)
+                | ((long) bound << 6)
+                | (move + 1);
+        ENTRY.setOpaque(entries, (int) hash & indexMask, entry);
+    }
+    
+    public static int score(long entry) {
+        return (short) (entry >>> 16);
+    }
+    
+    public static int depth(long entry) {
+        return (int) (entry >>> 8) & 0xFF;
+    }
+    
+    public static int bound(long entry) {
+        return (int) (entry >>> 6) & 0x3;
+    }
+    
+    public static int move(long entry) {
+        return (int) (entry & 0x3F) - 1;
+    }
+    
+    // 
+// Removes all entries.
+    public void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            ENTRY.setOpaque(entries, i, 0L);
+        }
+    }
+    
+    public int capacity() {
+        return entries.length;
+    }
+} 
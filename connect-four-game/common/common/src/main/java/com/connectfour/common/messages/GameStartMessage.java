@@ -1,5 +1,6 @@
 package com.connectfour.common.messages;
 
+import com.connectfour.common.model.BoardGeometry;
 import com.connectfour.common.model.GameState;
 import com.connectfour.common.model.PlayerColor;
 
@@ -23,6 +24,14 @@ public class GameStartMessage extends Message {
         return initialState;
     }
     
+    // 
+// Gets the board the game is played on, as chosen at matchmaking time.
+// 
+// @return The board geometry of the initial state
+    public BoardGeometry getBoardGeometry() {
+        return initialState.getGeometry();
+    }
+    
     public PlayerColor getAssignedColor() {
         return assignedColor;
     }
@@ -1,6 +1,8 @@
 package com.connectfour.common.messages;
 
 import com.connectfour.common.model.GameState;
+import com.connectfour.common.trace.Trace;
+import com.connectfour.common.trace.TraceLevel;
 
 // 
 // Message sent from server to client to update the game state.
@@ -11,12 +13,13 @@ public class GameStateUpdateMessage extends Message {
     
     public GameStateUpdateMessage(GameState gameState) {
         super(MessageType.GAME_STATE_UPDATE);
-        System.out.println("Creating GameStateUpdateMessage with turn: " + gameState.getCurrentTurn());
+        if (Trace.isEnabled(TraceLevel.DEBUG)) {
+            Trace.log(TraceLevel.DEBUG, "GameStateUpdateMessage", "Creating GameStateUpdateMessage with turn: {}", gameState.getCurrentTurn());
+        }
         this.gameState = gameState;
     }
     
     public GameState getGameState() {
-        System.out.println("Getting GameState from message, turn: " + gameState.getCurrentTurn());
         return gameState;
     }
 } 
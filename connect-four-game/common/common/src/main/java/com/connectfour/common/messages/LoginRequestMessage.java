@@ -1,18 +1,47 @@
 package com.connectfour.common.messages;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import com.connectfour.common.model.BoardGeometry;
+
 // 
 // Message sent from client to server to request login with a username.
 public class LoginRequestMessage extends Message {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 1L; // unchanged so that older servers still read it
     
     private final String username;
+    private final BoardGeometry boardGeometry; // board the player wants to be matched on, null for the standard board
     
     public LoginRequestMessage(String username) {
+        this(username, BoardGeometry.STANDARD);
+    }
+    
+    public LoginRequestMessage(String username, BoardGeometry boardGeometry) {
         super(MessageType.LOGIN_REQUEST);
         this.username = username;
+        this.boardGeometry = boardGeometry;
+    }
+    
+    // Older servers ignore the board field, but cannot load the BoardGeometry class, so
+    // the standard board is written as null
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("username", username);
+        fields.put("boardGeometry", BoardGeometry.STANDARD.equals(boardGeometry) ? null : boardGeometry);
+        out.writeFields();
     }
     
     public String getUsername() {
         return username;
     }
+    
+    // 
+// Gets the board the player wants to be matched on.
+// 
+// @return The board geometry; null, as read from older clients and from Java
+// serialization, means the standard board
+    public BoardGeometry getBoardGeometry() {
+        return boardGeometry;
+    }
 } 
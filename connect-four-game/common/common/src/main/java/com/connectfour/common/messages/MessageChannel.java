@@ -0,0 +1,352 @@
+package com.connectfour.common.messages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 
+// One end of a client-server connection, reading and writing whole messages.
+// 
+// A connection speaks either the binary protocol of MessageCodec or Java object
+// serialization. The protocol is settled before the login request: a binary client
+// opens with the four bytes of HANDSHAKE and the server echoes them back, while a client
+// using serialization opens with the serialization stream header (0xACED), which the
+// server recognises. A server that predates the binary protocol answers with its own
+// serialization header, and the client reconnects with serialization. Both work with
+// releases from before the binary protocol only because the message classes keep the
+// serialized form of those releases: GameState still writes its cell array, and
+// serialVersionUIDs are not changed.
+// 
+// An object stream keeps every object it has written, and the reading end every object
+// it has read, so that a later reference to the same object can be sent as a handle. On a
+// long connection that is every message ever sent. The writing end therefore resets the
+// stream, which clears both tables, every connectfour.serialization.resetMessages
+// messages (default 256) or connectfour.serialization.resetBytes bytes (default 256 KB),
+// whichever comes first; zero or less turns a limit off. getRetainedBytes reports what
+// has been written since the last reset.
+public final class MessageChannel implements Closeable {
+    // "C4B" followed by the protocol version
+    public static final int HANDSHAKE = 0x43344201;
+    
+    // First two bytes of every Java serialization stream
+    public static final int SERIALIZATION_MAGIC = 0xACED;
+    
+    private static final String RESET_MESSAGES_PROPERTY = "connectfour.serialization.resetMessages";
+    private static final String RESET_BYTES_PROPERTY = "connectfour.serialization.resetBytes";
+    private static final int DEFAULT_RESET_MESSAGES = 256;
+    private static final long DEFAULT_RESET_BYTES = 256 * 1024;
+    
+    private final Socket socket;
+    private final boolean binary;
+    private final DataInputStream dataIn;
+    private final DataOutputStream dataOut;
+    private final ObjectInputStream objectIn;
+    private final ObjectOutputStream objectOut;
+    
+    // Java serialization only: bytes under the object stream, the reset limits, and what
+    // the stream holds on to since its last reset
+    private final CountingOutputStream counter;
+    private final int resetMessages;
+    private final long resetBytes;
+    private long countAtReset;
+    private volatile int retainedMessages;
+    private volatile long retainedBytes;
+    private volatile long resetCount;
+    
+    // A lock rather than a monitor, so a virtual thread blocked writing does not pin its carrier
+    private final ReentrantLock writeLock = new ReentrantLock();
+    
+    private MessageChannel(Socket socket, DataInputStream dataIn, DataOutputStream dataOut) {
+        this.socket = socket;
+        this.binary = true;
+        this.dataIn = dataIn;
+        this.dataOut = dataOut;
+        this.objectIn = null;
+        this.objectOut = null;
+        this.counter = null;
+        this.resetMessages = 0;
+        this.resetBytes = 0;
+    }
+    
+    private MessageChannel(Socket socket, ObjectInputStream objectIn, ObjectOutputStream objectOut,
+                           CountingOutputStream counter) {
+        this.socket = socket;
+        this.binary = false;
+        this.dataIn = null;
+        this.dataOut = null;
+        this.objectIn = objectIn;
+        this.objectOut = objectOut;
+        this.counter = counter;
+        this.resetMessages = Integer.getInteger(RESET_MESSAGES_PROPERTY, DEFAULT_RESET_MESSAGES);
+        this.resetBytes = Long.getLong(RESET_BYTES_PROPERTY, DEFAULT_RESET_BYTES);
+        this.countAtReset = counter.count;
+    }
+    
+    // Opens the object streams, writing the stream header first as the other end waits for it
+    private static MessageChannel serialized(Socket socket, InputStream in) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(socket.getOutputStream());
+        ObjectOutputStream out = new ObjectOutputStream(counter);
+        out.flush();
+        return new MessageChannel(socket, new ObjectInputStream(in), out, counter);
+    }
+    
+    // 
+// Sets up the server end of a new connection, in whichever protocol the client opened with.
+// 
+// @param socket The accepted socket
+// @return The channel
+// @throws StreamCorruptedException if the client opened with neither protocol
+// @throws IOException if the connection fails
+    public static MessageChannel accept(Socket socket) throws IOException {
+        return accept(socket, socket.getInputStream());
+    }
+    
+    // 
+// Sets up the server end of a new connection, reading the client's bytes from the given
+// stream. This lets a server that has already read the start of the connection itself
+// replay it here.
+// 
+// @param socket The accepted socket
+// @param input The stream of bytes from the client, from the first byte on
+// @return The channel
+// @throws StreamCorruptedException if the client opened with neither protocol
+// @throws IOException if the connection fails
+    public static MessageChannel accept(Socket socket, InputStream input) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(input);
+        in.mark(Integer.BYTES);
+        DataInputStream dataIn = new DataInputStream(in);
+        int header = dataIn.readInt();
+        if (header == HANDSHAKE) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(HANDSHAKE);
+            out.flush();
+            return new MessageChannel(socket, dataIn, out);
+        }
+        if ((header >>> 16) != SERIALIZATION_MAGIC) {
+            throw new StreamCorruptedException(String.format("Unknown protocol header: %08x", header));
+        }
+        
+        // Let the object stream read the header it expects
+        in.reset();
+        return serialized(socket, in);
+    }
+    
+    // 
+// Sets up the client end of a new connection with the binary protocol.
+// 
+// @param socket The connected socket
+// @return The channel, or null if the server only speaks Java serialization; the
+// socket is closed then and the client should reconnect with connectSerialized
+// @throws StreamCorruptedException if the server answers with neither protocol
+// @throws IOException if the connection fails
+    public static MessageChannel connect(Socket socket) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(HANDSHAKE);
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        int reply = in.readInt();
+        if (reply == HANDSHAKE) {
+            return new MessageChannel(socket, in, out);
+        }
+        socket.close();
+        if ((reply >>> 16) == SERIALIZATION_MAGIC) {
+            return null;
+        }
+        throw new StreamCorruptedException(String.format("Unknown protocol header: %08x", reply));
+    }
+    
+    // 
+// Sets up the client end of a new connection with Java serialization.
+// 
+// @param socket The connected socket
+// @return The channel
+// @throws IOException if the connection fails
+    public static MessageChannel connectSerialized(Socket socket) throws IOException {
+        return serialized(socket, socket.getInputStream());
+    }
+    
+    // 
+// Checks whether the connection uses the binary protocol rather than Java serialization.
+// 
+// @return true for the binary protocol
+    public boolean isBinary() {
+        return binary;
+    }
+    
+    // 
+// Reads the next message, blocking until one arrives.
+// 
+// @return The message
+// @throws IOException if the connection fails or the other end sends something that is not a message
+// @throws ClassNotFoundException if a serialized message is of a class this end does not know
+    public Message read() throws IOException, ClassNotFoundException {
+        if (binary) {
+            return MessageCodec.read(dataIn);
+        }
+        Object obj = objectIn.readObject();
+        if (!(obj instanceof Message)) {
+            throw new InvalidObjectException("Not a message: " + obj.getClass().getName());
+        }
+        return (Message) obj;
+    }
+    
+    // 
+// Writes a message and flushes it to the connection. Safe to call from several threads.
+// 
+// @param message The message to send
+// @throws IOException if the connection fails
+    public void write(Message message) throws IOException {
+        writeLock.lock();
+        try {
+            writeUnflushed(message);
+            flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    // 
+// Writes a message without flushing it, so that several messages can go out with one flush.
+// 
+// @param message The message to send
+// @throws IOException if the connection fails
+    public void writeUnflushed(Message message) throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                dataOut.write(MessageCodec.encode(message));
+            } else {
+                objectOut.writeObject(message);
+                countRetained();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    // Notes a message written to the object stream, resetting the stream at the limits
+    private void countRetained() throws IOException {
+        int messages = retainedMessages + 1;
+        long bytes = counter.count - countAtReset;
+        if ((resetMessages > 0 && messages >= resetMessages) || (resetBytes > 0 && bytes >= resetBytes)) {
+            objectOut.reset();
+            countAtReset = counter.count;
+            resetCount++;
+            messages = 0;
+            bytes = 0;
+        }
+        retainedMessages = messages;
+        retainedBytes = bytes;
+    }
+    
+    // 
+// Gets the bytes written through Java serialization since the object stream was last
+// reset: roughly what its handle table keeps alive, on this end and the other. Bytes the
+// object stream still buffers are not counted yet.
+// 
+// @return The bytes, always 0 for the binary protocol
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+    
+    // 
+// Gets the number of messages written through Java serialization since the object stream
+// was last reset.
+// 
+// @return The messages, always 0 for the binary protocol
+    public int getRetainedMessages() {
+        return retainedMessages;
+    }
+    
+    // 
+// Gets how often the object stream has been reset.
+// 
+// @return The number of resets, always 0 for the binary protocol
+    public long getResetCount() {
+        return resetCount;
+    }
+    
+    // 
+// Writes a frame already encoded with MessageCodec.encode, without flushing it. This
+// lets a message going to many clients be encoded once.
+// 
+// @param frame The complete frame, length prefix included
+// @throws IllegalStateException if the connection uses Java serialization
+// @throws IOException if the connection fails
+    public void writeFrame(byte[] frame) throws IOException {
+        if (!binary) {
+            throw new IllegalStateException("Frames can only be written to a binary connection");
+        }
+        writeLock.lock();
+        try {
+            dataOut.write(frame);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    // 
+// Sends everything written so far.
+// 
+// @throws IOException if the connection fails
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                dataOut.flush();
+            } else {
+                objectOut.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    // 
+// Closes the streams and the socket.
+    @Override
+    public void close() throws IOException {
+        try {
+            if (binary) {
+                dataOut.close();
+            } else {
+                objectOut.close();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+    
+    // Counts the bytes the object stream writes
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+} 
@@ -0,0 +1,264 @@
+package com.connectfour.common.messages;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+
+// 
+// Binary encoding of every message, used instead of Java serialization once both ends
+// have agreed on it, see MessageChannel.
+// 
+// A frame is the length of the rest of the frame as a 4-byte int, the tag of the
+// message type as one byte, then the fields of the message in a fixed order. Strings
+// are written as a presence byte followed by modified UTF-8 as in DataOutput.writeUTF,
+// boards as their two bitboards, and enums as one byte. A move is 6 bytes on the wire, and
+// the MoveAppliedMessage that reports it 20.
+public final class MessageCodec {
+    // Longest frame accepted from the other end; real frames are well under 1 KB
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+    
+    private MessageCodec() {
+    }
+    
+    // 
+// Encodes a message as a complete frame, length prefix included.
+// 
+// @param message The message to encode
+// @return The frame, ready to be written to the connection
+// @throws IllegalArgumentException if the message type has no encoding
+    public static byte[] encode(Message message) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(0); // length, filled in below
+            out.writeByte(message.getType().getTag());
+            writeBody(out, message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a byte array does not fail
+        }
+        byte[] frame = buffer.toByteArray();
+        int length = frame.length - Integer.BYTES;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+    
+    // 
+// Reads one frame from a stream and decodes it.
+// 
+// @param in The stream to read from
+// @return The message
+// @throws EOFException if the stream ends before a complete frame
+// @throws StreamCorruptedException if the frame is not a valid message
+// @throws IOException if reading fails
+    public static Message read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body);
+    }
+    
+    // 
+// Decodes the body of a frame: the tag and the fields, without the length prefix.
+// 
+// @param body The frame body
+// @return The message
+// @throws StreamCorruptedException if the body is not a valid message
+    public static Message decode(byte[] body) throws StreamCorruptedException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        try {
+            Message message = readBody(in);
+            if (in.available() > 0) {
+                throw new StreamCorruptedException("Unexpected bytes after " + message.getType() + " message");
+            }
+            return message;
+        } catch (StreamCorruptedException e) {
+            throw e;
+        } catch (IOException | IllegalArgumentException e) {
+            StreamCorruptedException corrupted = new StreamCorruptedException("Malformed message: " + e);
+            corrupted.initCause(e);
+            throw corrupted;
+        }
+    }
+    
+    private static void writeBody(DataOutputStream out, Message message) throws IOException {
+        switch (message.getType()) {
+            case LOGIN_REQUEST: {
+                LoginRequestMessage login = (LoginRequestMessage) message;
+                writeString(out, login.getUsername());
+                writeGeometry(out, login.getBoardGeometry());
+                break;
+            }
+            case LOGIN_RESPONSE: {
+                LoginResponseMessage response = (LoginResponseMessage) message;
+                out.writeBoolean(response.isSuccess());
+                writeString(out, response.getErrorMessage());
+                break;
+            }
+            case GAME_START: {
+                GameStartMessage start = (GameStartMessage) message;
+                writeGameState(out, start.getInitialState());
+                out.writeByte(start.getAssignedColor().ordinal());
+                writeString(out, start.getOpponentUsername());
+                break;
+            }
+            case MOVE:
+                out.writeByte(((MoveMessage) message).getColumn());
+                break;
+            case GAME_STATE_UPDATE:
+                writeGameState(out, ((GameStateUpdateMessage) message).getGameState());
+                break;
+            case CHAT_MESSAGE: {
+                ChatMessage chat = (ChatMessage) message;
+                writeString(out, chat.getSender());
+                writeString(out, chat.getContent());
+                break;
+            }
+            case PLAY_AGAIN_REQUEST:
+                out.writeBoolean(((PlayAgainRequestMessage) message).wantsToPlayAgain());
+                break;
+            case PLAY_AGAIN_RESPONSE: {
+                PlayAgainResponseMessage response = (PlayAgainResponseMessage) message;
+                out.writeBoolean(response.bothWantToPlayAgain());
+                out.writeBoolean(response.isOpponentDisconnected());
+                break;
+            }
+            case DISCONNECT:
+                writeString(out, ((DisconnectMessage) message).getReason());
+                break;
+            case MOVE_APPLIED: {
+                MoveAppliedMessage move = (MoveAppliedMessage) message;
+                out.writeShort(move.getSequence());
+                out.writeByte(move.getColumn());
+                out.writeByte(move.getRow());
+                out.writeByte(move.getColor().ordinal());
+                out.writeByte(move.getNextTurn().ordinal());
+                out.writeByte(move.getStatus().ordinal());
+                out.writeLong(move.getChecksum());
+                break;
+            }
+            case CANCEL_MATCHMAKING:
+            case RETURN_TO_LOBBY:
+            case RESYNC_REQUEST:
+                break;
+            default:
+                throw new IllegalArgumentException("No binary encoding for " + message.getType());
+        }
+    }
+    
+    private static Message readBody(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        MessageType type = MessageType.fromTag(tag);
+        if (type == null) {
+            throw new StreamCorruptedException("Unknown message tag: " + tag);
+        }
+        switch (type) {
+            case LOGIN_REQUEST:
+                return new LoginRequestMessage(readString(in), readGeometry(in));
+            case LOGIN_RESPONSE:
+                return new LoginResponseMessage(in.readBoolean(), readString(in));
+            case GAME_START:
+                return new GameStartMessage(readGameState(in), readEnum(in, PlayerColor.values()), readString(in));
+            case MOVE:
+                return new MoveMessage(in.readByte());
+            case GAME_STATE_UPDATE:
+                return new GameStateUpdateMessage(readGameState(in));
+            case CHAT_MESSAGE:
+                return new ChatMessage(readString(in), readString(in));
+            case PLAY_AGAIN_REQUEST:
+                return new PlayAgainRequestMessage(in.readBoolean());
+            case PLAY_AGAIN_RESPONSE:
+                return new PlayAgainResponseMessage(in.readBoolean(), in.readBoolean());
+            case DISCONNECT:
+                return new DisconnectMessage(readString(in));
+            case CANCEL_MATCHMAKING:
+                return new CancelMatchmakingMessage();
+            case RETURN_TO_LOBBY:
+                return new ReturnToLobbyMessage();
+            case MOVE_APPLIED:
+                return new MoveAppliedMessage(in.readUnsignedShort(), in.readUnsignedByte(), in.readUnsignedByte(),
+                        readEnum(in, PlayerColor.values()), readEnum(in, PlayerColor.values()),
+                        readEnum(in, GameStatus.values()), in.readLong());
+            case RESYNC_REQUEST:
+                return new ResyncRequestMessage();
+            default:
+                throw new StreamCorruptedException("No binary encoding for " + type);
+        }
+    }
+    
+    private static void writeGameState(DataOutputStream out, GameState state) throws IOException {
+        writeGeometry(out, state.getGeometry());
+        out.writeLong(state.getStones(PlayerColor.RED));
+        out.writeLong(state.getStones(PlayerColor.YELLOW));
+        out.writeByte(state.getCurrentTurn().ordinal());
+        out.writeByte(state.getStatus().ordinal());
+        writeString(out, state.getPlayer1Username());
+        writeString(out, state.getPlayer2Username());
+    }
+    
+    private static GameState readGameState(DataInputStream in) throws IOException {
+        BoardGeometry geometry = readGeometry(in);
+        if (geometry == null) {
+            throw new StreamCorruptedException("Game state without a board");
+        }
+        long red = in.readLong();
+        long yellow = in.readLong();
+        PlayerColor turn = readEnum(in, PlayerColor.values());
+        GameStatus status = readEnum(in, GameStatus.values());
+        String player1 = readString(in);
+        String player2 = readString(in);
+        return GameState.fromBitboards(player1, player2, geometry, red, yellow, turn, status);
+    }
+    
+    // Rows, columns and line length, one byte each; a null geometry is written as rows 0
+    private static void writeGeometry(DataOutputStream out, BoardGeometry geometry) throws IOException {
+        if (geometry == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(geometry.getRows());
+        out.writeByte(geometry.getColumns());
+        out.writeByte(geometry.getConnect());
+    }
+    
+    private static BoardGeometry readGeometry(DataInputStream in) throws IOException {
+        int rows = in.readUnsignedByte();
+        if (rows == 0) {
+            return null;
+        }
+        return BoardGeometry.of(rows, in.readUnsignedByte(), in.readUnsignedByte());
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= values.length) {
+            throw new StreamCorruptedException("Invalid " + values[0].getDeclaringClass().getSimpleName() + ": " + ordinal);
+        }
+        return values[ordinal];
+    }
+} 
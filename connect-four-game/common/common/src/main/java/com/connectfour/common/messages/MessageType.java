@@ -4,16 +4,51 @@ import java.io.Serializable;
 
 // 
 // Enum defining the different types of messages that can be exchanged.
+// Each type has a fixed tag that identifies it in the binary protocol, see MessageCodec.
 public enum MessageType implements Serializable {
-    LOGIN_REQUEST,
-    LOGIN_RESPONSE,
-    GAME_START,
-    MOVE,
-    GAME_STATE_UPDATE,
-    CHAT_MESSAGE,
-    PLAY_AGAIN_REQUEST,
-    PLAY_AGAIN_RESPONSE,
-    DISCONNECT,
-    CANCEL_MATCHMAKING,
-    RETURN_TO_LOBBY
+    LOGIN_REQUEST(1),
+    LOGIN_RESPONSE(2),
+    GAME_START(3),
+    MOVE(4),
+    GAME_STATE_UPDATE(5),
+    CHAT_MESSAGE(6),
+    PLAY_AGAIN_REQUEST(7),
+    PLAY_AGAIN_RESPONSE(8),
+    DISCONNECT(9),
+    CANCEL_MATCHMAKING(10),
+    RETURN_TO_LOBBY(11),
+    MOVE_APPLIED(12),
+    RESYNC_REQUEST(13);
+    
+    private static final MessageType[] BY_TAG = new MessageType[256];
+    
+    static {
+        for (MessageType type : values()) {
+            BY_TAG[type.tag] = type;
+        }
+    }
+    
+    private final int tag;
+    
+    MessageType(int tag) {
+        this.tag = tag;
+    }
+    
+    // 
+// Gets the byte that stands for this type on the wire. Tags never change once
+// released, so new types get new tags.
+// 
+// @return The tag, between 1 and 255
+    public int getTag() {
+        return tag;
+    }
+    
+    // 
+// Finds the type with the given tag.
+// 
+// @param tag The tag read from the wire
+// @return The message type, or null if the tag is unknown
+    public static MessageType fromTag(int tag) {
+        return (tag >= 0 && tag < BY_TAG.length) ? BY_TAG[tag] : null;
+    }
 } 
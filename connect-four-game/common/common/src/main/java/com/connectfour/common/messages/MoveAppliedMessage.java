@@ -0,0 +1,73 @@
+package com.connectfour.common.messages;
+
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+
+// 
+// Message sent from server to client after each move, in place of the full game state.
+// 
+// The client applies the move to its own copy of the game, then checks the result
+// against the sequence number, next turn, status and checksum carried here. A gap in
+// the sequence or any mismatch means the copy has drifted, and the client asks for the
+// full state with a ResyncRequestMessage.
+public class MoveAppliedMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    
+    private final int sequence;
+    private final int column;
+    private final int row;
+    private final PlayerColor color;
+    private final PlayerColor nextTurn;
+    private final GameStatus status;
+    private final long checksum;
+    
+    // 
+// Creates a move notification.
+// 
+// @param sequence The number of stones on the board after the move, 1 for the first move of a game
+// @param column The column played
+// @param row The row the stone landed on
+// @param color The color of the player who moved
+// @param nextTurn The player to move next
+// @param status The game status after the move
+// @param checksum The Zobrist hash of the game state after the move
+    public MoveAppliedMessage(int sequence, int column, int row, PlayerColor color, PlayerColor nextTurn,
+                              GameStatus status, long checksum) {
+        super(MessageType.MOVE_APPLIED);
+        this.sequence = sequence;
+        this.column = column;
+        this.row = row;
+        this.color = color;
+        this.nextTurn = nextTurn;
+        this.status = status;
+        this.checksum = checksum;
+    }
+    
+    public int getSequence() {
+        return sequence;
+    }
+    
+    public int getColumn() {
+        return column;
+    }
+    
+    public int getRow() {
+        return row;
+    }
+    
+    public PlayerColor getColor() {
+        return color;
+    }
+    
+    public PlayerColor getNextTurn() {
+        return nextTurn;
+    }
+    
+    public GameStatus getStatus() {
+        return status;
+    }
+    
+    public long getChecksum() {
+        return checksum;
+    }
+} 
@@ -0,0 +1,12 @@
+package com.connectfour.common.messages;
+
+// 
+// Message sent by a client whose copy of the game no longer matches the moves it is told
+// about. The server answers with the full game state.
+public class ResyncRequestMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    
+    public ResyncRequestMessage() {
+        super(MessageType.RESYNC_REQUEST);
+    }
+} 
@@ -0,0 +1,328 @@
+package com.connectfour.common.model;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+//
+// Board size and line length of a Connect-N variant, together with the bitboard
+// layout used to store positions of that size.
+//
+// A board is stored as one 64-bit mask per player. Each column occupies
+// getHeight() = rows + 1 consecutive bits, bottom cell first, so column c starts at
+// bit c * getHeight(). The extra bit on top of every column is never set, which keeps
+// the shifts used for line detection from wrapping from one column into the next.
+// A variant therefore fits when (rows + 1) * columns <= 64, which covers the classic
+// 6x7 board as well as 7x8 and 6x9.
+public final class BoardGeometry implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private static final int MAX_BITS = Long.SIZE;
+    
+    // The classic 6x7 board, connect four
+    public static final BoardGeometry STANDARD = new BoardGeometry(6, 7, 4);
+    
+    // A 7x8 board, connect four
+    public static final BoardGeometry LARGE = new BoardGeometry(7, 8, 4);
+    
+    // A 6x9 board, connect five
+    public static final BoardGeometry CONNECT_FIVE = new BoardGeometry(6, 9, 5);
+    
+    private final int rows;
+    private final int columns;
+    private final int connect;
+    
+    // Derived layout, rebuilt from the fields above after deserialization
+    private final transient int height;
+    private final transient long bottomMask;
+    private final transient long boardMask;
+    private final transient long topMask;
+    private final transient int[] mirrorIndex;
+    
+    private BoardGeometry(int rows, int columns, int connect) {
+        if (rows < 1 || columns < 1) {
+            throw new IllegalArgumentException("Board must have at least one row and column: " + rows + "x" + columns);
+        }
+        if (connect < 2 || connect > Math.max(rows, columns)) {
+            throw new IllegalArgumentException("Line length " + connect + " does not fit a " + rows + "x" + columns + " board");
+        }
+        if ((rows + 1) * columns > MAX_BITS) {
+            throw new IllegalArgumentException("Board " + rows + "x" + columns + " does not fit in a 64-bit bitboard");
+        }
+        
+        this.rows = rows;
+        this.columns = columns;
+        this.connect = connect;
+        this.height = rows + 1;
+        
+        long bottom = 0L;
+        for (int col = 0; col < columns; col++) {
+            bottom |= 1L << (col * height);
+        }
+        this.bottomMask = bottom;
+        this.boardMask = bottom * ((1L << rows) - 1);
+        this.topMask = bottom << (rows - 1);
+        
+        this.mirrorIndex = new int[MAX_BITS];
+        for (int index = 0; index < MAX_BITS; index++) {
+            int col = index / height;
+            mirrorIndex[index] = (col < columns) ? (columns - 1 - col) * height + index % height : index;
+        }
+    }
+    
+    // 
+// Returns the geometry for a board size and line length.
+// 
+// @param rows The number of rows
+// @param columns The number of columns
+// @param connect The number of stones in a row needed to win
+// @return The geometry
+// @throws IllegalArgumentException if the variant does not fit in a 64-bit bitboard
+    public static BoardGeometry of(int rows, int columns, int connect) {
+        for (BoardGeometry preset : presets()) {
+            if (preset.rows == rows && preset.columns == columns && preset.connect == connect) {
+                return preset;
+            }
+        }
+        return new BoardGeometry(rows, columns, connect);
+    }
+    
+    // 
+// Returns the variants offered to players.
+// 
+// @return The preset geometries, STANDARD first
+    public static BoardGeometry[] presets() {
+        return new BoardGeometry[] { STANDARD, LARGE, CONNECT_FIVE };
+    }
+    
+    private Object readResolve() throws ObjectStreamException {
+        return of(rows, columns, connect);
+    }
+    
+    public int getRows() {
+        return rows;
+    }
+    
+    public int getColumns() {
+        return columns;
+    }
+    
+    // 
+// Gets the number of stones in a row needed to win.
+// 
+// @return The line length
+    public int getConnect() {
+        return connect;
+    }
+    
+    // 
+// Gets the number of bits per column, including the empty guard bit.
+// 
+// @return rows + 1
+    public int getHeight() {
+        return height;
+    }
+    
+    // 
+// Gets the number of cells on the board.
+// 
+// @return rows * columns
+    public int getCellCount() {
+        return rows * columns;
+    }
+    
+    // 
+// Gets a mask with one bit at the bottom of every column.
+// 
+// @return The bottom row mask
+    public long getBottomMask() {
+        return bottomMask;
+    }
+    
+    // 
+// Gets a mask of every playable cell.
+// 
+// @return The board mask
+    public long getBoardMask() {
+        return boardMask;
+    }
+    
+    // 
+// Gets a mask with one bit at the top playable cell of every column.
+// 
+// @return The top row mask
+    public long getTopMask() {
+        return topMask;
+    }
+    
+    // 
+// Returns the bit for a cell, using the same coordinates as GameState
+// (row 0 is the top row).
+// 
+// @param row The row index
+// @param col The column index
+// @return The single-bit mask of the cell
+    public long cell(int row, int col) {
+        return 1L << (col * height + (rows - 1 - row));
+    }
+    
+    // 
+// Returns the row (row 0 is the top row) of a single-bit cell mask.
+// 
+// @param cell The single-bit mask of the cell
+// @return The row index
+    public int rowOf(long cell) {
+        return rows - 1 - Long.numberOfTrailingZeros(cell) % height;
+    }
+    
+    // 
+// Returns the column of a single-bit cell mask.
+// 
+// @param cell The single-bit mask of the cell
+// @return The column index
+    public int columnOf(long cell) {
+        return Long.numberOfTrailingZeros(cell) / height;
+    }
+    
+    // 
+// Returns the mask of all playable cells in a column.
+// 
+// @param col The column index
+// @return The column mask
+    public long columnMask(int col) {
+        return ((1L << rows) - 1) << (col * height);
+    }
+    
+    // 
+// Returns the mask of the bottom cell in a column.
+// 
+// @param col The column index
+// @return The bottom cell mask
+    public long bottomMask(int col) {
+        return 1L << (col * height);
+    }
+    
+    // 
+// Returns the mask of the top playable cell in a column.
+// 
+// @param col The column index
+// @return The top cell mask
+    public long topMask(int col) {
+        return 1L << (col * height + rows - 1);
+    }
+    
+    // 
+// Returns the bit index of the left-right mirror image of a cell.
+// 
+// @param index The bit index of the cell
+// @return The bit index of the cell in the mirrored column
+    public int mirrorIndex(int index) {
+        return mirrorIndex[index];
+    }
+    
+    // 
+// Returns the cell a piece dropped in a column would land on.
+// Adding the bottom bit to the occupied cells carries up to the lowest empty cell.
+// 
+// @param occupied The mask of all occupied cells
+// @param col The column index
+// @return The single-bit mask of the landing cell, or 0 if the column is full
+    public long dropCell(long occupied, int col) {
+        return (occupied + bottomMask(col)) & ~occupied & columnMask(col);
+    }
+    
+    // 
+// Checks whether a set of stones contains a winning line for this variant.
+// 
+// @param stones The stones of one player
+// @return true if the stones contain getConnect() in a row, false otherwise
+    public boolean hasWon(long stones) {
+        if (connect == 4) {
+            return hasFour(stones);
+        }
+        return hasLine(stones, connect);
+    }
+    
+    // 
+// Four-in-a-row check unrolled to two shifts per direction.
+// 
+// @param stones The stones of one player
+// @return true if the stones contain a line of four, false otherwise
+    private boolean hasFour(long stones) {
+        // Horizontal
+        long m = stones & (stones >>> height);
+        if ((m & (m >>> (2 * height))) != 0) {
+            return true;
+        }
+        
+        // Diagonal (positive slope)
+        m = stones & (stones >>> (height + 1));
+        if ((m & (m >>> (2 * (height + 1)))) != 0) {
+            return true;
+        }
+        
+        // Diagonal (negative slope)
+        m = stones & (stones >>> (height - 1));
+        if ((m & (m >>> (2 * (height - 1)))) != 0) {
+            return true;
+        }
+        
+        // Vertical
+        m = stones & (stones >>> 1);
+        return (m & (m >>> 2)) != 0;
+    }
+    
+    // 
+// Checks whether a set of stones contains a line of the given length in any direction.
+// 
+// @param stones The stones of one player
+// @param length The number of consecutive stones to look for
+// @return true if the stones contain such a line, false otherwise
+    public boolean hasLine(long stones, int length) {
+        return lineStarts(stones, length, height) != 0          // horizontal
+                || lineStarts(stones, length, height + 1) != 0  // diagonal (positive slope)
+                || lineStarts(stones, length, height - 1) != 0  // diagonal (negative slope)
+                || lineStarts(stones, length, 1) != 0;          // vertical
+    }
+    
+    // 
+// Returns the cells that start a line of the given length in one direction.
+// Each step doubles the run length covered by the mask, so a line of length n
+// costs about log2(n) shifts.
+// 
+// @param stones The stones of one player
+// @param length The line length
+// @param shift The bit distance between neighbouring cells in the direction
+// @return A mask with a bit at the lowest cell of every such line
+    private static long lineStarts(long stones, int length, int shift) {
+        long m = stones;
+        int run = 1;
+        while (run < length && m != 0) {
+            int step = Math.min(run, length - run);
+            m &= m >>> (step * shift);
+            run += step;
+        }
+        return m;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BoardGeometry)) {
+            return false;
+        }
+        BoardGeometry other = (BoardGeometry) obj;
+        return rows == other.rows && columns == other.columns && connect == other.connect;
+    }
+    
+    @Override
+    public int hashCode() {
+        return (rows * 31 + columns) * 31 + connect;
+    }
+    
+    @Override
+    public String toString() {
+        return rows + "x" + columns + ", connect " + connect;
+    }
+} 
@@ -0,0 +1,200 @@
+package com.connectfour.common.model;
+
+import java.io.Serializable;
+
+// 
+// Immutable snapshot of a game.
+// 
+// A snapshot is two bitboards plus the turn, status and move count, so it is a few dozen
+// bytes and can be handed to any number of threads or kept in a history without copying.
+// Playing a move returns a new snapshot and leaves the old one untouched; the geometry is
+// shared between all snapshots of a game.
+public final class GameSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private final BoardGeometry geometry;
+    private final long redStones;
+    private final long yellowStones;
+    private final int moveCount;
+    private final PlayerColor currentTurn;
+    private final GameStatus status;
+    
+    // Zobrist hashes of the board and of its mirror image, see Zobrist
+    private final long hash;
+    private final long mirrorHash;
+    
+    // Use empty() or GameState.snapshot()
+    GameSnapshot(BoardGeometry geometry, long redStones, long yellowStones, int moveCount,
+                 PlayerColor currentTurn, GameStatus status, long hash, long mirrorHash) {
+        this.geometry = geometry;
+        this.redStones = redStones;
+        this.yellowStones = yellowStones;
+        this.moveCount = moveCount;
+        this.currentTurn = currentTurn;
+        this.status = status;
+        this.hash = hash;
+        this.mirrorHash = mirrorHash;
+    }
+    
+    // 
+// Creates the snapshot of an empty board with RED to move.
+// 
+// @param geometry The board size and line length
+// @return The starting snapshot
+    public static GameSnapshot empty(BoardGeometry geometry) {
+        return new GameSnapshot(geometry, 0L, 0L, 0, PlayerColor.RED, GameStatus.IN_PROGRESS, 0L, 0L);
+    }
+    
+    // 
+// Returns the snapshot after the player to move drops a piece in the given column.
+// Follows the same rules as GameState.makeMove: the turn does not pass once the game is over.
+// 
+// @param column The column in which to drop the piece (0-based index)
+// @return The new snapshot
+// @throws IllegalStateException if the game is already over
+// @throws IllegalArgumentException if the column is out of range or full
+    public GameSnapshot play(int column) {
+        if (status != GameStatus.IN_PROGRESS) {
+            throw new IllegalStateException("Game is over: " + status);
+        }
+        if (!canPlay(column)) {
+            throw new IllegalArgumentException("Column cannot be played: " + column);
+        }
+        
+        long cell = geometry.dropCell(redStones | yellowStones, column);
+        long red = redStones;
+        long yellow = yellowStones;
+        long stones;
+        if (currentTurn == PlayerColor.RED) {
+            red |= cell;
+            stones = red;
+        } else {
+            yellow |= cell;
+            stones = yellow;
+        }
+        long newHash = hash ^ Zobrist.key(currentTurn, cell) ^ Zobrist.SIDE_TO_MOVE;
+        long newMirrorHash = mirrorHash ^ Zobrist.mirrorKey(geometry, currentTurn, cell) ^ Zobrist.SIDE_TO_MOVE;
+        
+        PlayerColor nextTurn = currentTurn;
+        GameStatus newStatus;
+        if (geometry.hasWon(stones)) {
+            newStatus = (currentTurn == PlayerColor.RED) ? GameStatus.RED_WINS : GameStatus.YELLOW_WINS;
+        } else if (((red | yellow) & geometry.getTopMask()) == geometry.getTopMask()) {
+            newStatus = GameStatus.DRAW;
+        } else {
+            newStatus = GameStatus.IN_PROGRESS;
+            nextTurn = (currentTurn == PlayerColor.RED) ? PlayerColor.YELLOW : PlayerColor.RED;
+        }
+        
+        return new GameSnapshot(geometry, red, yellow, moveCount + 1, nextTurn, newStatus, newHash, newMirrorHash);
+    }
+    
+    // 
+// Checks whether a piece can be dropped in the specified column.
+// 
+// @param column The column to check (0-based index)
+// @return true if the column exists and is not full, false otherwise
+    public boolean canPlay(int column) {
+        return column >= 0 && column < geometry.getColumns()
+                && ((redStones | yellowStones) & geometry.topMask(column)) == 0;
+    }
+    
+    // 
+// Gets the row a piece dropped in the specified column would land in.
+// 
+// @param column The column to check (0-based index)
+// @return The landing row (0 is the top row), or -1 if the column is full
+    public int getDropRow(int column) {
+        if (!canPlay(column)) {
+            return -1;
+        }
+        return geometry.rowOf(geometry.dropCell(redStones | yellowStones, column));
+    }
+    
+    // 
+// Checks whether dropping a piece of the given color in the specified column
+// would complete a winning line.
+// 
+// @param column The column to check (0-based index)
+// @param color The color of the piece to drop
+// @return true if the move wins, false otherwise
+    public boolean isWinningMove(int column, PlayerColor color) {
+        if (!canPlay(column)) {
+            return false;
+        }
+        return geometry.hasWon(getStones(color) | geometry.dropCell(redStones | yellowStones, column));
+    }
+    
+    public CellState getCellState(int row, int col) {
+        long cell = geometry.cell(row, col);
+        if ((redStones & cell) != 0) {
+            return CellState.RED;
+        }
+        if ((yellowStones & cell) != 0) {
+            return CellState.YELLOW;
+        }
+        return CellState.EMPTY;
+    }
+    
+    public long getStones(PlayerColor color) {
+        return (color == PlayerColor.RED) ? redStones : yellowStones;
+    }
+    
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+    
+    public int getRows() {
+        return geometry.getRows();
+    }
+    
+    public int getColumns() {
+        return geometry.getColumns();
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    public PlayerColor getCurrentTurn() {
+        return currentTurn;
+    }
+    
+    public GameStatus getStatus() {
+        return status;
+    }
+    
+    public long getZobristHash() {
+        return hash;
+    }
+    
+    public long getSymmetricKey() {
+        return Zobrist.symmetricKey(hash, mirrorHash);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GameSnapshot)) {
+            return false;
+        }
+        GameSnapshot other = (GameSnapshot) obj;
+        return geometry.equals(other.geometry)
+                && redStones == other.redStones
+                && yellowStones == other.yellowStones
+                && currentTurn == other.currentTurn
+                && status == other.status;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+    
+    @Override
+    public String toString() {
+        return "GameSnapshot[" + geometry + ", moves=" + moveCount + ", turn=" + currentTurn + ", status=" + status + "]";
+    }
+} 
@@ -2,58 +2,189 @@ package com.connectfour.common.model;
 
 import java.io.Serializable;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+
+import com.connectfour.common.trace.Trace;
+import com.connectfour.common.trace.TraceLevel;
 
 // 
 // Represents the state of a Connect Four game.
 public class GameState implements Serializable {
     private static final long serialVersionUID = 2L; // Updated version
+    private static final String TRACE_SOURCE = "GameState";
+    
+    // The serialized form is still the cell array of older releases, so that older clients
+    // and servers can read it; the line length is the only addition
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("board", CellState[][].class),
+            new ObjectStreamField("currentTurn", PlayerColor.class),
+            new ObjectStreamField("status", GameStatus.class),
+            new ObjectStreamField("player1Username", String.class),
+            new ObjectStreamField("player2Username", String.class),
+            new ObjectStreamField("connect", int.class)
+    };
     
+    // Size of the classic board; use getRows()/getColumns() for the size of a particular game
     public static final int ROWS = 6;
     public static final int COLUMNS = 7;
     
-    private final CellState[][] board;
+    // The geometry and usernames are not final because readObject sets them
+    private BoardGeometry geometry;
+    
+    // One bitboard per player, see BoardGeometry for the layout
+    private long redStones;
+    private long yellowStones;
     private PlayerColor currentTurn; // Ensure not transient
     private GameStatus status;
-    private final String player1Username;
-    private final String player2Username;
+    private String player1Username;
+    private String player2Username;
+    
+    // Zobrist hashes of the board, kept up to date by every mutator and rebuilt after deserialization
+    private transient long hash;
+    private transient long mirrorHash;
     
     public GameState(String player1Username, String player2Username) {
-        this.board = new CellState[ROWS][COLUMNS];
-        for (int row = 0; row < ROWS; row++) {
-            for (int col = 0; col < COLUMNS; col++) {
-                this.board[row][col] = CellState.EMPTY;
-            }
-        }
+        this(player1Username, player2Username, BoardGeometry.STANDARD);
+    }
+    
+    // 
+// Creates a new game on a board of the given size.
+// 
+// @param player1Username The username of the RED player
+// @param player2Username The username of the YELLOW player
+// @param geometry The board size and line length
+    public GameState(String player1Username, String player2Username, BoardGeometry geometry) {
+        this.geometry = geometry;
+        this.redStones = 0L;
+        this.yellowStones = 0L;
         this.currentTurn = PlayerColor.RED; // Red always goes first
         this.status = GameStatus.IN_PROGRESS;
         this.player1Username = player1Username;
         this.player2Username = player2Username;
+        rehash();
+    }
+    
+    // 
+// Rebuilds a game state from its bitboards, as received from the other end of a
+// connection. The stones are not checked against the rules.
+// 
+// @param player1Username The username of the RED player
+// @param player2Username The username of the YELLOW player
+// @param geometry The board size and line length
+// @param redStones The bitboard of RED's stones
+// @param yellowStones The bitboard of YELLOW's stones
+// @param currentTurn The player to move
+// @param status The game status
+// @return The game state
+// @throws IllegalArgumentException if the bitboards overlap or leave the board
+    public static GameState fromBitboards(String player1Username, String player2Username, BoardGeometry geometry,
+                                          long redStones, long yellowStones, PlayerColor currentTurn, GameStatus status) {
+        if ((redStones & yellowStones) != 0 || ((redStones | yellowStones) & ~geometry.getBoardMask()) != 0) {
+            throw new IllegalArgumentException("Invalid bitboards for a " + geometry + " board");
+        }
+        GameState state = new GameState(player1Username, player2Username, geometry);
+        state.redStones = redStones;
+        state.yellowStones = yellowStones;
+        state.currentTurn = currentTurn;
+        state.status = status;
+        state.rehash();
+        return state;
+    }
+    
+    // 
+// Recomputes both Zobrist hashes from the board.
+    private void rehash() {
+        hash = Zobrist.hash(geometry, redStones, yellowStones, false);
+        mirrorHash = Zobrist.hash(geometry, redStones, yellowStones, true);
     }
     
     // Add custom serialization methods to ensure proper serialization
     private void writeObject(ObjectOutputStream out) throws IOException {
-        out.defaultWriteObject();
+        CellState[][] board = new CellState[geometry.getRows()][geometry.getColumns()];
+        for (int row = 0; row < board.length; row++) {
+            for (int col = 0; col < board[row].length; col++) {
+                board[row][col] = getCellState(row, col);
+            }
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("board", board);
+        fields.put("currentTurn", currentTurn);
+        fields.put("status", status);
+        fields.put("player1Username", player1Username);
+        fields.put("player2Username", player2Username);
+        fields.put("connect", geometry.getConnect());
+        out.writeFields();
         out.writeObject(currentTurn); // Explicitly write currentTurn
-        System.out.println("Serializing GameState, currentTurn=" + currentTurn);
+        if (Trace.isEnabled(TraceLevel.DEBUG)) {
+            Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Serializing GameState, currentTurn={}", currentTurn);
+        }
     }
     
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        in.defaultReadObject();
+        ObjectInputStream.GetField fields = in.readFields();
+        CellState[][] board = (CellState[][]) fields.get("board", null);
+        status = (GameStatus) fields.get("status", null);
+        player1Username = (String) fields.get("player1Username", null);
+        player2Username = (String) fields.get("player2Username", null);
+        int connect = fields.get("connect", 0); // absent from older releases, which only played connect four
         currentTurn = (PlayerColor) in.readObject(); // Explicitly read currentTurn
-        System.out.println("Deserializing GameState, currentTurn=" + currentTurn);
+        
+        if (board == null || board.length == 0 || board[0] == null) {
+            throw new InvalidObjectException("GameState without a board");
+        }
+        try {
+            geometry = BoardGeometry.of(board.length, board[0].length, connect == 0 ? 4 : connect);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+        for (int row = 0; row < board.length; row++) {
+            if (board[row] == null || board[row].length != geometry.getColumns()) {
+                throw new InvalidObjectException("GameState board is not rectangular");
+            }
+            for (int col = 0; col < board[row].length; col++) {
+                if (board[row][col] == CellState.RED) {
+                    redStones |= geometry.cell(row, col);
+                } else if (board[row][col] == CellState.YELLOW) {
+                    yellowStones |= geometry.cell(row, col);
+                }
+            }
+        }
+        rehash();
+        if (Trace.isEnabled(TraceLevel.DEBUG)) {
+            Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Deserializing GameState, currentTurn={}", currentTurn);
+        }
     }
     
     public CellState getCellState(int row, int col) {
-        return board[row][col];
+        long cell = geometry.cell(row, col);
+        if ((redStones & cell) != 0) {
+            return CellState.RED;
+        }
+        if ((yellowStones & cell) != 0) {
+            return CellState.YELLOW;
+        }
+        return CellState.EMPTY;
     }
     
     public PlayerColor getCurrentTurn() {
-        System.out.println("Getting current turn: " + currentTurn); // Debug
         return currentTurn;
     }
     
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+    
+    public int getRows() {
+        return geometry.getRows();
+    }
+    
+    public int getColumns() {
+        return geometry.getColumns();
+    }
+    
     public GameStatus getStatus() {
         return status;
     }
@@ -72,147 +203,122 @@ public class GameState implements Serializable {
 // @param column The column in which to drop the piece (0-based index)
 // @return true if the move was successful, false otherwise
     public boolean makeMove(int column) {
-        System.out.println("makeMove called for column " + column + ", current turn: " + currentTurn);
-        
-        if (status != GameStatus.IN_PROGRESS || column < 0 || column >= COLUMNS) {
-            System.out.println("Invalid move: game not in progress or column out of bounds");
-            return false;
+        if (Trace.isEnabled(TraceLevel.DEBUG)) {
+            Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "makeMove called for column {}, current turn: {}", column, currentTurn);
         }
         
-        // Find the lowest empty row in the selected column
-        int row = -1;
-        for (int r = ROWS - 1; r >= 0; r--) {
-            if (board[r][column] == CellState.EMPTY) {
-                row = r;
-                break;
+        if (status != GameStatus.IN_PROGRESS || column < 0 || column >= geometry.getColumns()) {
+            if (Trace.isEnabled(TraceLevel.DEBUG)) {
+                Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Invalid move: game not in progress or column out of bounds");
             }
+            return false;
         }
         
-        if (row == -1) {
+        // Find the lowest empty cell in the selected column
+        long cell = geometry.dropCell(redStones | yellowStones, column);
+        
+        if (cell == 0) {
             // Column is full
-            System.out.println("Invalid move: column " + column + " is full");
+            if (Trace.isEnabled(TraceLevel.DEBUG)) {
+                Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Invalid move: column {} is full", column);
+            }
             return false;
         }
         
         // Place the piece
-        CellState newPiece = (currentTurn == PlayerColor.RED) ? CellState.RED : CellState.YELLOW;
-        System.out.println("Placing " + newPiece + " piece at row " + row + ", column " + column);
-        board[row][column] = newPiece;
+        int row = geometry.rowOf(cell);
+        hash ^= Zobrist.key(currentTurn, cell) ^ Zobrist.SIDE_TO_MOVE;
+        mirrorHash ^= Zobrist.mirrorKey(geometry, currentTurn, cell) ^ Zobrist.SIDE_TO_MOVE;
+        long stones;
+        if (currentTurn == PlayerColor.RED) {
+            redStones |= cell;
+            stones = redStones;
+        } else {
+            yellowStones |= cell;
+            stones = yellowStones;
+        }
+        if (Trace.isEnabled(TraceLevel.DEBUG)) {
+            Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Placing {} piece at row {}, column {}", currentTurn, row, column);
+        }
         
         // Check for win or draw
-        if (checkForWin(row, column)) {
+        if (geometry.hasWon(stones)) {
             status = (currentTurn == PlayerColor.RED) ? GameStatus.RED_WINS : GameStatus.YELLOW_WINS;
-            System.out.println("Win detected! Status set to: " + status);
+            if (Trace.isEnabled(TraceLevel.DEBUG)) {
+                Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Win detected! Status set to: {}", status);
+            }
         } else if (isBoardFull()) {
             status = GameStatus.DRAW;
-            System.out.println("Board is full. Status set to DRAW");
+            if (Trace.isEnabled(TraceLevel.DEBUG)) {
+                Trace.log(TraceLevel.DEBUG, TRACE_SOURCE, "Board is full. Status set to DRAW");
+            }
         } else {
             // Switch turns
-            PlayerColor oldTurn = currentTurn;
             currentTurn = (currentTurn == PlayerColor.RED) ? PlayerColor.YELLOW : PlayerColor.RED;
-            System.out.println("Turn switched from " + oldTurn + " to " + currentTurn);
+            if (Trace.isEnabled(TraceLevel.TRACE)) {
+                Trace.log(TraceLevel.TRACE, TRACE_SOURCE, "Turn switched to {}", currentTurn);
+            }
         }
         
         return true;
     }
     
     private boolean isBoardFull() {
-        for (int col = 0; col < COLUMNS; col++) {
-            if (board[0][col] == CellState.EMPTY) {
-                return false;
-            }
-        }
-        return true;
+        return ((redStones | yellowStones) & geometry.getTopMask()) == geometry.getTopMask();
     }
     
-    private boolean checkForWin(int row, int col) {
-        CellState playerPiece = board[row][col];
-        System.out.println("Checking for win at row=" + row + ", col=" + col + " for piece " + playerPiece);
-        
-        // Check horizontal
-        int count = 0;
-        for (int c = 0; c < COLUMNS; c++) {
-            if (board[row][c] == playerPiece) {
-                count++;
-                if (count >= 4) {
-                    System.out.println("HORIZONTAL WIN found");
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-        }
-        
-        // Check vertical
-        count = 0;
-        for (int r = 0; r < ROWS; r++) {
-            if (board[r][col] == playerPiece) {
-                count++;
-                if (count >= 4) {
-                    System.out.println("VERTICAL WIN found");
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-        }
-        
-        // Check diagonal (positive slope)
-        count = 0;
-        // Calculate starting positions for diagonal check
-        int startRow = row;
-        int startCol = col;
-        
-        // Move to the bottom-left of the diagonal
-        while (startRow < ROWS - 1 && startCol > 0) {
-            startRow++;
-            startCol--;
-        }
-        
-        System.out.println("Positive diagonal starting at row=" + startRow + ", col=" + startCol);
-        
-        // Now check the diagonal going up-right
-        for (int r = startRow, c = startCol; r >= 0 && c < COLUMNS; r--, c++) {
-            if (r < ROWS && c >= 0 && c < COLUMNS && board[r][c] == playerPiece) {
-                count++;
-                if (count >= 4) {
-                    System.out.println("POSITIVE DIAGONAL WIN found");
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-        }
-        
-        // Check diagonal (negative slope)
-        count = 0;
-        // Calculate starting positions for anti-diagonal check
-        startRow = row;
-        startCol = col;
-        
-        // Move to the top-left of the diagonal
-        while (startRow > 0 && startCol > 0) {
-            startRow--;
-            startCol--;
+    // 
+// Checks whether a piece can be dropped in the specified column.
+// 
+// @param column The column to check (0-based index)
+// @return true if the column exists and is not full, false otherwise
+    public boolean canPlay(int column) {
+        return column >= 0 && column < geometry.getColumns()
+                && ((redStones | yellowStones) & geometry.topMask(column)) == 0;
+    }
+    
+    // 
+// Gets the row a piece would land on if dropped in the specified column.
+// 
+// @param column The column to check (0-based index)
+// @return The row index, or -1 if the column is full or out of bounds
+    public int getDropRow(int column) {
+        if (!canPlay(column)) {
+            return -1;
         }
-        
-        System.out.println("Negative diagonal starting at row=" + startRow + ", col=" + startCol);
-        
-        // Now check the diagonal going down-right
-        for (int r = startRow, c = startCol; r < ROWS && c < COLUMNS; r++, c++) {
-            if (r >= 0 && c >= 0 && board[r][c] == playerPiece) {
-                count++;
-                if (count >= 4) {
-                    System.out.println("NEGATIVE DIAGONAL WIN found");
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
+        return geometry.rowOf(geometry.dropCell(redStones | yellowStones, column));
+    }
+    
+    // 
+// Checks whether dropping a piece of the given color in the specified column
+// would complete a winning line. The game state is not modified.
+// 
+// @param column The column to check (0-based index)
+// @param color The color of the piece to drop
+// @return true if the move would win, false otherwise
+    public boolean isWinningMove(int column, PlayerColor color) {
+        if (!canPlay(column)) {
+            return false;
         }
-        
-        System.out.println("No win found");
-        return false;
+        long cell = geometry.dropCell(redStones | yellowStones, column);
+        return geometry.hasWon(getStones(color) | cell);
+    }
+    
+    // 
+// Gets the bitboard of a player's pieces (see BoardGeometry for the layout).
+// 
+// @param color The player color
+// @return The mask of cells occupied by that player
+    public long getStones(PlayerColor color) {
+        return (color == PlayerColor.RED) ? redStones : yellowStones;
+    }
+    
+    // 
+// Gets the number of pieces on the board.
+// 
+// @return The number of moves played so far
+    public int getMoveCount() {
+        return Long.bitCount(redStones | yellowStones);
     }
     
     // 
@@ -220,16 +326,16 @@ public class GameState implements Serializable {
 // 
 // @return A new GameState instance with the same data
     public GameState copy() {
-        GameState copy = new GameState(this.player1Username, this.player2Username);
-        
-        for (int row = 0; row < ROWS; row++) {
-            for (int col = 0; col < COLUMNS; col++) {
-                copy.board[row][col] = this.board[row][col];
-            }
-        }
+        GameState copy = new GameState(this.player1Username, this.player2Username, this.geometry);
         
+        copy.redStones = this.redStones;
+        copy.yellowStones = this.yellowStones;
         copy.currentTurn = this.currentTurn;
-        System.out.println("Copying GameState, currentTurn from " + this.currentTurn + " to " + copy.currentTurn);
+        copy.hash = this.hash;
+        copy.mirrorHash = this.mirrorHash;
+        if (Trace.isEnabled(TraceLevel.TRACE)) {
+            Trace.log(TraceLevel.TRACE, TRACE_SOURCE, "Copying GameState, currentTurn={}", copy.currentTurn);
+        }
         copy.status = this.status;
         
         return copy;
@@ -243,8 +349,10 @@ public class GameState implements Serializable {
 // @param col The column index
 // @param state The cell state to set
     public void setCellState(int row, int col, CellState state) {
-        if (row >= 0 && row < ROWS && col >= 0 && col < COLUMNS) {
-            board[row][col] = state;
+        if (row >= 0 && row < geometry.getRows() && col >= 0 && col < geometry.getColumns()) {
+            long cell = geometry.cell(row, col);
+            toggleStone(cell, getCellState(row, col));
+            toggleStone(cell, state);
         }
     }
     
@@ -254,7 +362,7 @@ public class GameState implements Serializable {
 // 
 // @param color The player color whose turn it is
     public void setCurrentTurn(PlayerColor color) {
-        this.currentTurn = color;
+        this.currentTurn = color; // the hashes follow the number of stones, not the turn
     }
     
     // 
@@ -265,4 +373,76 @@ public class GameState implements Serializable {
     public void setGameStatus(GameStatus status) {
         this.status = status;
     }
+    
+    // 
+// Adds or removes a stone of the given state at a cell, keeping the hashes in sync.
+// 
+// @param cell The single-bit mask of the cell
+// @param state The stone to toggle; EMPTY does nothing
+    private void toggleStone(long cell, CellState state) {
+        if (state == CellState.EMPTY) {
+            return;
+        }
+        PlayerColor color = (state == CellState.RED) ? PlayerColor.RED : PlayerColor.YELLOW;
+        if (color == PlayerColor.RED) {
+            redStones ^= cell;
+        } else {
+            yellowStones ^= cell;
+        }
+        // One stone more or less, so the side to move of the hash changes too
+        hash ^= Zobrist.key(color, cell) ^ Zobrist.SIDE_TO_MOVE;
+        mirrorHash ^= Zobrist.mirrorKey(geometry, color, cell) ^ Zobrist.SIDE_TO_MOVE;
+    }
+    
+    // 
+// Captures the board, turn and status in an immutable snapshot that can be shared
+// freely; later moves on this game state do not affect it.
+// 
+// @return The snapshot
+    public GameSnapshot snapshot() {
+        return new GameSnapshot(geometry, redStones, yellowStones, Long.bitCount(redStones | yellowStones),
+                currentTurn, status, hash, mirrorHash);
+    }
+    
+    // 
+// Gets the Zobrist hash of the board and the number of moves played, see Zobrist.
+// Client and server compute the same value for the same position, so it can be
+// compared as a cheap checksum.
+// 
+// @return The 64-bit hash
+    public long getZobristHash() {
+        return hash;
+    }
+    
+    // 
+// Gets a key shared by this position and its left-right mirror image.
+// 
+// @return The symmetric 64-bit key
+    public long getSymmetricKey() {
+        return Zobrist.symmetricKey(hash, mirrorHash);
+    }
+    
+    // 
+// Two game states are equal when they describe the same position: the same stones,
+// the same player to move and the same status. Usernames are not compared.
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GameState)) {
+            return false;
+        }
+        GameState other = (GameState) obj;
+        return geometry.equals(other.geometry)
+                && redStones == other.redStones
+                && yellowStones == other.yellowStones
+                && currentTurn == other.currentTurn
+                && status == other.status;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
 } 
@@ -0,0 +1,227 @@
+package com.connectfour.common.model;
+
+// 
+// Mutable bitboard position for search code.
+// 
+// Unlike GameState, a Position supports undoing moves, so a search can walk the game
+// tree with play(column)/undo() on a single instance. Moves are kept on a fixed-size
+// internal stack, so playing and undoing never allocates.
+public final class Position {
+    private final BoardGeometry geometry;
+    private long current; // stones of the player to move
+    private long mask; // all stones on the board
+    private PlayerColor sideToMove;
+    private int moveCount;
+    
+    // Zobrist hashes of the board and of its mirror image, see Zobrist
+    private long hash;
+    private long mirrorHash;
+    
+    // Cells played since this position was created, most recent last
+    private final long[] moveStack;
+    private int stackSize;
+    
+    // 
+// Creates an empty classic board with RED to move.
+    public Position() {
+        this(BoardGeometry.STANDARD);
+    }
+    
+    // 
+// Creates an empty board of the given size with RED to move.
+// 
+// @param geometry The board size and line length
+    public Position(BoardGeometry geometry) {
+        this.geometry = geometry;
+        this.moveStack = new long[geometry.getCellCount()];
+        this.current = 0L;
+        this.mask = 0L;
+        this.sideToMove = PlayerColor.RED;
+        this.moveCount = 0;
+        this.hash = 0L;
+        this.mirrorHash = 0L;
+    }
+    
+    // 
+// Creates a position from a game state.
+// 
+// @param gameState The game state to copy the board and turn from
+    public Position(GameState gameState) {
+        this(gameState.getGeometry(), gameState.getStones(PlayerColor.RED),
+                gameState.getStones(PlayerColor.YELLOW), gameState.getCurrentTurn());
+    }
+    
+    // 
+// Creates a position from a snapshot.
+// 
+// @param snapshot The snapshot to copy the board and turn from
+    public Position(GameSnapshot snapshot) {
+        this(snapshot.getGeometry(), snapshot.getStones(PlayerColor.RED),
+                snapshot.getStones(PlayerColor.YELLOW), snapshot.getCurrentTurn());
+    }
+    
+    // 
+// Creates an independent copy of this position, including the moves that can be undone.
+// 
+// @return The copy
+    public Position copy() {
+        Position copy = new Position(geometry);
+        copy.current = current;
+        copy.mask = mask;
+        copy.sideToMove = sideToMove;
+        copy.moveCount = moveCount;
+        copy.hash = hash;
+        copy.mirrorHash = mirrorHash;
+        System.arraycopy(moveStack, 0, copy.moveStack, 0, stackSize);
+        copy.stackSize = stackSize;
+        return copy;
+    }
+    
+    private Position(BoardGeometry geometry, long red, long yellow, PlayerColor sideToMove) {
+        this.geometry = geometry;
+        this.moveStack = new long[geometry.getCellCount()];
+        this.sideToMove = sideToMove;
+        this.mask = red | yellow;
+        this.current = (sideToMove == PlayerColor.RED) ? red : yellow;
+        this.moveCount = Long.bitCount(mask);
+        this.hash = Zobrist.hash(geometry, red, yellow, false);
+        this.mirrorHash = Zobrist.hash(geometry, red, yellow, true);
+    }
+    
+    // 
+// Checks whether a piece can be dropped in the specified column.
+// 
+// @param column The column to check (0-based index)
+// @return true if the column is not full, false otherwise
+    public boolean canPlay(int column) {
+        return (mask & geometry.topMask(column)) == 0;
+    }
+    
+    // 
+// Drops a piece for the player to move. The column must be playable.
+// 
+// @param column The column in which to drop the piece (0-based index)
+    public void play(int column) {
+        long cell = geometry.dropCell(mask, column);
+        moveStack[stackSize++] = cell;
+        hash ^= Zobrist.key(sideToMove, cell) ^ Zobrist.SIDE_TO_MOVE;
+        mirrorHash ^= Zobrist.mirrorKey(geometry, sideToMove, cell) ^ Zobrist.SIDE_TO_MOVE;
+        current ^= mask;
+        mask |= cell;
+        moveCount++;
+        sideToMove = (sideToMove == PlayerColor.RED) ? PlayerColor.YELLOW : PlayerColor.RED;
+    }
+    
+    // 
+// Takes back the last move played on this position.
+// 
+// @throws IllegalStateException if no move has been played since the position was created
+    public void undo() {
+        if (stackSize == 0) {
+            throw new IllegalStateException("No move to undo");
+        }
+        long cell = moveStack[--stackSize];
+        mask ^= cell;
+        current ^= mask;
+        moveCount--;
+        sideToMove = (sideToMove == PlayerColor.RED) ? PlayerColor.YELLOW : PlayerColor.RED;
+        hash ^= Zobrist.key(sideToMove, cell) ^ Zobrist.SIDE_TO_MOVE;
+        mirrorHash ^= Zobrist.mirrorKey(geometry, sideToMove, cell) ^ Zobrist.SIDE_TO_MOVE;
+    }
+    
+    // 
+// Checks whether the player to move would win by dropping a piece in the specified column.
+// 
+// @param column The column to check (0-based index)
+// @return true if the move would complete a winning line, false otherwise
+    public boolean isWinningMove(int column) {
+        return canPlay(column) && geometry.hasWon(current | geometry.dropCell(mask, column));
+    }
+    
+    // 
+// Checks whether the opponent would win by dropping a piece in the specified column,
+// i.e. whether the player to move has to block that column.
+// 
+// @param column The column to check (0-based index)
+// @return true if the opponent threatens to win there, false otherwise
+    public boolean isBlockingMove(int column) {
+        return canPlay(column) && geometry.hasWon((current ^ mask) | geometry.dropCell(mask, column));
+    }
+    
+    // 
+// Checks whether the player who made the last move completed a winning line.
+// 
+// @return true if the last move won the game, false otherwise
+    public boolean lastMoveWon() {
+        return geometry.hasWon(current ^ mask);
+    }
+    
+    // 
+// Checks whether every column is full.
+// 
+// @return true if no more moves can be played, false otherwise
+    public boolean isFull() {
+        return (mask & geometry.getTopMask()) == geometry.getTopMask();
+    }
+    
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+    
+    public PlayerColor getSideToMove() {
+        return sideToMove;
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    // 
+// Gets the stones of the player to move.
+// 
+// @return The bitboard of the player to move
+    public long getCurrentStones() {
+        return current;
+    }
+    
+    // 
+// Gets the stones of the player who moved last.
+// 
+// @return The bitboard of the opponent of the player to move
+    public long getOpponentStones() {
+        return current ^ mask;
+    }
+    
+    // 
+// Gets all stones on the board.
+// 
+// @return The bitboard of all occupied cells
+    public long getMask() {
+        return mask;
+    }
+    
+    // 
+// Gets the Zobrist hash of this position, updated incrementally on every play and undo.
+// 
+// @return The 64-bit hash
+    public long getHash() {
+        return hash;
+    }
+    
+    // 
+// Gets the Zobrist hash of the left-right mirror image of this position.
+// 
+// @return The 64-bit hash of the mirrored board
+    public long getMirrorHash() {
+        return mirrorHash;
+    }
+    
+    // 
+// Gets a key shared by this position and its mirror image.
+// Mirror-symmetric positions have the same value, so caches can store them once.
+// 
+// @return The symmetric 64-bit key
+    public long getSymmetricKey() {
+        return Zobrist.symmetricKey(hash, mirrorHash);
+    }
+} 
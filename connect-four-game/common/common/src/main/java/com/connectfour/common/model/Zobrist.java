@@ -0,0 +1,91 @@
+package com.connectfour.common.model;
+
+import java.util.SplittableRandom;
+
+// 
+// Zobrist keys for hashing board positions.
+// 
+// Every (color, cell) pair has a random 64-bit key and a position hashes to the XOR of
+// the keys of its stones, plus SIDE_TO_MOVE when an odd number of stones is on the board,
+// which is when YELLOW is to move in a game still in progress. Every move XORs in its
+// stone and SIDE_TO_MOVE, whether or not it ends the game, so GameState, GameSnapshot and
+// Position agree on the hash of every position, finished ones included. Because XOR is
+// its own inverse, a move or an undo updates a hash with a single XOR.
+// 
+// The keys come from a fixed seed so that client, server and any files written by one
+// of them agree on the hash of a position.
+public final class Zobrist {
+    private static final long SEED = 0x436F6E6E65637434L; // "Connect4"
+    private static final int CELLS = Long.SIZE; // one key per bit, enough for every BoardGeometry
+    
+    // Key XORed in by every move, so that it is in the hash after an odd number of moves
+    public static final long SIDE_TO_MOVE;
+    
+    private static final long[] RED_KEYS = new long[CELLS];
+    private static final long[] YELLOW_KEYS = new long[CELLS];
+    
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < CELLS; i++) {
+            RED_KEYS[i] = random.nextLong();
+            YELLOW_KEYS[i] = random.nextLong();
+        }
+        SIDE_TO_MOVE = random.nextLong();
+    }
+    
+    private Zobrist() {}
+    
+    // 
+// Returns the key of a stone.
+// 
+// @param color The color of the stone
+// @param cell The single-bit mask of the cell
+// @return The Zobrist key of that stone
+    public static long key(PlayerColor color, long cell) {
+        int index = Long.numberOfTrailingZeros(cell);
+        return (color == PlayerColor.RED) ? RED_KEYS[index] : YELLOW_KEYS[index];
+    }
+    
+    // 
+// Returns the key of a stone on the left-right mirrored board.
+// 
+// @param geometry The board geometry
+// @param color The color of the stone
+// @param cell The single-bit mask of the cell on the unmirrored board
+// @return The Zobrist key of the mirrored stone
+    public static long mirrorKey(BoardGeometry geometry, PlayerColor color, long cell) {
+        int index = geometry.mirrorIndex(Long.numberOfTrailingZeros(cell));
+        return (color == PlayerColor.RED) ? RED_KEYS[index] : YELLOW_KEYS[index];
+    }
+    
+    // 
+// Computes the hash of a board from scratch.
+// 
+// @param geometry The board geometry
+// @param redStones The bitboard of RED stones
+// @param yellowStones The bitboard of YELLOW stones
+// @param mirrored Whether to hash the left-right mirrored board
+// @return The Zobrist hash
+    public static long hash(BoardGeometry geometry, long redStones, long yellowStones, boolean mirrored) {
+        long hash = (Long.bitCount(redStones | yellowStones) % 2 != 0) ? SIDE_TO_MOVE : 0L;
+        for (long stones = redStones; stones != 0; stones &= stones - 1) {
+            long cell = Long.lowestOneBit(stones);
+            hash ^= mirrored ? mirrorKey(geometry, PlayerColor.RED, cell) : key(PlayerColor.RED, cell);
+        }
+        for (long stones = yellowStones; stones != 0; stones &= stones - 1) {
+            long cell = Long.lowestOneBit(stones);
+            hash ^= mirrored ? mirrorKey(geometry, PlayerColor.YELLOW, cell) : key(PlayerColor.YELLOW, cell);
+        }
+        return hash;
+    }
+    
+    // 
+// Combines a hash and its mirrored hash into a key shared by both orientations.
+// 
+// @param hash The hash of the board
+// @param mirrorHash The hash of the mirrored board
+// @return The symmetric key
+    public static long symmetricKey(long hash, long mirrorHash) {
+        return Math.min(hash, mirrorHash);
+    }
+} 
@@ -0,0 +1,50 @@
+package com.connectfour.common.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 
+// Trace sink that keeps the most recent lines in memory.
+// Useful for attaching recent model activity to a bug report without writing to stdout.
+public class RingBufferTraceSink implements TraceSink {
+    private final String[] lines;
+    private long written;
+    
+    // 
+// Creates a ring buffer that keeps the given number of lines.
+// 
+// @param capacity The maximum number of lines to keep
+    public RingBufferTraceSink(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.lines = new String[capacity];
+    }
+    
+    @Override
+    public synchronized void trace(TraceLevel level, String source, String message) {
+        lines[(int) (written % lines.length)] = level + " " + source + " - " + message;
+        written++;
+    }
+    
+    // 
+// Returns the buffered lines, oldest first.
+// 
+// @return A copy of the buffered lines
+    public synchronized List<String> snapshot() {
+        int size = (int) Math.min(written, lines.length);
+        List<String> result = new ArrayList<>(size);
+        for (long i = written - size; i < written; i++) {
+            result.add(lines[(int) (i % lines.length)]);
+        }
+        return result;
+    }
+    
+    // 
+// Returns the total number of lines recorded, including overwritten ones.
+// 
+// @return The number of lines recorded
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+} 
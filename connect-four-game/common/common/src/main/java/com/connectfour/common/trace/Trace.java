@@ -0,0 +1,123 @@
+package com.connectfour.common.trace;
+
+// 
+// Entry point for tracing in the shared model and message classes.
+// 
+// No sink is installed by default. isEnabled then costs a read of the volatile threshold
+// and an int compare, and the guarded call sites never build their message. Hot paths
+// should always check isEnabled before calling log, since boxing the arguments happens
+// at the call site.
+// 
+// Tracing is opt-in, e.g. Trace.install(new RingBufferTraceSink(1024), TraceLevel.DEBUG).
+public final class Trace {
+    private static final int DISABLED = -1;
+    
+    private static volatile TraceSink sink;
+    private static volatile int threshold = DISABLED;
+    
+    private Trace() {}
+    
+    // 
+// Installs a sink that receives all lines at the given level or more severe.
+// 
+// @param newSink The sink to install
+// @param level The least severe level to record
+    public static void install(TraceSink newSink, TraceLevel level) {
+        if (newSink == null || level == null) {
+            throw new IllegalArgumentException("Trace sink and level are required");
+        }
+        sink = newSink;
+        threshold = level.ordinal();
+    }
+    
+    // 
+// Removes the installed sink and disables tracing.
+    public static void uninstall() {
+        threshold = DISABLED;
+        sink = null;
+    }
+    
+    // 
+// Checks whether lines at the given level are recorded.
+// 
+// @param level The level to check
+// @return true if a sink is installed for that level, false otherwise
+    public static boolean isEnabled(TraceLevel level) {
+        return level.ordinal() <= threshold;
+    }
+    
+    // 
+// Records a message without arguments.
+// 
+// @param level The level of the line
+// @param source The component that produced the line
+// @param message The message
+    public static void log(TraceLevel level, String source, String message) {
+        TraceSink current = sink;
+        if (current != null && isEnabled(level)) {
+            current.trace(level, source, message);
+        }
+    }
+    
+    // 
+// Records a message with one "{}" placeholder.
+// 
+// @param level The level of the line
+// @param source The component that produced the line
+// @param format The message format
+// @param arg The argument for the placeholder
+    public static void log(TraceLevel level, String source, String format, Object arg) {
+        TraceSink current = sink;
+        if (current != null && isEnabled(level)) {
+            current.trace(level, source, format(format, arg));
+        }
+    }
+    
+    // 
+// Records a message with two "{}" placeholders.
+// 
+// @param level The level of the line
+// @param source The component that produced the line
+// @param format The message format
+// @param arg1 The argument for the first placeholder
+// @param arg2 The argument for the second placeholder
+    public static void log(TraceLevel level, String source, String format, Object arg1, Object arg2) {
+        TraceSink current = sink;
+        if (current != null && isEnabled(level)) {
+            current.trace(level, source, format(format, arg1, arg2));
+        }
+    }
+    
+    // 
+// Records a message with any number of "{}" placeholders.
+// 
+// @param level The level of the line
+// @param source The component that produced the line
+// @param format The message format
+// @param args The arguments for the placeholders
+    public static void log(TraceLevel level, String source, String format, Object... args) {
+        TraceSink current = sink;
+        if (current != null && isEnabled(level)) {
+            current.trace(level, source, format(format, args));
+        }
+    }
+    
+    // 
+// Replaces each "{}" in the format with the next argument.
+// 
+// @param format The message format
+// @param args The arguments
+// @return The formatted message
+    static String format(String format, Object... args) {
+        StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < args.length && (placeholder = format.indexOf("{}", start)) >= 0) {
+            sb.append(format, start, placeholder).append(args[argIndex++]);
+            start = placeholder + 2;
+        }
+        sb.append(format, start, format.length());
+        return sb.toString();
+    }
+} 
@@ -0,0 +1,11 @@
+package com.connectfour.common.trace;
+
+// 
+// Severity levels for trace output, from most to least severe.
+public enum TraceLevel {
+    ERROR,
+    WARN,
+    INFO,
+    DEBUG,
+    TRACE
+} 
@@ -0,0 +1,14 @@
+package com.connectfour.common.trace;
+
+// 
+// Destination for trace output. Implementations are installed through Trace.install
+// and are only called for levels at or above the installed threshold.
+public interface TraceSink {
+    // 
+// Records a trace line. The message has already been formatted.
+// 
+// @param level The level of the line
+// @param source The component that produced the line, e.g. "GameState"
+// @param message The formatted message
+    void trace(TraceLevel level, String source, String message);
+} 
@@ -0,0 +1,80 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.Position;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpeningBookGeneratorTest {
+    private static final BoardGeometry GEOMETRY = BoardGeometry.of(4, 5, 3);
+    private static final int PLIES = 5;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void everyPositionReadsBackWithItsSolvedScore() throws Exception {
+        Path file = directory.resolve("book.bin");
+        OpeningBookGenerator.main(new String[] {
+                "--board", "4x5x3", "--plies", String.valueOf(PLIES), "--threads", "1", "--out", file.toString()});
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(GEOMETRY, book.getGeometry());
+        assertEquals(PLIES, book.getPlies());
+        
+        Map<Long, GameSnapshot> positions = new HashMap<>();
+        collect(GameSnapshot.empty(GEOMETRY), positions);
+        assertEquals(positions.size(), book.size());
+        
+        SearchEngine engine = new SearchEngine(1 << 16, 1);
+        for (GameSnapshot snapshot : positions.values()) {
+            Position position = new Position(snapshot);
+            int score = book.getScore(position);
+            assertNotEquals(OpeningBook.NO_SCORE, score, snapshot.toString());
+            // Distances to the end may differ between searches, the outcome may not
+            int solved = engine.search(position, GEOMETRY.getCellCount()).getScore();
+            assertEquals(Integer.signum(solved), Integer.signum(score), snapshot.toString());
+            
+            int column = book.getBestMove(position);
+            assertTrue(snapshot.canPlay(column), snapshot.toString());
+            GameSnapshot child = snapshot.play(column);
+            if (child.getStatus() == GameStatus.IN_PROGRESS) {
+                int childScore = book.getScore(new Position(child));
+                if (childScore != OpeningBook.NO_SCORE) {
+                    assertEquals(score, -childScore, "best move of " + snapshot);
+                }
+            }
+        }
+    }
+    
+    // The positions the generator keeps: those in progress up to the last ply, without
+    // the children of a position that can win at once
+    private static void collect(GameSnapshot snapshot, Map<Long, GameSnapshot> positions) {
+        if (positions.putIfAbsent(snapshot.getSymmetricKey(), snapshot) != null
+                || snapshot.getMoveCount() == PLIES) {
+            return;
+        }
+        for (int column = 0; column < GEOMETRY.getColumns(); column++) {
+            if (snapshot.isWinningMove(column, snapshot.getCurrentTurn())) {
+                return;
+            }
+        }
+        for (int column = 0; column < GEOMETRY.getColumns(); column++) {
+            if (snapshot.canPlay(column)) {
+                GameSnapshot child = snapshot.play(column);
+                if (child.getStatus() == GameStatus.IN_PROGRESS) {
+                    collect(child, positions);
+                }
+            }
+        }
+    }
+} 
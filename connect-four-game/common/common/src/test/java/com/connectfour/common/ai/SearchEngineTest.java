@@ -0,0 +1,159 @@
+package com.connectfour.common.ai;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.Position;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(120)
+class SearchEngineTest {
+    private static final int WIN = SearchEngine.WIN_SCORE;
+    private static final BoardGeometry SMALL = BoardGeometry.of(4, 5, 3);
+    
+    // Twenty moves into a standard game; RED is to move and loses to YELLOW's 19th stone
+    private static final String MIDGAME = "33333321144141441415";
+    private static final int MIDGAME_SCORE = -(WIN - 38);
+    
+    @Test
+    void takesAnImmediateWin() {
+        // RED has three in column 0 and wins with its 7th stone
+        SearchResult result = solve(position(BoardGeometry.STANDARD, "010101"), 1);
+        assertEquals(0, result.getColumn());
+        assertEquals(WIN - 7, result.getScore());
+        assertTrue(result.isWin());
+    }
+    
+    @Test
+    void scoresAForcedLoss() {
+        // RED threatens both ends of the bottom row; YELLOW blocks one and loses on move 7
+        SearchResult result = solve(position(BoardGeometry.STANDARD, "30402"), 1);
+        assertEquals(-(WIN - 7), result.getScore());
+        assertTrue(result.isLoss());
+    }
+    
+    @Test
+    void solvesAStandardMidgame() {
+        Position position = position(BoardGeometry.STANDARD, MIDGAME);
+        assertEquals(MIDGAME_SCORE, new Solver().solve(snapshot(BoardGeometry.STANDARD, MIDGAME)));
+        assertEquals(MIDGAME_SCORE, solve(position, 1).getScore());
+    }
+    
+    @Test
+    void solvesSmallBoardsExactly() {
+        // The empty board and every position after two moves
+        Solver solver = new Solver();
+        GameSnapshot empty = GameSnapshot.empty(SMALL);
+        assertEquals(solver.solve(empty), solve(new Position(empty), 1).getScore());
+        for (int first = 0; first < SMALL.getColumns(); first++) {
+            for (int second = 0; second < SMALL.getColumns(); second++) {
+                GameSnapshot snapshot = empty.play(first).play(second);
+                assertEquals(solver.solve(snapshot), solve(new Position(snapshot), 1).getScore(), snapshot.toString());
+            }
+        }
+    }
+    
+    @Test
+    void helperThreadsReturnTheSameSolvedScore() {
+        SearchEngine single = new SearchEngine(1 << 16, 1);
+        SearchEngine lazySmp = new SearchEngine(1 << 16, 4);
+        try {
+            GameSnapshot empty = GameSnapshot.empty(SMALL);
+            for (int first = 0; first < SMALL.getColumns(); first++) {
+                for (int second = 0; second < SMALL.getColumns(); second++) {
+                    GameSnapshot snapshot = empty.play(first).play(second);
+                    SearchResult expected = single.search(new Position(snapshot), SMALL.getCellCount());
+                    SearchResult actual = lazySmp.search(new Position(snapshot), SMALL.getCellCount());
+                    assertEquals(expected.getScore(), actual.getScore(), snapshot.toString());
+                }
+            }
+            
+            Position midgame = position(BoardGeometry.STANDARD, MIDGAME);
+            assertEquals(MIDGAME_SCORE, single.search(midgame, 64).getScore());
+            assertEquals(MIDGAME_SCORE, lazySmp.search(midgame.copy(), 64).getScore());
+        } finally {
+            lazySmp.shutdown();
+        }
+    }
+    
+    @Test
+    void tableEntriesRoundTrip() {
+        TranspositionTable table = new TranspositionTable(1 << 10);
+        long hash = 0x9E3779B97F4A7C15L;
+        int[] scores = {0, 1, -1, WIN - 7, -(WIN - 7), WIN, -WIN, Short.MAX_VALUE, Short.MIN_VALUE};
+        int[] bounds = {TranspositionTable.EXACT, TranspositionTable.LOWER, TranspositionTable.UPPER};
+        for (int score : scores) {
+            for (int depth : new int[] {0, 1, 42, 255}) {
+                for (int bound : bounds) {
+                    for (int move : new int[] {-1, 0, 6, 62}) {
+                        table.store(hash, score, depth, bound, move);
+                        long entry = table.probe(hash);
+                        assertEquals(score, TranspositionTable.score(entry));
+                        assertEquals(depth, TranspositionTable.depth(entry));
+                        assertEquals(bound, TranspositionTable.bound(entry));
+                        assertEquals(move, TranspositionTable.move(entry));
+                    }
+                }
+            }
+        }
+        
+        // Another position in the same slot is not mistaken for this one
+        assertEquals(0L, table.probe(hash ^ (1L << 40)));
+        table.clear();
+        assertEquals(0L, table.probe(hash));
+    }
+    
+    private static SearchResult solve(Position position, int threads) {
+        return new SearchEngine(1 << 16, threads).search(position, position.getGeometry().getCellCount());
+    }
+    
+    private static GameSnapshot snapshot(BoardGeometry geometry, String moves) {
+        GameSnapshot snapshot = GameSnapshot.empty(geometry);
+        for (char move : moves.toCharArray()) {
+            snapshot = snapshot.play(move - '0');
+        }
+        return snapshot;
+    }
+    
+    private static Position position(BoardGeometry geometry, String moves) {
+        return new Position(snapshot(geometry, moves));
+    }
+    
+    // Plain negamax over every move, remembering the score of each position, to check the
+    // engine's pruning against
+    private static final class Solver {
+        private final Map<Long, Integer> scores = new HashMap<>();
+        
+        int solve(GameSnapshot snapshot) {
+            Integer known = scores.get(snapshot.getZobristHash());
+            if (known != null) {
+                return known;
+            }
+            int best = Integer.MIN_VALUE;
+            for (int column = 0; column < snapshot.getColumns(); column++) {
+                if (!snapshot.canPlay(column)) {
+                    continue;
+                }
+                GameSnapshot child = snapshot.play(column);
+                int score;
+                if (child.getStatus() == GameStatus.DRAW) {
+                    score = 0;
+                } else if (child.getStatus() != GameStatus.IN_PROGRESS) {
+                    score = WIN - child.getMoveCount();
+                } else {
+                    score = -solve(child);
+                }
+                best = Math.max(best, score);
+            }
+            scores.put(snapshot.getZobristHash(), best);
+            return best;
+        }
+    }
+} 
@@ -0,0 +1,167 @@
+package com.connectfour.common.messages;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageChannelTest {
+    private static final int TIMEOUT_MILLIS = 5000;
+    
+    private ServerSocket server;
+    private Socket client;
+    private Socket accepted;
+    
+    @BeforeEach
+    void connect() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(server.getInetAddress(), server.getLocalPort());
+        accepted = server.accept();
+        client.setSoTimeout(TIMEOUT_MILLIS);
+        accepted.setSoTimeout(TIMEOUT_MILLIS);
+    }
+    
+    @AfterEach
+    void close() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+    
+    @Test
+    void binaryClientGetsTheBinaryProtocol() throws Exception {
+        CompletableFuture<MessageChannel> serverEnd = acceptAsync();
+        MessageChannel clientEnd = MessageChannel.connect(client);
+        MessageChannel channel = serverEnd.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        
+        assertTrue(clientEnd.isBinary());
+        assertTrue(channel.isBinary());
+        exchange(clientEnd, channel);
+    }
+    
+    @Test
+    void serializationClientIsStillAccepted() throws Exception {
+        CompletableFuture<MessageChannel> serverEnd = acceptAsync();
+        MessageChannel clientEnd = MessageChannel.connectSerialized(client);
+        MessageChannel channel = serverEnd.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        
+        assertFalse(clientEnd.isBinary());
+        assertFalse(channel.isBinary());
+        exchange(clientEnd, channel);
+    }
+    
+    @Test
+    void binaryClientFallsBackOnASerializationServer() throws Exception {
+        // A server from before the binary protocol opens with its stream header at once
+        ObjectOutputStream legacy = new ObjectOutputStream(accepted.getOutputStream());
+        legacy.flush();
+        
+        assertNull(MessageChannel.connect(client));
+        assertTrue(client.isClosed());
+    }
+    
+    @Test
+    void unknownHeadersAreRejected() throws Exception {
+        DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        out.writeInt(0x47455420); // "GET "
+        out.flush();
+        assertThrows(StreamCorruptedException.class, () -> MessageChannel.accept(accepted));
+        
+        DataOutputStream reply = new DataOutputStream(accepted.getOutputStream());
+        reply.writeInt(0x48545450); // "HTTP"
+        reply.flush();
+        assertThrows(StreamCorruptedException.class, () -> MessageChannel.connect(client));
+    }
+    
+    @Test
+    void framesOnlyGoToBinaryConnections() throws Exception {
+        CompletableFuture<MessageChannel> serverEnd = acceptAsync();
+        MessageChannel clientEnd = MessageChannel.connectSerialized(client);
+        MessageChannel channel = serverEnd.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        
+        byte[] frame = MessageCodec.encode(new MoveMessage(3));
+        assertThrows(IllegalStateException.class, () -> channel.writeFrame(frame));
+        clientEnd.close();
+    }
+    
+    @Test
+    void serializationStreamIsResetRegularly() throws Exception {
+        int messages = 5000;
+        CompletableFuture<MessageChannel> serverEnd = acceptAsync();
+        MessageChannel clientEnd = MessageChannel.connectSerialized(client);
+        MessageChannel channel = serverEnd.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        CompletableFuture<Integer> received = CompletableFuture.supplyAsync(() -> {
+            int count = 0;
+            try {
+                while (count < messages) {
+                    assertInstanceOf(ChatMessage.class, clientEnd.read());
+                    count++;
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+            return count;
+        });
+        
+        // Defaults: a reset every 256 messages or 256 KB
+        for (int i = 0; i < messages; i++) {
+            channel.writeUnflushed(new ChatMessage("server", "message " + i + " " + "x".repeat(i % 200)));
+            assertTrue(channel.getRetainedMessages() < 256, "retained messages after " + i);
+            assertTrue(channel.getRetainedBytes() < 256 * 1024, "retained bytes after " + i);
+        }
+        channel.flush();
+        
+        assertEquals(messages, received.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(messages / 256, channel.getResetCount());
+        channel.close();
+        clientEnd.close();
+    }
+    
+    private CompletableFuture<MessageChannel> acceptAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return MessageChannel.accept(accepted);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+    
+    // Sends a message each way, and a frame encoded in advance where the protocol allows
+    private static void exchange(MessageChannel clientEnd, MessageChannel serverEnd)
+            throws IOException, ClassNotFoundException {
+        clientEnd.write(new LoginRequestMessage("alice"));
+        LoginRequestMessage login = assertInstanceOf(LoginRequestMessage.class, serverEnd.read());
+        assertEquals("alice", login.getUsername());
+        
+        serverEnd.write(new ChatMessage("server", "welcome"));
+        if (serverEnd.isBinary()) {
+            serverEnd.writeFrame(MessageCodec.encode(new MoveMessage(4)));
+            serverEnd.flush();
+        } else {
+            serverEnd.write(new MoveMessage(4));
+        }
+        ChatMessage chat = assertInstanceOf(ChatMessage.class, clientEnd.read());
+        assertEquals("welcome", chat.getContent());
+        assertEquals(4, assertInstanceOf(MoveMessage.class, clientEnd.read()).getColumn());
+        
+        clientEnd.close();
+        serverEnd.close();
+    }
+} 
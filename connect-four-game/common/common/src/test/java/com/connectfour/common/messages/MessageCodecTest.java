@@ -0,0 +1,252 @@
+package com.connectfour.common.messages;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCodecTest {
+    @Test
+    void everyMessageTypeRoundTrips() throws IOException {
+        GameState state = playedGame(BoardGeometry.STANDARD, "red", "yellow", 3, 3, 4, 2);
+        List<Message> messages = List.of(
+                new LoginRequestMessage("alice", BoardGeometry.LARGE),
+                new LoginResponseMessage(false, "Username taken"),
+                new GameStartMessage(state, PlayerColor.YELLOW, "bob"),
+                new MoveMessage(6),
+                new GameStateUpdateMessage(state),
+                new ChatMessage("alice", "héllo ☃"),
+                new PlayAgainRequestMessage(true),
+                new PlayAgainResponseMessage(false, true),
+                new DisconnectMessage("Server shutting down"),
+                new CancelMatchmakingMessage(),
+                new ReturnToLobbyMessage(),
+                new MoveAppliedMessage(65535, 6, 5, PlayerColor.RED, PlayerColor.YELLOW, GameStatus.RED_WINS, -1L),
+                new ResyncRequestMessage());
+        
+        Set<MessageType> covered = EnumSet.noneOf(MessageType.class);
+        for (Message message : messages) {
+            assertEquals(message.getType(), roundTrip(message).getType());
+            covered.add(message.getType());
+        }
+        assertEquals(EnumSet.allOf(MessageType.class), covered);
+    }
+    
+    @Test
+    void fieldsSurviveTheRoundTrip() throws IOException {
+        MoveAppliedMessage move = (MoveAppliedMessage) roundTrip(
+                new MoveAppliedMessage(1234, 3, 2, PlayerColor.YELLOW, PlayerColor.RED, GameStatus.IN_PROGRESS, 0x0123456789ABCDEFL));
+        assertEquals(1234, move.getSequence());
+        assertEquals(3, move.getColumn());
+        assertEquals(2, move.getRow());
+        assertEquals(PlayerColor.YELLOW, move.getColor());
+        assertEquals(PlayerColor.RED, move.getNextTurn());
+        assertEquals(GameStatus.IN_PROGRESS, move.getStatus());
+        assertEquals(0x0123456789ABCDEFL, move.getChecksum());
+        
+        ChatMessage chat = (ChatMessage) roundTrip(new ChatMessage("alice", "héllo ☃"));
+        assertEquals("alice", chat.getSender());
+        assertEquals("héllo ☃", chat.getContent());
+        
+        PlayAgainResponseMessage response = (PlayAgainResponseMessage) roundTrip(new PlayAgainResponseMessage(false, true));
+        assertFalse(response.bothWantToPlayAgain());
+        assertTrue(response.isOpponentDisconnected());
+    }
+    
+    @Test
+    void nullStringsStayNull() throws IOException {
+        LoginRequestMessage login = (LoginRequestMessage) roundTrip(new LoginRequestMessage(null, null));
+        assertNull(login.getUsername());
+        assertNull(login.getBoardGeometry());
+        
+        LoginResponseMessage response = (LoginResponseMessage) roundTrip(new LoginResponseMessage(true, null));
+        assertTrue(response.isSuccess());
+        assertNull(response.getErrorMessage());
+        
+        ChatMessage chat = (ChatMessage) roundTrip(new ChatMessage(null, ""));
+        assertNull(chat.getSender());
+        assertEquals("", chat.getContent());
+        
+        assertNull(((DisconnectMessage) roundTrip(new DisconnectMessage(null))).getReason());
+        
+        GameStartMessage start = (GameStartMessage) roundTrip(
+                new GameStartMessage(new GameState(null, null), PlayerColor.RED, null));
+        assertNull(start.getOpponentUsername());
+        assertNull(start.getInitialState().getPlayer1Username());
+        assertNull(start.getInitialState().getPlayer2Username());
+    }
+    
+    @Test
+    void everyPresetRoundTrips() throws IOException {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            LoginRequestMessage login = (LoginRequestMessage) roundTrip(new LoginRequestMessage("alice", geometry));
+            assertSame(geometry, login.getBoardGeometry());
+            
+            // Stones in the first and last column and on the top row
+            int last = geometry.getColumns() - 1;
+            int[] moves = new int[geometry.getRows() + 2];
+            moves[moves.length - 2] = last;
+            moves[moves.length - 1] = last;
+            GameState state = playedGame(geometry, "red", "yellow", moves);
+            
+            GameState decoded = ((GameStateUpdateMessage) roundTrip(new GameStateUpdateMessage(state))).getGameState();
+            assertSame(geometry, decoded.getGeometry());
+            assertEquals(state, decoded);
+            assertEquals(state.getStones(PlayerColor.RED), decoded.getStones(PlayerColor.RED));
+            assertEquals(state.getStones(PlayerColor.YELLOW), decoded.getStones(PlayerColor.YELLOW));
+            assertEquals(state.getCurrentTurn(), decoded.getCurrentTurn());
+            assertEquals(state.getMoveCount(), decoded.getMoveCount());
+            assertEquals("red", decoded.getPlayer1Username());
+            assertEquals("yellow", decoded.getPlayer2Username());
+        }
+    }
+    
+    @Test
+    void rejectsTruncatedFrames() throws IOException {
+        byte[] frame = MessageCodec.encode(new GameStartMessage(new GameState("red", "yellow"), PlayerColor.RED, "bob"));
+        for (int length = 0; length < frame.length; length++) {
+            byte[] truncated = Arrays.copyOf(frame, length);
+            assertThrows(EOFException.class, () -> read(truncated), "frame cut at " + length);
+        }
+        
+        byte[] body = Arrays.copyOfRange(frame, Integer.BYTES, frame.length);
+        for (int length = 0; length < body.length; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(truncated), "body cut at " + length);
+        }
+    }
+    
+    @Test
+    void rejectsTrailingBytes() {
+        byte[] frame = MessageCodec.encode(new MoveMessage(3));
+        byte[] body = Arrays.copyOfRange(frame, Integer.BYTES, frame.length + 1);
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(body));
+    }
+    
+    @Test
+    void rejectsUnknownTags() {
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(new byte[] {0}));
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(new byte[] {(byte) 200}));
+    }
+    
+    @Test
+    void rejectsBadEnumOrdinals() throws IOException {
+        byte[] colors = body(out -> {
+            out.writeByte(MessageType.MOVE_APPLIED.getTag());
+            out.writeShort(1);
+            out.writeByte(3);
+            out.writeByte(0);
+            out.writeByte(PlayerColor.values().length); // color
+            out.writeByte(PlayerColor.RED.ordinal());
+            out.writeByte(GameStatus.IN_PROGRESS.ordinal());
+            out.writeLong(0);
+        });
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(colors));
+        
+        byte[] status = body(out -> {
+            out.writeByte(MessageType.MOVE_APPLIED.getTag());
+            out.writeShort(1);
+            out.writeByte(3);
+            out.writeByte(0);
+            out.writeByte(PlayerColor.YELLOW.ordinal());
+            out.writeByte(PlayerColor.RED.ordinal());
+            out.writeByte(0xFF); // status
+            out.writeLong(0);
+        });
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(status));
+    }
+    
+    @Test
+    void rejectsInvalidBoards() throws IOException {
+        // Both players on the same cell
+        byte[] overlapping = body(out -> {
+            out.writeByte(MessageType.GAME_STATE_UPDATE.getTag());
+            out.writeByte(6);
+            out.writeByte(7);
+            out.writeByte(4);
+            out.writeLong(1);
+            out.writeLong(1);
+            out.writeByte(PlayerColor.RED.ordinal());
+            out.writeByte(GameStatus.IN_PROGRESS.ordinal());
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+        });
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(overlapping));
+        
+        // A board too large for a bitboard
+        byte[] oversized = body(out -> {
+            out.writeByte(MessageType.LOGIN_REQUEST.getTag());
+            out.writeBoolean(false);
+            out.writeByte(20);
+            out.writeByte(20);
+            out.writeByte(4);
+        });
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(oversized));
+    }
+    
+    @Test
+    void rejectsBadFrameLengths() throws IOException {
+        for (int length : new int[] {MessageCodec.MAX_FRAME_LENGTH + 1, Integer.MAX_VALUE, 0, -1}) {
+            byte[] frame = body(out -> {
+                out.writeInt(length);
+                out.writeByte(MessageType.MOVE.getTag());
+                out.writeByte(3);
+            });
+            assertThrows(StreamCorruptedException.class, () -> read(frame), "length " + length);
+        }
+    }
+    
+    private static Message roundTrip(Message message) throws IOException {
+        byte[] frame = MessageCodec.encode(message);
+        assertEquals(frame.length - Integer.BYTES, ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16)
+                | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF));
+        Message decoded = read(frame);
+        assertArrayEquals(frame, MessageCodec.encode(decoded), message.getType() + " encodes differently after decoding");
+        return decoded;
+    }
+    
+    private static Message read(byte[] frame) throws IOException {
+        return MessageCodec.read(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+    
+    private static GameState playedGame(BoardGeometry geometry, String player1, String player2, int... columns) {
+        GameState state = new GameState(player1, player2, geometry);
+        for (int column : columns) {
+            assertTrue(state.makeMove(column), "move in column " + column);
+        }
+        return state;
+    }
+    
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+    
+    private static byte[] body(Body body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            body.write(out);
+        }
+        return bytes.toByteArray();
+    }
+} 
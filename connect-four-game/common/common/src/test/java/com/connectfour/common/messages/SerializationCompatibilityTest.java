@@ -0,0 +1,126 @@
+package com.connectfour.common.messages;
+
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The streams under baseline/ were written by the release before the binary protocol
+class SerializationCompatibilityTest {
+    @Test
+    void readsALoginFromAnOlderClient() throws Exception {
+        LoginRequestMessage login = assertInstanceOf(LoginRequestMessage.class, readBaseline("login-request.ser"));
+        assertEquals(MessageType.LOGIN_REQUEST, login.getType());
+        assertEquals("alice", login.getUsername());
+        assertNull(login.getBoardGeometry());
+    }
+    
+    @Test
+    void readsAGameStartFromAnOlderServer() throws Exception {
+        GameStartMessage start = assertInstanceOf(GameStartMessage.class, readBaseline("game-start.ser"));
+        assertEquals(PlayerColor.YELLOW, start.getAssignedColor());
+        assertEquals("alice", start.getOpponentUsername());
+        
+        GameState state = start.getInitialState();
+        assertSame(BoardGeometry.STANDARD, state.getGeometry());
+        assertSameGame(played(3, 3, 4, 2), state);
+        assertEquals(PlayerColor.RED, state.getCurrentTurn());
+    }
+    
+    @Test
+    void readsAFinishedGameFromAnOlderServer() throws Exception {
+        GameStateUpdateMessage update = assertInstanceOf(GameStateUpdateMessage.class, readBaseline("game-state-update.ser"));
+        GameState state = update.getGameState();
+        assertSameGame(played(0, 1, 0, 1, 0, 1, 0), state);
+        assertEquals(GameStatus.RED_WINS, state.getStatus());
+        assertFalse(state.makeMove(3));
+    }
+    
+    @Test
+    void standardBoardsAreWrittenWithoutTheGeometryClass() throws Exception {
+        // Older releases cannot load BoardGeometry, so it must not appear as an object
+        String className = BoardGeometry.class.getName();
+        assertFalse(contains(serialize(new LoginRequestMessage("alice")), className));
+        assertFalse(contains(serialize(new GameStateUpdateMessage(played(3, 3, 4, 2))), className));
+        
+        LoginRequestMessage login = (LoginRequestMessage) roundTrip(new LoginRequestMessage("alice"));
+        assertNull(login.getBoardGeometry());
+    }
+    
+    @Test
+    void everyPresetSurvivesSerialization() throws Exception {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            // Stones in the first and last column
+            GameState state = new GameState("red", "yellow", geometry);
+            assertTrue(state.makeMove(0));
+            assertTrue(state.makeMove(geometry.getColumns() - 1));
+            assertTrue(state.makeMove(0));
+            
+            GameState decoded = ((GameStateUpdateMessage) roundTrip(new GameStateUpdateMessage(state))).getGameState();
+            assertSame(geometry, decoded.getGeometry());
+            assertSameGame(state, decoded);
+            assertEquals("red", decoded.getPlayer1Username());
+            assertEquals("yellow", decoded.getPlayer2Username());
+            
+            LoginRequestMessage login = (LoginRequestMessage) roundTrip(new LoginRequestMessage("alice", geometry));
+            assertEquals(geometry == BoardGeometry.STANDARD ? null : geometry, login.getBoardGeometry());
+        }
+    }
+    
+    private static GameState played(int... columns) {
+        GameState state = new GameState("alice", "bob");
+        for (int column : columns) {
+            assertTrue(state.makeMove(column));
+        }
+        return state;
+    }
+    
+    private static void assertSameGame(GameState expected, GameState actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getStones(PlayerColor.RED), actual.getStones(PlayerColor.RED));
+        assertEquals(expected.getStones(PlayerColor.YELLOW), actual.getStones(PlayerColor.YELLOW));
+        assertEquals(expected.getMoveCount(), actual.getMoveCount());
+        assertEquals(expected.getZobristHash(), actual.getZobristHash());
+        assertEquals(expected.getSymmetricKey(), actual.getSymmetricKey());
+    }
+    
+    private static Object readBaseline(String name) throws IOException, ClassNotFoundException {
+        try (InputStream stream = SerializationCompatibilityTest.class.getResourceAsStream("baseline/" + name)) {
+            assertNotNull(stream, name);
+            return new ObjectInputStream(stream).readObject();
+        }
+    }
+    
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static Object roundTrip(Object object) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(serialize(object))).readObject();
+    }
+    
+    private static boolean contains(byte[] bytes, String text) {
+        return new String(bytes, StandardCharsets.ISO_8859_1).contains(text);
+    }
+} 
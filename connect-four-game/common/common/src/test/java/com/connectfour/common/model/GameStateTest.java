@@ -0,0 +1,277 @@
+package com.connectfour.common.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameStateTest {
+    // Move sequences in which RED completes the diagonal from the bottom left corner with
+    // its last move, by line length; mirrored they give the other diagonal
+    private static final Map<Integer, int[]> DIAGONALS = Map.of(
+            4, new int[] {0, 3, 0, 3, 1, 2, 1, 3, 3, 5, 3, 2, 2},
+            5, new int[] {4, 4, 0, 3, 8, 7, 0, 0, 3, 4, 3, 2, 3, 4, 4, 7, 2, 8, 2, 1, 6, 3, 1});
+    
+    // Move sequences that fill the board without a line, by preset
+    private static final Map<BoardGeometry, String> DRAWS = Map.of(
+            BoardGeometry.STANDARD, "416210144241363310466123606425533255020550",
+            BoardGeometry.LARGE, "41530123412330036742163775513016226427575572174656044006",
+            BoardGeometry.CONNECT_FIVE, "722712253368083423132318870101657785657086065460514444");
+    
+    @Test
+    void horizontalLineWins() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            // RED along the bottom row, YELLOW on top of it one stone short
+            List<Integer> moves = new ArrayList<>();
+            for (int column = 0; column < geometry.getConnect(); column++) {
+                moves.add(column);
+                moves.add(column);
+            }
+            moves.remove(moves.size() - 1);
+            GameState state = playToWin(geometry, moves);
+            for (int column = 0; column < geometry.getConnect(); column++) {
+                assertEquals(CellState.RED, state.getCellState(geometry.getRows() - 1, column));
+            }
+        }
+    }
+    
+    @Test
+    void verticalLineWins() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            List<Integer> moves = new ArrayList<>();
+            for (int i = 0; i < geometry.getConnect(); i++) {
+                moves.add(0);
+                moves.add(1);
+            }
+            moves.remove(moves.size() - 1);
+            GameState state = playToWin(geometry, moves);
+            for (int row = 0; row < geometry.getConnect(); row++) {
+                assertEquals(CellState.RED, state.getCellState(geometry.getRows() - 1 - row, 0));
+            }
+        }
+    }
+    
+    @Test
+    void risingDiagonalWins() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            List<Integer> moves = new ArrayList<>();
+            for (int column : DIAGONALS.get(geometry.getConnect())) {
+                moves.add(column);
+            }
+            GameState state = playToWin(geometry, moves);
+            for (int i = 0; i < geometry.getConnect(); i++) {
+                assertEquals(CellState.RED, state.getCellState(geometry.getRows() - 1 - i, i));
+            }
+        }
+    }
+    
+    @Test
+    void fallingDiagonalWins() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            int last = geometry.getColumns() - 1;
+            List<Integer> moves = new ArrayList<>();
+            for (int column : DIAGONALS.get(geometry.getConnect())) {
+                moves.add(last - column);
+            }
+            GameState state = playToWin(geometry, moves);
+            for (int i = 0; i < geometry.getConnect(); i++) {
+                assertEquals(CellState.RED, state.getCellState(geometry.getRows() - 1 - i, last - i));
+            }
+        }
+    }
+    
+    @Test
+    void yellowCanWinToo() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            GameState state = new GameState("red", "yellow", geometry);
+            assertTrue(state.makeMove(geometry.getColumns() - 1));
+            for (int i = 0; i < geometry.getConnect(); i++) {
+                assertEquals(GameStatus.IN_PROGRESS, state.getStatus());
+                assertTrue(state.makeMove(0));
+                if (i + 1 < geometry.getConnect()) {
+                    assertTrue(state.makeMove(1 + i % 2));
+                }
+            }
+            assertEquals(GameStatus.YELLOW_WINS, state.getStatus());
+        }
+    }
+    
+    @Test
+    void fullColumnIsRejected() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            GameState state = new GameState("red", "yellow", geometry);
+            for (int row = 0; row < geometry.getRows(); row++) {
+                assertTrue(state.canPlay(0));
+                assertEquals(geometry.getRows() - 1 - row, state.getDropRow(0)); // rows count from the top
+                assertTrue(state.makeMove(0));
+            }
+            assertFalse(state.canPlay(0));
+            assertEquals(-1, state.getDropRow(0));
+            
+            GameState before = state.copy();
+            assertFalse(state.makeMove(0));
+            assertFalse(state.makeMove(-1));
+            assertFalse(state.makeMove(geometry.getColumns()));
+            assertEquals(before, state);
+            assertEquals(before.getZobristHash(), state.getZobristHash());
+            assertEquals(geometry.getRows(), state.getMoveCount());
+        }
+    }
+    
+    @Test
+    void fullBoardWithoutALineIsADraw() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            String moves = DRAWS.get(geometry);
+            assertEquals(geometry.getCellCount(), moves.length());
+            GameState state = new GameState("red", "yellow", geometry);
+            for (int i = 0; i < moves.length(); i++) {
+                assertEquals(GameStatus.IN_PROGRESS, state.getStatus(), "before move " + i);
+                assertTrue(state.makeMove(moves.charAt(i) - '0'), "move " + i);
+            }
+            assertEquals(GameStatus.DRAW, state.getStatus());
+            for (int column = 0; column < geometry.getColumns(); column++) {
+                assertFalse(state.canPlay(column));
+            }
+        }
+    }
+    
+    @Test
+    void noMovesAfterTheGameIsOver() {
+        GameState state = playToWin(BoardGeometry.STANDARD, List.of(0, 1, 0, 1, 0, 1, 0));
+        GameState before = state.copy();
+        assertFalse(state.makeMove(3));
+        assertEquals(before, state);
+        assertThrows(IllegalStateException.class, () -> state.snapshot().play(3));
+    }
+    
+    @Test
+    void removingAStoneRestoresBoardAndHash() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            SplittableRandom random = new SplittableRandom(geometry.hashCode());
+            GameState state = new GameState("red", "yellow", geometry);
+            while (state.getStatus() == GameStatus.IN_PROGRESS) {
+                GameState before = state.copy();
+                int column = randomPlayableColumn(random, state);
+                int row = state.getDropRow(column);
+                assertTrue(state.makeMove(column));
+                if (state.getStatus() != GameStatus.IN_PROGRESS) {
+                    break;
+                }
+                
+                GameState undone = state.copy();
+                undone.setCellState(row, column, CellState.EMPTY);
+                undone.setCurrentTurn(before.getCurrentTurn());
+                assertEquals(before.getStones(PlayerColor.RED), undone.getStones(PlayerColor.RED));
+                assertEquals(before.getStones(PlayerColor.YELLOW), undone.getStones(PlayerColor.YELLOW));
+                assertEquals(before.getZobristHash(), undone.getZobristHash());
+                assertEquals(before.getSymmetricKey(), undone.getSymmetricKey());
+            }
+        }
+    }
+    
+    @Test
+    void positionUndoRestoresBoardAndHash() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            SplittableRandom random = new SplittableRandom(geometry.hashCode());
+            Position position = new Position(geometry);
+            List<long[]> history = new ArrayList<>();
+            while (!position.isFull()) {
+                history.add(fingerprint(position));
+                List<Integer> playable = new ArrayList<>();
+                for (int column = 0; column < geometry.getColumns(); column++) {
+                    if (position.canPlay(column)) {
+                        playable.add(column);
+                    }
+                }
+                position.play(playable.get(random.nextInt(playable.size())));
+            }
+            
+            Position copy = position.copy();
+            for (int i = history.size() - 1; i >= 0; i--) {
+                position.undo();
+                assertArrayEquals(history.get(i), fingerprint(position), "after undoing to move " + i);
+                assertEquals(i, position.getMoveCount());
+            }
+            assertThrows(IllegalStateException.class, position::undo);
+            
+            // The copy keeps the moves to undo
+            for (int i = history.size() - 1; i >= 0; i--) {
+                copy.undo();
+            }
+            assertEquals(0L, copy.getMask());
+            assertEquals(0L, copy.getHash());
+        }
+    }
+    
+    @Test
+    void everyRepresentationHashesAlikeToTheEnd() {
+        for (BoardGeometry geometry : BoardGeometry.presets()) {
+            // A game that ends in a win and one that fills the board
+            List<int[]> games = new ArrayList<>();
+            games.add(new int[] {0, 1, 0, 1, 0, 1, 0, 1, 0});
+            games.add(DRAWS.get(geometry).chars().map(c -> c - '0').toArray());
+            for (int[] moves : games) {
+                GameState state = new GameState("red", "yellow", geometry);
+                GameSnapshot snapshot = GameSnapshot.empty(geometry);
+                Position position = new Position(geometry);
+                for (int column : moves) {
+                    if (state.getStatus() != GameStatus.IN_PROGRESS) {
+                        break;
+                    }
+                    assertTrue(state.makeMove(column));
+                    snapshot = snapshot.play(column);
+                    position.play(column);
+                    
+                    String where = geometry + " after " + state.getMoveCount() + " moves, " + state.getStatus();
+                    assertEquals(state.getZobristHash(), snapshot.getZobristHash(), where);
+                    assertEquals(snapshot.getZobristHash(), new Position(snapshot).getHash(), where);
+                    assertEquals(snapshot.getZobristHash(), new Position(state).getHash(), where);
+                    assertEquals(snapshot.getZobristHash(), position.getHash(), where);
+                    assertEquals(snapshot.getSymmetricKey(), new Position(snapshot).getSymmetricKey(), where);
+                    assertEquals(snapshot.getSymmetricKey(), position.getSymmetricKey(), where);
+                    assertEquals(state.getZobristHash(), state.snapshot().getZobristHash(), where);
+                    
+                    // Rebuilt from the bitboards, as on the other end of a connection
+                    GameState received = GameState.fromBitboards("red", "yellow", geometry,
+                            state.getStones(PlayerColor.RED), state.getStones(PlayerColor.YELLOW),
+                            state.getCurrentTurn(), state.getStatus());
+                    assertEquals(state.getZobristHash(), received.getZobristHash(), where);
+                    assertEquals(state.getSymmetricKey(), received.getSymmetricKey(), where);
+                }
+                assertTrue(state.getStatus() != GameStatus.IN_PROGRESS, geometry.toString());
+            }
+        }
+    }
+    
+    // Plays a sequence in which only the last move ends the game, with a win for RED
+    private static GameState playToWin(BoardGeometry geometry, List<Integer> moves) {
+        GameState state = new GameState("red", "yellow", geometry);
+        for (int i = 0; i < moves.size(); i++) {
+            assertEquals(GameStatus.IN_PROGRESS, state.getStatus(), geometry + " before move " + i);
+            assertTrue(state.makeMove(moves.get(i)), geometry + " move " + i);
+        }
+        assertEquals(GameStatus.RED_WINS, state.getStatus(), geometry.toString());
+        return state;
+    }
+    
+    private static int randomPlayableColumn(SplittableRandom random, GameState state) {
+        int column;
+        do {
+            column = random.nextInt(state.getColumns());
+        } while (!state.canPlay(column));
+        return column;
+    }
+    
+    private static long[] fingerprint(Position position) {
+        return new long[] {position.getCurrentStones(), position.getMask(), position.getHash(),
+                position.getMirrorHash(), position.getSideToMove().ordinal(), position.getMoveCount()};
+    }
+} 
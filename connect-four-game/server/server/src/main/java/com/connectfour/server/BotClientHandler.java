@@ -0,0 +1,175 @@
+package com.connectfour.server;
+
+import com.connectfour.common.messages.DisconnectMessage;
+import com.connectfour.common.messages.GameStartMessage;
+import com.connectfour.common.messages.GameStateUpdateMessage;
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MoveAppliedMessage;
+import com.connectfour.common.messages.PlayAgainResponseMessage;
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.model.GameSnapshot;
+import com.connectfour.common.model.GameState;
+import com.connectfour.common.model.GameStatus;
+import com.connectfour.common.model.PlayerColor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// 
+// A computer opponent seated by the server in place of a second client.
+// 
+// The game session talks to it like to any other ClientHandler: the messages it would
+// write to a socket are read here instead, and the bot answers by calling the session
+// back. Moves are computed on the shared BotComputePool, one lane per bot, never on the
+// thread that delivered the message. The bot accepts every rematch and leaves for good
+// when its opponent leaves the game.
+public class BotClientHandler extends ClientHandler {
+    private static final Logger logger = LoggerFactory.getLogger(BotClientHandler.class);
+    
+    private final String username;
+    private final BoardGeometry boardGeometry;
+    private final BotComputePool pool;
+    private final BotComputePool.Lane lane;
+    
+    private volatile boolean active = true;
+    private volatile GameSession game;
+    private PlayerColor color;
+    private GameState state; // the bot's own copy, kept up to date from the moves
+    
+    // Number of stones on the board when the last move was queued, to ignore repeated updates
+    private int queuedMoveCount = -1;
+    
+    // 
+// Creates a bot for one game.
+// 
+// @param server The game server
+// @param username The name shown to the opponent
+// @param boardGeometry The board the bot plays on
+// @param pool The pool the bot thinks on
+    public BotClientHandler(GameServer server, String username, BoardGeometry boardGeometry, BotComputePool pool) {
+        super(null, server);
+        this.username = username;
+        this.boardGeometry = boardGeometry;
+        this.pool = pool;
+        this.lane = pool.newLane();
+    }
+    
+    @Override
+    public void run() {
+        // No connection to read from
+    }
+    
+    @Override
+    void send(OutboundMessage message) {
+        sendMessage(message.getMessage());
+    }
+    
+    @Override
+    public synchronized void sendMessage(Message message) {
+        if (!active) {
+            return;
+        }
+        if (message instanceof GameStartMessage) {
+            GameStartMessage start = (GameStartMessage) message;
+            color = start.getAssignedColor();
+            state = start.getInitialState().copy();
+            queuedMoveCount = -1;
+        } else if (message instanceof GameStateUpdateMessage) {
+            state = ((GameStateUpdateMessage) message).getGameState().copy();
+            handleGameState(state);
+        } else if (message instanceof MoveAppliedMessage) {
+            handleMove((MoveAppliedMessage) message);
+        } else if (message instanceof PlayAgainResponseMessage) {
+            PlayAgainResponseMessage response = (PlayAgainResponseMessage) message;
+            if (!response.bothWantToPlayAgain()) {
+                leave("opponent left the game");
+            }
+        } else if (message instanceof DisconnectMessage) {
+            leave(((DisconnectMessage) message).getReason());
+        }
+    }
+    
+    private void handleMove(MoveAppliedMessage move) {
+        if (state == null || !state.makeMove(move.getColumn()) || state.getZobristHash() != move.getChecksum()) {
+            // Never happens in process, but the session can always send the full state
+            logger.warn("Bot {} lost track of the game at move {}", username, move.getSequence());
+            state = null;
+            GameSession current = game;
+            if (current != null) {
+                lane.submit(() -> current.handleResyncRequest(this));
+            }
+            return;
+        }
+        handleGameState(state);
+    }
+    
+    private void handleGameState(GameState state) {
+        if (state.getStatus() != GameStatus.IN_PROGRESS) {
+            // Always up for another game
+            lane.submit(() -> {
+                GameSession current = game;
+                if (active && current != null) {
+                    current.handlePlayAgainRequest(this, true);
+                }
+            });
+            return;
+        }
+        if (state.getCurrentTurn() != color || state.getMoveCount() == queuedMoveCount) {
+            return;
+        }
+        queuedMoveCount = state.getMoveCount();
+        GameSnapshot snapshot = state.snapshot();
+        lane.submit(() -> {
+            GameSession current = game;
+            if (!active || current == null) {
+                return;
+            }
+            int column = pool.getPlayer().getBestMove(snapshot);
+            current.handleMove(this, column);
+        });
+    }
+    
+    private void leave(String reason) {
+        if (active) {
+            active = false;
+            game = null;
+            logger.info("Bot {} left its game: {}", username, reason);
+        }
+    }
+    
+    @Override
+    public void disconnect(String reason) {
+        leave(reason);
+    }
+    
+    @Override
+    public boolean acceptsMoveUpdates() {
+        return true;
+    }
+    
+    @Override
+    public boolean isConnected() {
+        return active;
+    }
+    
+    @Override
+    public String getUsername() {
+        return username;
+    }
+    
+    @Override
+    public BoardGeometry getBoardGeometry() {
+        return boardGeometry;
+    }
+    
+    @Override
+    public void setCurrentGame(GameSession gameSession) {
+        super.setCurrentGame(gameSession);
+        this.game = gameSession;
+    }
+    
+    @Override
+    public void clearCurrentGame() {
+        super.clearCurrentGame();
+        this.game = null;
+    }
+} 
@@ -0,0 +1,135 @@
+package com.connectfour.server;
+
+import com.connectfour.common.ai.AIPlayer;
+import com.connectfour.common.model.PlayerColor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 
+// Fixed set of threads that runs the thinking of every server bot.
+// 
+// Each bot game gets its own lane. A lane runs one task at a time, and lanes with work
+// take turns on the threads in the order they became ready, so a busy game cannot hold
+// back the others and the number of bot games never changes the number of threads.
+// Every thread keeps one single-threaded AI of its own, reused by whichever game it is
+// serving.
+public class BotComputePool {
+    private static final Logger logger = LoggerFactory.getLogger(BotComputePool.class);
+    
+    private final BlockingQueue<Lane> readyLanes = new LinkedBlockingQueue<>();
+    private final Thread[] threads;
+    private final String difficulty;
+    private final ThreadLocal<AIPlayer> players = new ThreadLocal<>();
+    private volatile boolean running = true;
+    
+    // 
+// Creates the pool and starts its threads.
+// 
+// @param threadCount The number of compute threads
+// @param difficulty The AI difficulty the bots play at, as accepted by AIPlayer
+    public BotComputePool(int threadCount, String difficulty) {
+        this.difficulty = difficulty;
+        this.threads = new Thread[threadCount];
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(this::work, "bot-compute-" + count.incrementAndGet());
+            threads[i].setDaemon(true);
+            threads[i].setPriority(Thread.NORM_PRIORITY - 1); // below the client connection threads
+            threads[i].start();
+        }
+        logger.info("Bot compute pool started with {} threads at {} difficulty", threadCount, difficulty);
+    }
+    
+    // 
+// Creates a lane for one game. Tasks submitted to the same lane run one after the
+// other, in order.
+// 
+// @return The new lane
+    public Lane newLane() {
+        return new Lane();
+    }
+    
+    // 
+// Gets the AI of the calling compute thread.
+// 
+// @return The AI player, to be used only on this thread
+    AIPlayer getPlayer() {
+        return players.get();
+    }
+    
+    // 
+// Stops the compute threads. Tasks that have not started are dropped.
+    public void shutdown() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+    
+    private void work() {
+        AIPlayer player = new AIPlayer(difficulty, PlayerColor.YELLOW, 1);
+        players.set(player);
+        try {
+            while (running) {
+                Lane lane = readyLanes.take();
+                Runnable task = lane.next();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error in bot task", e);
+                }
+                lane.finished();
+            }
+        } catch (InterruptedException e) {
+            // Shutting down
+        } finally {
+            player.shutdown();
+        }
+    }
+    
+    // 
+// The queue of tasks of one game.
+    public final class Lane {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+        
+        private Lane() {
+        }
+        
+        // 
+// Queues a task behind the lane's earlier tasks.
+// 
+// @param task The task to run on a compute thread
+        public void submit(Runnable task) {
+            synchronized (this) {
+                tasks.add(task);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            readyLanes.add(this);
+        }
+        
+        private synchronized Runnable next() {
+            return tasks.poll();
+        }
+        
+        // Goes to the back of the ready queue if more work arrived while a task was running
+        private void finished() {
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            readyLanes.add(this);
+        }
+    }
+} 
@@ -1,38 +1,65 @@
 package com.connectfour.server;
 
 import com.connectfour.common.messages.*;
+import com.connectfour.common.model.BoardGeometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.connectfour.common.messages.MessageType.*;
 
 // 
 // Handles communication with a single client.
+// 
+// Messages to the client are queued rather than written by the thread sending them, so
+// a game never waits on a slow socket. A writer task on the server's client threads
+// drains the queue and flushes once for everything it wrote. A client that lets too many
+// messages pile up is dropped, see OutboundQueue.
 public class ClientHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
     
     private final Socket socket;
+    private final InputStream input;
     private final GameServer server;
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
+    private volatile MessageChannel channel;
+    
+    private final OutboundQueue<OutboundMessage> outbound;
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(); // also held for good once the channel is closed
+    private volatile boolean closeRequested;
+    private volatile boolean dropped; // too slow, closing
     
     private String username;
-    private boolean connected;
+    private BoardGeometry boardGeometry = BoardGeometry.STANDARD;
+    private final AtomicBoolean connected = new AtomicBoolean(true);
     private boolean authenticated;
-    private GameSession currentGame;
-    private boolean inMatchmaking;
+    // Set by the matchmaking thread and cleared by whichever thread sees the disconnect,
+    // so handlers read them once into a local
+    private volatile GameSession currentGame;
+    private volatile boolean inMatchmaking;
     
     public ClientHandler(Socket socket, GameServer server) {
+        this(socket, null, server);
+    }
+    
+    // 
+// Creates a handler for a connection whose first bytes were already read by the server.
+// 
+// @param socket The client's socket
+// @param input The client's bytes from the first one on, or null to read the socket
+// @param server The game server
+    public ClientHandler(Socket socket, InputStream input, GameServer server) {
         this.socket = socket;
+        this.input = input;
         this.server = server;
-        this.connected = true;
+        this.outbound = new OutboundQueue<>(server.getOutboundLimit());
         this.authenticated = false;
         this.inMatchmaking = false;
     }
@@ -40,32 +67,26 @@ public class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            // Set up input and output streams
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            outputStream.flush();
-            inputStream = new ObjectInputStream(socket.getInputStream());
+            // Settle the protocol with the client: binary, or Java serialization for clients from before it
+            channel = (input != null) ? MessageChannel.accept(socket, input) : MessageChannel.accept(socket);
+            logger.debug("Client {} uses the {} protocol", socket.getInetAddress().getHostAddress(),
+                    channel.isBinary() ? "binary" : "serialization");
             
             // Handle incoming messages
-            while (connected) {
+            while (connected.get()) {
                 try {
-                    Object obj = inputStream.readObject();
-                    
-                    if (obj instanceof Message) {
-                        handleMessage((Message) obj);
-                    } else {
-                        logger.warn("Received unknown object from client: {}", obj.getClass().getName());
-                    }
+                    handleMessage(channel.read());
                 } catch (ClassNotFoundException e) {
                     logger.error("Error reading message from client", e);
                 } catch (SocketException e) {
-                    connected = false;
-                    handleDisconnect();
+                    connectionClosed();
                 }
             }
         } catch (IOException e) {
-            logger.error("Error in client handler", e);
-            connected = false;
-            handleDisconnect();
+            if (connected.get()) {
+                logger.error("Error in client handler", e);
+            }
+            connectionClosed();
         } finally {
             cleanup();
         }
@@ -75,7 +96,7 @@ public class ClientHandler implements Runnable {
 // Handles a message from the client.
 // 
 // @param message The message to handle
-    private void handleMessage(Message message) {
+    void handleMessage(Message message) {
         if (!authenticated && !(message instanceof LoginRequestMessage)) {
             // Client must authenticate first
             sendMessage(new DisconnectMessage("You must login first"));
@@ -105,6 +126,9 @@ public class ClientHandler implements Runnable {
         else if (type == MessageType.RETURN_TO_LOBBY) {
             handleReturnToLobby();
         }
+        else if (type == MessageType.RESYNC_REQUEST) {
+            handleResyncRequest();
+        }
         else if (type == MessageType.GAME_START) {
             // Just ignoring this message type
             logger.warn("Received GAME_START message from client, which shouldn't happen");
@@ -117,6 +141,10 @@ public class ClientHandler implements Runnable {
             // Just ignoring this message type
             logger.warn("Received GAME_STATE_UPDATE message from client, which shouldn't happen");
         }
+        else if (type == MessageType.MOVE_APPLIED) {
+            // Just ignoring this message type
+            logger.warn("Received MOVE_APPLIED message from client, which shouldn't happen");
+        }
         else if (type == MessageType.PLAY_AGAIN_RESPONSE) {
             // Handle as new game response
             handleNewGameResponse(message);
@@ -144,9 +172,12 @@ public class ClientHandler implements Runnable {
         
         if (success) {
             this.username = requestedUsername;
+            if (message.getBoardGeometry() != null) {
+                this.boardGeometry = message.getBoardGeometry();
+            }
             this.authenticated = true;
             sendMessage(new LoginResponseMessage(true, null));
-            logger.info("User logged in: {}", username);
+            logger.info("User logged in: {} ({})", username, boardGeometry);
             
             // Add the client to matchmaking queue
             inMatchmaking = true;
@@ -162,8 +193,9 @@ public class ClientHandler implements Runnable {
 // 
 // @param message The move message
     private void handleMove(MoveMessage message) {
-        if (currentGame != null) {
-            currentGame.handleMove(this, message.getColumn());
+        GameSession game = currentGame;
+        if (game != null) {
+            game.handleMove(this, message.getColumn());
         } else {
             logger.warn("Received move message from {} but not in a game", username);
         }
@@ -174,8 +206,9 @@ public class ClientHandler implements Runnable {
 // 
 // @param message The chat message
     private void handleChatMessage(ChatMessage message) {
-        if (currentGame != null) {
-            currentGame.broadcastChat(message);
+        GameSession game = currentGame;
+        if (game != null) {
+            game.broadcastChat(message);
         } else {
             logger.warn("Received chat message from {} but not in a game", username);
         }
@@ -186,8 +219,9 @@ public class ClientHandler implements Runnable {
 // 
 // @param message The play again request message
     private void handlePlayAgainRequest(PlayAgainRequestMessage message) {
-        if (currentGame != null) {
-            currentGame.handlePlayAgainRequest(this, message.wantsToPlayAgain());
+        GameSession game = currentGame;
+        if (game != null) {
+            game.handlePlayAgainRequest(this, message.wantsToPlayAgain());
         } else {
             logger.warn("Received play again request from {} but not in a game", username);
             
@@ -203,8 +237,9 @@ public class ClientHandler implements Runnable {
     // 
 // Handles a new game request.
     private void handleNewGameRequest() {
-        if (currentGame != null) {
-            currentGame.handleNewGameRequest(this);
+        GameSession game = currentGame;
+        if (game != null) {
+            game.handleNewGameRequest(this);
         } else {
             logger.warn("Received new game request from {} but not in a game", username);
             
@@ -223,8 +258,9 @@ public class ClientHandler implements Runnable {
         // Since we don't have the NewGameResponseMessage class, we'll extract it manually
         boolean accepted = true; // Default to true, should be extracted from the message
         
-        if (currentGame != null) {
-            currentGame.handleNewGameResponse(this, accepted);
+        GameSession game = currentGame;
+        if (game != null) {
+            game.handleNewGameResponse(this, accepted);
         } else {
             logger.warn("Received new game response from {} but not in a game", username);
         }
@@ -233,8 +269,9 @@ public class ClientHandler implements Runnable {
     // 
 // Handles a return to lobby request.
     private void handleReturnToLobby() {
-        if (currentGame != null) {
-            currentGame.handleReturnToLobbyRequest(this);
+        GameSession game = currentGame;
+        if (game != null) {
+            game.handleReturnToLobbyRequest(this);
             currentGame = null;
         } else {
             logger.warn("Received return to lobby request from {} but not in a game", username);
@@ -246,6 +283,17 @@ public class ClientHandler implements Runnable {
         logger.info("Player {} returned to lobby and added to matchmaking queue", username);
     }
     
+    // 
+// Handles a request for the full game state after the client lost track of the moves.
+    private void handleResyncRequest() {
+        GameSession game = currentGame;
+        if (game != null) {
+            game.handleResyncRequest(this);
+        } else {
+            logger.warn("Received resync request from {} but not in a game", username);
+        }
+    }
+    
     // 
 // Handles a disconnect message.
 // 
@@ -255,10 +303,21 @@ public class ClientHandler implements Runnable {
         disconnect(message.getReason());
     }
     
+    // 
+// Called when the connection has ended, whatever the reason. Handlers that do their
+// own I/O call this instead of running the blocking read loop.
+    void connectionClosed() {
+        // Reader and writer may both get here; only the first handles the disconnect
+        if (connected.compareAndSet(true, false)) {
+            handleDisconnect();
+        }
+    }
+    
     // 
 // Handles a client disconnect.
     private void handleDisconnect() {
         logger.info("Client disconnected: {}", username);
+        server.removeClient(this);
         
         if (username != null) {
             // Unregister the username
@@ -266,27 +325,37 @@ public class ClientHandler implements Runnable {
             
             // Remove from matchmaking if necessary
             if (inMatchmaking) {
-                server.removeFromMatchmaking(this);
                 inMatchmaking = false;
+                server.removeFromMatchmaking(this);
             }
             
             // Notify the current game if there is one
-            if (currentGame != null) {
-                currentGame.handlePlayerDisconnect(this);
+            GameSession game = currentGame;
+            if (game != null) {
                 currentGame = null;
+                game.handlePlayerDisconnect(this);
             }
         }
     }
     
     // 
-// Cleans up resources.
+// Cleans up resources. If the writer is still sending the last messages, it closes
+// the connection when it is done.
     private void cleanup() {
+        closeRequested = true;
+        if (writerScheduled.compareAndSet(false, true)) {
+            closeChannel();
+        }
+    }
+    
+    private void closeChannel() {
+        if (channel != null && !channel.isBinary()) {
+            logger.debug("Closing serialization stream of {} after {} resets", username, channel.getResetCount());
+        }
         try {
-            if (inputStream != null) {
-                inputStream.close();
-            }
-            if (outputStream != null) {
-                outputStream.close();
+            // Once the socket is closed there is nothing left to flush
+            if (channel != null && socket != null && !socket.isClosed()) {
+                channel.close();
             }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -297,32 +366,120 @@ public class ClientHandler implements Runnable {
     }
     
     // 
-// Sends a message to the client.
+// Sends a message to the client. The message is queued and written by the client's
+// writer, so this does not block.
 // 
 // @param message The message to send
-    public synchronized void sendMessage(Message message) {
-        if (connected && outputStream != null) {
+    public void sendMessage(Message message) {
+        send(new OutboundMessage(message));
+    }
+    
+    // 
+// Sends a message that may go to other clients too. sendMessage comes here, so
+// handlers that do their own I/O override this.
+// 
+// @param message The message to send, encoded at most once for all its clients
+    void send(OutboundMessage message) {
+        if (!connected.get() || dropped || channel == null) {
+            return;
+        }
+        switch (outbound.offer(message, message.isChat())) {
+            case FULL:
+                dropSlowClient();
+                return;
+            case DISCARDED:
+                logger.debug("Discarded chat to {}, who is behind", username);
+                return;
+            default:
+                break;
+        }
+        if (writerScheduled.compareAndSet(false, true)) {
             try {
-                outputStream.writeObject(message);
-                outputStream.flush();
-                logger.debug("Sent message to {}: {}", username, message.getType());
-            } catch (IOException e) {
-                logger.error("Error sending message to client: {}", username, e);
-                connected = false;
-                handleDisconnect();
+                server.executeClientTask(this::writeQueued);
+            } catch (RejectedExecutionException e) {
+                // The server is shutting down
+                writerScheduled.set(false);
+                outbound.clear();
             }
         }
     }
     
+    // 
+// Writes the queued messages until the queue is empty, flushing once per batch.
+    private void writeQueued() {
+        List<OutboundMessage> batch = new ArrayList<>();
+        while (true) {
+            if (outbound.drainTo(batch) > 0) {
+                try {
+                    boolean binary = channel.isBinary();
+                    for (OutboundMessage message : batch) {
+                        if (binary) {
+                            channel.writeFrame(message.frame());
+                        } else {
+                            channel.writeUnflushed(message.getMessage());
+                        }
+                        logger.debug("Sent message to {}: {}", username, message.getMessage().getType());
+                    }
+                    channel.flush();
+                } catch (IOException e) {
+                    if (connected.get()) {
+                        logger.error("Error sending message to client: {}", username, e);
+                    }
+                    outbound.clear();
+                    connectionClosed();
+                    closeSocket();
+                    return;
+                }
+                outbound.written(batch.size());
+                batch.clear();
+                continue;
+            }
+            writerScheduled.set(false);
+            
+            // A message queued just before the flag was cleared found it still set
+            if (!outbound.isEmpty() && writerScheduled.compareAndSet(false, true)) {
+                continue;
+            }
+            if (closeRequested && writerScheduled.compareAndSet(false, true)) {
+                closeChannel();
+            }
+            return;
+        }
+    }
+    
+    // 
+// Drops a client that does not read its messages as fast as they come. The reader sees
+// the closed socket and handles the disconnect, so the sender carries on undisturbed.
+    private void dropSlowClient() {
+        if (!dropped) {
+            dropped = true;
+            logger.warn("Dropping {}: {} messages waiting to be sent", username, outbound.size());
+            outbound.clear();
+            closeSocket();
+        }
+    }
+    
+    // 
+// Closes the socket without flushing what is buffered for a client that is not reading
+// it. This also wakes the reader and a writer stuck on the socket.
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.error("Error closing connection to {}", username, e);
+        }
+    }
+
     // 
 // Disconnects the client with a reason.
 // 
 // @param reason The reason for disconnection
     public void disconnect(String reason) {
-        if (connected) {
+        if (connected.get()) {
             sendMessage(new DisconnectMessage(reason));
-            connected = false;
-            handleDisconnect();
+            if (connected.compareAndSet(true, false)) {
+                handleDisconnect();
+            }
         }
     }
     
@@ -331,7 +488,7 @@ public class ClientHandler implements Runnable {
 // 
 // @return true if the client is connected, false otherwise
     public boolean isConnected() {
-        return connected;
+        return connected.get();
     }
     
     // 
@@ -342,6 +499,34 @@ public class ClientHandler implements Runnable {
         return username;
     }
     
+    // 
+// Gets the board the client asked to play on at login.
+// 
+// @return The requested board geometry
+    public BoardGeometry getBoardGeometry() {
+        return boardGeometry;
+    }
+    
+    // 
+// Gets what the connection's Java serialization stream keeps alive since its last
+// reset, see MessageChannel.getRetainedBytes.
+// 
+// @return The bytes, 0 for clients on the binary protocol
+    public long getRetainedSerializationBytes() {
+        MessageChannel current = channel;
+        return (current != null) ? current.getRetainedBytes() : 0;
+    }
+    
+    // 
+// Checks whether the client follows the game from MoveAppliedMessage alone. Clients on
+// the binary protocol do; older clients on Java serialization get the full game state
+// after every move.
+// 
+// @return true if moves can be sent without the full game state
+    public boolean acceptsMoveUpdates() {
+        return channel != null && channel.isBinary();
+    }
+    
     // 
 // Sets the current game session for this client.
 // 
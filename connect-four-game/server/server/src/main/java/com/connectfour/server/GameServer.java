@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,8 +15,14 @@ import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.connectfour.common.messages.Message;
+import com.connectfour.common.model.BoardGeometry;
+import com.connectfour.common.trace.RingBufferTraceSink;
+import com.connectfour.common.trace.Trace;
+import com.connectfour.common.trace.TraceLevel;
 
 // 
 // The main server class that handles client connections and manages game sessions.
@@ -23,14 +30,46 @@ public class GameServer {
     private static final Logger logger = LoggerFactory.getLogger(GameServer.class);
     private static GameServer instance;
     
+    // Model tracing is off unless one of these sinks is selected with -Dconnectfour.trace
+    private static final String TRACE_PROPERTY = "connectfour.trace";
+    private static final String TRACE_LEVEL_PROPERTY = "connectfour.trace.level";
+    private static final int TRACE_RING_CAPACITY = 4096;
+    
+    // The in-memory sink when "ring" is selected, logged when the server exits
+    private static volatile RingBufferTraceSink traceRing;
+    
+    // Bot opponents: how long a player waits before getting one (negative turns bots off,
+    // the default, so that a server only seats bots when asked to), how many threads all
+    // bots share and how well they play
+    private static final String BOT_WAIT_PROPERTY = "connectfour.bot.waitSeconds";
+    private static final String BOT_THREADS_PROPERTY = "connectfour.bot.threads";
+    private static final String BOT_DIFFICULTY_PROPERTY = "connectfour.bot.difficulty";
+    private static final int DEFAULT_BOT_WAIT_SECONDS = -1;
+    
+    // Network core: "nio", the default, serves all connections from a few event loops,
+    // "blocking" gives every connection a platform thread of its own and "virtual" gives
+    // each a virtual thread (Java 21 or later, otherwise the same as "blocking")
+    private static final String IO_MODE_PROPERTY = "connectfour.server.io";
+    private static final String EVENT_LOOPS_PROPERTY = "connectfour.server.eventLoops";
+    
+    // Messages that may wait to be written to one client before it is dropped as too slow
+    private static final String OUTBOUND_LIMIT_PROPERTY = "connectfour.server.outboundLimit";
+    private static final int DEFAULT_OUTBOUND_LIMIT = 256;
+    
     private final int port;
     private ServerSocket serverSocket;
-    private boolean running;
-    private final List<ClientHandler> connectedClients;
+    private NioServer nioServer;
+    private volatile boolean running;
+    private final Set<ClientHandler> connectedClients;
     private final MatchmakingQueue matchmakingQueue;
     private final List<GameSession> activeSessions;
+    private final String ioMode;
     private final ExecutorService executorService;
     private final Map<String, ClientHandler> usernameMap = new ConcurrentHashMap<>();
+    private final long botWaitMillis;
+    private final int outboundLimit;
+    private final AtomicInteger botCount = new AtomicInteger();
+    private BotComputePool botPool; // started with the first bot game
     
     // 
 // Creates a new game server on the specified port.
@@ -38,19 +77,98 @@ public class GameServer {
 // @param port The port number to listen on
     public GameServer(int port) {
         this.port = port;
-        this.connectedClients = Collections.synchronizedList(new ArrayList<>());
+        this.connectedClients = ConcurrentHashMap.newKeySet();
         this.activeSessions = Collections.synchronizedList(new ArrayList<>());
-        this.executorService = Executors.newCachedThreadPool();
+        this.ioMode = chooseIoMode();
+        ExecutorService virtualThreads = "virtual".equals(ioMode) ? VirtualThreads.newThreadPerTaskExecutor("client-") : null;
+        this.executorService = (virtualThreads != null) ? virtualThreads : Executors.newCachedThreadPool();
         this.matchmakingQueue = new MatchmakingQueue(this);
+        this.botWaitMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger(BOT_WAIT_PROPERTY, DEFAULT_BOT_WAIT_SECONDS));
+        this.outboundLimit = Math.max(2, Integer.getInteger(OUTBOUND_LIMIT_PROPERTY, DEFAULT_OUTBOUND_LIMIT));
         
-        // Start the matchmaking queue
-        Thread matchmakingThread = new Thread(matchmakingQueue);
+        configureTracing();
+        
+        // Start the matchmaking queue, on a virtual thread too in virtual mode
+        ThreadFactory virtualFactory = "virtual".equals(ioMode) ? VirtualThreads.newFactory("matchmaking-") : null;
+        Thread matchmakingThread = (virtualFactory != null) ? virtualFactory.newThread(matchmakingQueue) : new Thread(matchmakingQueue);
         matchmakingThread.setDaemon(true);
         matchmakingThread.start();
         
         instance = this;
     }
     
+    // 
+// Reads the network core to use from the system properties.
+// 
+// @return "blocking", "nio" or "virtual"
+    private static String chooseIoMode() {
+        String mode = System.getProperty(IO_MODE_PROPERTY, "nio").trim().toLowerCase(Locale.ROOT);
+        switch (mode) {
+            case "nio":
+            case "blocking":
+                return mode;
+            case "virtual":
+                if (VirtualThreads.newFactory("probe-") == null) {
+                    logger.warn("Virtual threads need Java 21 or later. Using platform threads");
+                    return "blocking";
+                }
+                return mode;
+            default:
+                logger.warn("Unknown server I/O mode: {}. Using nio", mode);
+                return "nio";
+        }
+    }
+    
+    // 
+// Installs the model trace sink selected by system properties, if any.
+// Supported values for connectfour.trace are "slf4j", which logs every line as it is
+// traced, and "ring", which keeps the latest lines in memory and logs them when the
+// server exits.
+    private static void configureTracing() {
+        String sinkName = System.getProperty(TRACE_PROPERTY);
+        if (sinkName == null || sinkName.isEmpty()) {
+            return;
+        }
+        
+        TraceLevel level = TraceLevel.DEBUG;
+        String levelName = System.getProperty(TRACE_LEVEL_PROPERTY);
+        if (levelName != null) {
+            try {
+                level = TraceLevel.valueOf(levelName.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid trace level: {}. Using {}", levelName, level);
+            }
+        }
+        
+        if ("slf4j".equalsIgnoreCase(sinkName)) {
+            Trace.install(new Slf4jTraceSink(), level);
+        } else if ("ring".equalsIgnoreCase(sinkName)) {
+            traceRing = new RingBufferTraceSink(TRACE_RING_CAPACITY);
+            Trace.install(traceRing, level);
+            // A hook, so that the lines are also logged when the server is killed
+            Runtime.getRuntime().addShutdownHook(new Thread(GameServer::dumpTrace, "trace-dump"));
+        } else {
+            logger.warn("Unknown trace sink: {}. Tracing stays disabled", sinkName);
+            return;
+        }
+        logger.info("Model tracing enabled: sink={}, level={}", sinkName, level);
+    }
+    
+    // 
+// Logs the lines kept by the "ring" trace sink, oldest first. Does nothing when another
+// sink or none is installed.
+    static void dumpTrace() {
+        RingBufferTraceSink ring = traceRing;
+        if (ring == null) {
+            return;
+        }
+        List<String> lines = ring.snapshot();
+        logger.info("Last {} of {} model trace lines:", lines.size(), ring.getWrittenCount());
+        for (String line : lines) {
+            logger.info("  {}", line);
+        }
+    }
+    
     // 
 // Returns the singleton instance of the game server.
 // 
@@ -60,34 +178,15 @@ public class GameServer {
     }
     
     // 
-// Starts the game server.
+// Starts the game server and serves clients until it is stopped.
     public void start() {
         running = true;
         
         try {
-            serverSocket = new ServerSocket(port);
-            logger.info("Server started on port {}", port);
-            
-            // Accept client connections
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    logger.info("New client connected: {}", clientSocket.getInetAddress().getHostAddress());
-                    
-                    // Create a new client handler for the connection
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                    connectedClients.add(clientHandler);
-                    
-                    // Notify of new client connection
-                    clientConnected(clientHandler);
-                    
-                    // Start a new thread for the client handler
-                    executorService.submit(clientHandler);
-                } catch (IOException e) {
-                    if (running) {
-                        logger.error("Error accepting client connection", e);
-                    }
-                }
+            if ("nio".equals(ioMode)) {
+                runNio();
+            } else {
+                runBlocking();
             }
         } catch (IOException e) {
             logger.error("Error starting server on port {}", port, e);
@@ -96,6 +195,71 @@ public class GameServer {
         }
     }
     
+    private void runNio() throws IOException {
+        int eventLoops = Math.max(1, Integer.getInteger(EVENT_LOOPS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        synchronized (this) {
+            nioServer = new NioServer(this, port, eventLoops, executorService);
+        }
+        logger.info("Server started on port {} with {} event loops", port, eventLoops);
+        if (running) {
+            nioServer.run();
+        }
+    }
+    
+    private void runBlocking() throws IOException {
+        serverSocket = new ServerSocket(port);
+        logger.info("Server started on port {} with a {} thread per client", port,
+                "virtual".equals(ioMode) ? "virtual" : "platform");
+        
+        // Accept client connections
+        while (running) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                logger.info("New client connected: {}", clientSocket.getInetAddress().getHostAddress());
+                
+                // Create a new client handler for the connection
+                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+                clientAccepted(clientHandler);
+                
+                // Start a new thread for the client handler
+                executorService.submit(clientHandler);
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Error accepting client connection", e);
+                }
+            }
+        }
+    }
+    
+    // 
+// Registers the handler of a new connection.
+// 
+// @param clientHandler The handler
+    void clientAccepted(ClientHandler clientHandler) {
+        connectedClients.add(clientHandler);
+        
+        // Notify of new client connection
+        clientConnected(clientHandler);
+    }
+    
+    // 
+// Runs a task on the threads that serve blocking connections, such as a client's writer.
+// 
+// @param task The task
+// @throws RejectedExecutionException if the server has shut down
+    void executeClientTask(Runnable task) {
+        executorService.execute(task);
+    }
+    
+    // 
+// Gets how many messages may wait to be written to one client. A client that lets more
+// pile up is dropped, and chat to it is discarded from half that on.
+// 
+// @return The limit in messages
+    int getOutboundLimit() {
+        return outboundLimit;
+    }
+    
     // 
 // Stops the game server.
     public void stop() {
@@ -108,6 +272,11 @@ public class GameServer {
         } catch (IOException e) {
             logger.error("Error closing server socket", e);
         }
+        synchronized (this) {
+            if (nioServer != null) {
+                nioServer.close();
+            }
+        }
     }
     
     // 
@@ -119,6 +288,17 @@ public class GameServer {
                 client.disconnect("Server shutting down");
             }
             
+            NioServer nio;
+            synchronized (this) {
+                if (botPool != null) {
+                    botPool.shutdown();
+                }
+                nio = nioServer;
+            }
+            if (nio != null) {
+                nio.shutdown();
+            }
+            
             // Shutdown the executor service
             executorService.shutdown();
             if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -139,11 +319,7 @@ public class GameServer {
 // @param client The client to register the username for
 // @return true if the username was successfully registered, false otherwise
     public boolean registerUsername(String username, ClientHandler client) {
-        if (usernameMap.containsKey(username)) {
-            return false;
-        }
-        usernameMap.put(username, client);
-        return true;
+        return usernameMap.putIfAbsent(username, client) == null;
     }
     
     // 
@@ -167,10 +343,11 @@ public class GameServer {
 // 
 // @param client The client to remove
     public void removeClient(ClientHandler client) {
-        connectedClients.remove(client);
-        matchmakingQueue.removeFromQueue(client);
-        logger.info("Client removed: {}", client.getUsername());
-        clientDisconnected(client);
+        if (connectedClients.remove(client)) {
+            matchmakingQueue.removeFromQueue(client);
+            logger.info("Client removed: {}", client.getUsername());
+            clientDisconnected(client);
+        }
     }
     
     // 
@@ -199,6 +376,35 @@ public class GameServer {
         matchmakingQueue.addToQueue(client);
     }
     
+    // 
+// Gets how long a player waits in matchmaking before a bot is seated against them.
+// 
+// @return The wait in milliseconds, or a negative value if bots are turned off
+    public long getBotWaitMillis() {
+        return botWaitMillis;
+    }
+    
+    // 
+// Starts a game between a waiting player and a new bot opponent. The player moves first.
+// 
+// @param player The player to give a bot opponent
+    public void startBotGame(ClientHandler player) {
+        BoardGeometry geometry = player.getBoardGeometry();
+        BotClientHandler bot = new BotClientHandler(this, "Bot-" + botCount.incrementAndGet(), geometry, getBotPool());
+        GameSession gameSession = new GameSession(player, bot, this);
+        gameSession.start();
+        logger.info("Started bot game: {} vs {} on {}", player.getUsername(), bot.getUsername(), geometry);
+    }
+    
+    private synchronized BotComputePool getBotPool() {
+        if (botPool == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            int threads = Math.max(1, Integer.getInteger(BOT_THREADS_PROPERTY, processors - 1));
+            botPool = new BotComputePool(threads, System.getProperty(BOT_DIFFICULTY_PROPERTY, "Hard"));
+        }
+        return botPool;
+    }
+    
     // 
 // Ends a game session.
 // 
@@ -213,8 +419,10 @@ public class GameServer {
 // 
 // @param message The message to broadcast
     public void broadcastMessage(Message message) {
+        // Encoded once for every client on the binary protocol
+        OutboundMessage shared = new OutboundMessage(message);
         for (ClientHandler client : connectedClients) {
-            client.sendMessage(message);
+            client.send(shared);
         }
     }
     
@@ -1,6 +1,7 @@
 package com.connectfour.server;
 
 import com.connectfour.common.messages.*;
+import com.connectfour.common.model.BoardGeometry;
 import com.connectfour.common.model.GameState;
 import com.connectfour.common.model.PlayerColor;
 import com.connectfour.common.model.CellState;
@@ -8,6 +9,8 @@ import com.connectfour.common.model.GameStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 // 
 // Represents a game session between two players.
 public class GameSession {
@@ -16,10 +19,13 @@ public class GameSession {
     private final ClientHandler player1;
     private final ClientHandler player2;
     private final GameServer server;
+    private final BoardGeometry geometry;
+    
+    // Guards the game; a lock rather than a monitor because moves are sent to the players
+    // while it is held, and a virtual thread blocked on a socket under a monitor pins its carrier
+    private final ReentrantLock lock = new ReentrantLock();
     
-    private final char[][] board;
-    private int currentPlayer;
-    private boolean gameOver;
+    private GameState gameState;
     private boolean player1WantsPlayAgain;
     private boolean player2WantsPlayAgain;
     private boolean player1WantsNewGame;
@@ -35,18 +41,10 @@ public class GameSession {
         this.player1 = player1;
         this.player2 = player2;
         this.server = server;
+        this.geometry = player1.getBoardGeometry(); // matchmaking only pairs players asking for the same board
         
-        // Initialize the game board
-        this.board = new char[6][7];
-        for (int row = 0; row < 6; row++) {
-            for (int col = 0; col < 7; col++) {
-                board[row][col] = ' ';
-            }
-        }
-        
-        // Player 1 goes first
-        this.currentPlayer = 1;
-        this.gameOver = false;
+        // Initialize the game board, player 1 (RED) goes first
+        this.gameState = new GameState(player1.getUsername(), player2.getUsername(), geometry);
         this.player1WantsPlayAgain = false;
         this.player2WantsPlayAgain = false;
         this.player1WantsNewGame = false;
@@ -57,7 +55,7 @@ public class GameSession {
         player2.setCurrentGame(this);
         
         // Create initial game state
-        GameState initialState = new GameState(player1.getUsername(), player2.getUsername());
+        GameState initialState = new GameState(player1.getUsername(), player2.getUsername(), geometry);
         
         // Send game start messages to both players
         player1.sendMessage(new GameStartMessage(initialState, PlayerColor.RED, player2.getUsername()));
@@ -79,7 +77,7 @@ public class GameSession {
         player2.setCurrentGame(this);
         
         // Create initial game state
-        GameState initialState = new GameState(player1.getUsername(), player2.getUsername());
+        GameState initialState = new GameState(player1.getUsername(), player2.getUsername(), geometry);
         
         // Send game start messages to both players
         player1.sendMessage(new GameStartMessage(initialState, PlayerColor.RED, player2.getUsername()));
@@ -91,49 +89,85 @@ public class GameSession {
 // 
 // @param player The player making the move
 // @param column The column where the player made the move
-    public synchronized void handleMove(ClientHandler player, int column) {
-        // Check if it's the player's turn
-        boolean isPlayer1Turn = currentPlayer == 1;
-        boolean isPlayersTurn = (isPlayer1Turn && player == player1) || (!isPlayer1Turn && player == player2);
-        
-        logger.info("Move attempted by {} in column {}. Current turn: {}, Player1(RED): {}, Player2(YELLOW): {}, isPlayersTurn: {}",
-                player.getUsername(), column, currentPlayer, 
-                player1.getUsername(), player2.getUsername(), isPlayersTurn);
-        
-        if (!isPlayersTurn) {
-            logger.warn("Player {} attempted to make a move out of turn", player.getUsername());
-            return;
-        }
-        
-        // Make the move
-        boolean moveSuccess = makeMove(column);
-        
-        if (moveSuccess) {
-            logger.info("Player {} made successful move in column {}. New turn: {}", 
-                    player.getUsername(), column, currentPlayer);
+    public void handleMove(ClientHandler player, int column) {
+        lock.lock();
+        try {
+            // Check if it's the player's turn
+            boolean isPlayer1Turn = gameState.getCurrentTurn() == PlayerColor.RED;
+            boolean isPlayersTurn = (isPlayer1Turn && player == player1) || (!isPlayer1Turn && player == player2);
             
-            // Log the current board state
-            logger.debug("Current board state after move:");
-            for (int row = 0; row < 6; row++) {
-                StringBuilder rowStr = new StringBuilder();
-                for (int col = 0; col < 7; col++) {
-                    rowStr.append(board[row][col] == ' ' ? "[ ]" : "[" + board[row][col] + "]");
-                }
-                logger.debug(rowStr.toString());
+            logger.info("Move attempted by {} in column {}. Current turn: {}, Player1(RED): {}, Player2(YELLOW): {}, isPlayersTurn: {}",
+                    player.getUsername(), column, gameState.getCurrentTurn(), 
+                    player1.getUsername(), player2.getUsername(), isPlayersTurn);
+            
+            if (!isPlayersTurn) {
+                logger.warn("Player {} attempted to make a move out of turn", player.getUsername());
+                return;
             }
             
-            // Send updated game state to both players
-            broadcastGameState();
-        } else {
-            logger.warn("Player {} attempted an invalid move in column {}", player.getUsername(), column);
+            // Make the move
+            MoveAppliedMessage move = makeMove(column);
+            
+            if (move != null) {
+                logger.info("Player {} made successful move in column {}. New turn: {}", 
+                        player.getUsername(), column, gameState.getCurrentTurn());
+                
+                // Log the current board state
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Current board state after move:");
+                    for (int row = 0; row < gameState.getRows(); row++) {
+                        StringBuilder rowStr = new StringBuilder();
+                        for (int col = 0; col < gameState.getColumns(); col++) {
+                            CellState cell = gameState.getCellState(row, col);
+                            rowStr.append(cell == CellState.EMPTY ? "[ ]" : (cell == CellState.RED ? "[R]" : "[Y]"));
+                        }
+                        logger.debug(rowStr.toString());
+                    }
+                }
+                
+                // Tell both players about the move
+                broadcastMove(move);
+            } else {
+                logger.warn("Player {} attempted an invalid move in column {}", player.getUsername(), column);
+            }
+        } finally {
+            lock.unlock();
         }
     }
     
     // 
-// Broadcasts the current game state to both players.
-    private void broadcastGameState() {
-        sendBoardState();
-        logger.info("Broadcasting game state with current turn: {}", currentPlayer);
+// Sends a move to both players: the move alone to clients that keep their own copy of
+// the game, the full game state to the others.
+// 
+// @param move The move just made
+    private void broadcastMove(MoveAppliedMessage move) {
+        OutboundMessage delta = new OutboundMessage(move);
+        OutboundMessage update = delta;
+        if (!player1.acceptsMoveUpdates() || !player2.acceptsMoveUpdates()) {
+            update = new OutboundMessage(new GameStateUpdateMessage(gameState.copy()));
+        }
+        player1.send(player1.acceptsMoveUpdates() ? delta : update);
+        player2.send(player2.acceptsMoveUpdates() ? delta : update);
+        logger.info("Broadcasting move {} with current turn: {}", move.getSequence(), gameState.getCurrentTurn());
+    }
+    
+    // 
+// Sends the full game state to a player whose copy of the game went out of step.
+// 
+// @param player The player asking
+    public void handleResyncRequest(ClientHandler player) {
+        lock.lock();
+        try {
+            if (player != player1 && player != player2) {
+                logger.warn("Unknown player requested a resync: {}", player.getUsername());
+                return;
+            }
+            logger.info("Player {} is out of sync at move {}, sending the full game state",
+                    player.getUsername(), gameState.getMoveCount());
+            player.sendMessage(new GameStateUpdateMessage(gameState.copy()));
+        } finally {
+            lock.unlock();
+        }
     }
     
     // 
@@ -141,8 +175,9 @@ public class GameSession {
 // 
 // @param message The chat message to broadcast
     public void broadcastChat(ChatMessage message) {
-        player1.sendMessage(message);
-        player2.sendMessage(message);
+        OutboundMessage shared = new OutboundMessage(message);
+        player1.send(shared);
+        player2.send(shared);
         logger.info("Chat message from {}: {}", message.getSender(), message.getContent());
     }
     
@@ -151,32 +186,37 @@ public class GameSession {
 // 
 // @param player The player making the request
 // @param wantsToPlayAgain Whether the player wants to play again
-    public synchronized void handlePlayAgainRequest(ClientHandler player, boolean wantsToPlayAgain) {
-        if (player == player1) {
-            player1WantsPlayAgain = wantsToPlayAgain;
-        } else if (player == player2) {
-            player2WantsPlayAgain = wantsToPlayAgain;
-        } else {
-            logger.warn("Unknown player requested to play again: {}", player.getUsername());
-            return;
-        }
-        
-        logger.info("Player {} wants to play again: {}", player.getUsername(), wantsToPlayAgain);
-        
-        // If both players want to play again, start a new game
-        if (player1WantsPlayAgain && player2WantsPlayAgain) {
-            resetGame();
-        }
-        
-        // If either player doesn't want to play again, notify both players
-        else if (!wantsToPlayAgain) {
-            PlayAgainResponseMessage response = new PlayAgainResponseMessage(false, false);
-            player1.sendMessage(response);
-            player2.sendMessage(response);
+    public void handlePlayAgainRequest(ClientHandler player, boolean wantsToPlayAgain) {
+        lock.lock();
+        try {
+            if (player == player1) {
+                player1WantsPlayAgain = wantsToPlayAgain;
+            } else if (player == player2) {
+                player2WantsPlayAgain = wantsToPlayAgain;
+            } else {
+                logger.warn("Unknown player requested to play again: {}", player.getUsername());
+                return;
+            }
+            
+            logger.info("Player {} wants to play again: {}", player.getUsername(), wantsToPlayAgain);
             
-            // Clear the game session for both players
-            player1.clearCurrentGame();
-            player2.clearCurrentGame();
+            // If both players want to play again, start a new game
+            if (player1WantsPlayAgain && player2WantsPlayAgain) {
+                resetGame();
+            }
+            
+            // If either player doesn't want to play again, notify both players
+            else if (!wantsToPlayAgain) {
+                OutboundMessage response = new OutboundMessage(new PlayAgainResponseMessage(false, false));
+                player1.send(response);
+                player2.send(response);
+                
+                // Clear the game session for both players
+                player1.clearCurrentGame();
+                player2.clearCurrentGame();
+            }
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -185,7 +225,7 @@ public class GameSession {
 // 
 // @param player The player making the request
     public void handleNewGameRequest(ClientHandler player) {
-        if (!gameOver) {
+        if (!isGameOver()) {
             // Can't request a new game while the current game is in progress
             DisconnectMessage errorMsg = new DisconnectMessage("Cannot start a new game while the current game is in progress");
             player.sendMessage(errorMsg);
@@ -219,7 +259,7 @@ public class GameSession {
 // @param player The player responding to the request
 // @param accepted Whether the player accepted the request
     public void handleNewGameResponse(ClientHandler player, boolean accepted) {
-        if (!gameOver) {
+        if (!isGameOver()) {
             // Can't respond to a new game request while the current game is in progress
             DisconnectMessage errorMsg = new DisconnectMessage("Cannot respond to new game request while the current game is in progress");
             player.sendMessage(errorMsg);
@@ -305,22 +345,16 @@ public class GameSession {
         logger.info("Resetting game session between {} and {}", player1.getUsername(), player2.getUsername());
         
         // Reset the board
-        for (int row = 0; row < 6; row++) {
-            for (int col = 0; col < 7; col++) {
-                board[row][col] = ' ';
-            }
-        }
+        gameState = new GameState(player1.getUsername(), player2.getUsername(), geometry);
         
         // Reset game state
-        currentPlayer = 1;
-        gameOver = false;
         player1WantsPlayAgain = false;
         player2WantsPlayAgain = false;
         player1WantsNewGame = false;
         player2WantsNewGame = false;
         
         // Create new game state
-        GameState initialState = new GameState(player1.getUsername(), player2.getUsername());
+        GameState initialState = new GameState(player1.getUsername(), player2.getUsername(), geometry);
         
         // Send game start messages to both players
         player1.sendMessage(new GameStartMessage(initialState, PlayerColor.RED, player2.getUsername()));
@@ -332,161 +366,62 @@ public class GameSession {
         logger.info("Started new game between {} and {}", player1.getUsername(), player2.getUsername());
     }
     
+    // 
+// Checks whether the current game has finished with a win or a draw.
+// 
+// @return true if the game is over, false otherwise
+    private boolean isGameOver() {
+        return gameState.getStatus() != GameStatus.IN_PROGRESS;
+    }
+    
     // 
 // Makes a move for the current player.
 // 
 // @param column The column to place the piece in
-// @return true if the move was successful, false otherwise
-    private boolean makeMove(int column) {
+// @return The move to send to the players, or null if the move was rejected
+    private MoveAppliedMessage makeMove(int column) {
         // Check if the column is valid
-        if (column < 0 || column >= 7) {
+        if (column < 0 || column >= gameState.getColumns()) {
             logger.warn("Invalid column: {}", column);
-            return false;
+            return null;
         }
         
         // Check if the column is full
-        if (board[0][column] != ' ') {
+        int row = gameState.getDropRow(column);
+        if (row == -1) {
             logger.warn("Column {} is full", column);
-            return false;
+            return null;
         }
         
-        // Find the next available row in the column
-        int row = 5;
-        while (row >= 0 && board[row][column] != ' ') {
-            row--;
+        PlayerColor mover = gameState.getCurrentTurn();
+        if (!gameState.makeMove(column)) {
+            logger.warn("Move in column {} rejected, game status: {}", column, gameState.getStatus());
+            return null;
         }
         
-        // Place the piece
-        char piece = (currentPlayer == 1) ? 'R' : 'Y';
-        board[row][column] = piece;
-        
         logger.info("Player {} placed {} piece at row {}, column {}", 
-            (currentPlayer == 1) ? player1.getUsername() : player2.getUsername(), 
-            (currentPlayer == 1) ? "RED" : "YELLOW", row, column);
-            
-        // Check for win conditions
-        if (checkForWin(row, column)) {
-            gameOver = true;
-            logger.info("Player {} wins!", (currentPlayer == 1) ? player1.getUsername() : player2.getUsername());
-            // We could add code here to notify clients of the win
-        }
-        
-        // Switch players
-        currentPlayer = (currentPlayer == 1) ? 2 : 1;
-        
-        return true;
-    }
-    
-    // 
-// Checks if the last move resulted in a win.
-// 
-// @param row The row of the last move
-// @param column The column of the last move
-// @return true if the move resulted in a win, false otherwise
-    private boolean checkForWin(int row, int column) {
-        char piece = board[row][column];
-        
-        // Check horizontal
-        int count = 0;
-        for (int c = 0; c < 7; c++) {
-            if (board[row][c] == piece) {
-                count++;
-                if (count >= 4) return true;
-            } else {
-                count = 0;
-            }
-        }
-        
-        // Check vertical
-        count = 0;
-        for (int r = 0; r < 6; r++) {
-            if (board[r][column] == piece) {
-                count++;
-                if (count >= 4) return true;
-            } else {
-                count = 0;
-            }
-        }
-        
-        // Check diagonal (top-left to bottom-right)
-        count = 0;
-        int startRow = row - Math.min(row, column);
-        int startCol = column - Math.min(row, column);
-        for (int i = 0; i < 6 && startRow + i < 6 && startCol + i < 7; i++) {
-            if (board[startRow + i][startCol + i] == piece) {
-                count++;
-                if (count >= 4) return true;
-            } else {
-                count = 0;
-            }
-        }
+            (mover == PlayerColor.RED) ? player1.getUsername() : player2.getUsername(), 
+            mover, row, column);
         
-        // Check diagonal (top-right to bottom-left)
-        count = 0;
-        startRow = row - Math.min(row, 6 - column - 1);
-        startCol = column + Math.min(row, 6 - column - 1);
-        for (int i = 0; i < 6 && startRow + i < 6 && startCol - i >= 0; i++) {
-            if (board[startRow + i][startCol - i] == piece) {
-                count++;
-                if (count >= 4) return true;
-            } else {
-                count = 0;
-            }
+        // Check for win conditions
+        if (gameState.getStatus() == GameStatus.RED_WINS || gameState.getStatus() == GameStatus.YELLOW_WINS) {
+            logger.info("Player {} wins!", (mover == PlayerColor.RED) ? player1.getUsername() : player2.getUsername());
+        } else if (gameState.getStatus() == GameStatus.DRAW) {
+            logger.info("Game between {} and {} ended in a draw", player1.getUsername(), player2.getUsername());
         }
         
-        return false;
+        return new MoveAppliedMessage(gameState.getMoveCount(), column, row, mover, gameState.getCurrentTurn(),
+                gameState.getStatus(), gameState.getZobristHash());
     }
 
     // 
 // Sends the current board state to both players.
     private void sendBoardState() {
-        // Create a new GameState
-        GameState gameState = new GameState(player1.getUsername(), player2.getUsername());
-        
-        // Copy the board state from our internal representation to the GameState
-        for (int row = 0; row < 6; row++) {
-            for (int col = 0; col < 7; col++) {
-                if (board[row][col] == 'R') {
-                    gameState.setCellState(row, col, CellState.RED);
-                } else if (board[row][col] == 'Y') {
-                    gameState.setCellState(row, col, CellState.YELLOW);
-                } else {
-                    gameState.setCellState(row, col, CellState.EMPTY);
-                }
-            }
-        }
-        
-        // Set the current turn in the GameState
-        PlayerColor currentTurnColor = (currentPlayer == 1) ? PlayerColor.RED : PlayerColor.YELLOW;
-        gameState.setCurrentTurn(currentTurnColor);
-        
-        // Set game status if the game is over
-        if (gameOver) {
-            // Check which player won or if it's a draw
-            for (int row = 0; row < 6; row++) {
-                for (int col = 0; col < 7; col++) {
-                    if (board[row][col] != ' ' && checkForWin(row, col)) {
-                        if (board[row][col] == 'R') {
-                            gameState.setGameStatus(GameStatus.RED_WINS);
-                        } else {
-                            gameState.setGameStatus(GameStatus.YELLOW_WINS);
-                        }
-                        break;
-                    }
-                }
-            }
-            
-            // If no winner found but game is over, it's a draw
-            if (gameState.getStatus() == GameStatus.IN_PROGRESS) {
-                gameState.setGameStatus(GameStatus.DRAW);
-            }
-        }
-        
-        // Create a message with the game state
-        GameStateUpdateMessage message = new GameStateUpdateMessage(gameState);
-        logger.info("Sending board state with current turn: {}", currentPlayer == 1 ? "RED" : "YELLOW");
+        // Send a copy so later moves don't alias the state already written to the streams
+        OutboundMessage message = new OutboundMessage(new GameStateUpdateMessage(gameState.copy()));
+        logger.info("Sending board state with current turn: {}", gameState.getCurrentTurn());
         
-        player1.sendMessage(message);
-        player2.sendMessage(message);
+        player1.send(message);
+        player2.send(message);
     }
 } 
@@ -1,19 +1,33 @@
 package com.connectfour.server;
 
+import com.connectfour.common.model.BoardGeometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 // 
 // Handles matchmaking between players.
+// 
+// A player who finds no opponent within the server's bot wait time is given a
+// computer opponent instead, see GameServer.startBotGame.
+// 
+// The queue and the waiting times change together under the queue's lock, so that a
+// player who cancels while a matching pass has taken them off the queue is not put back
+// or matched afterwards.
 public class MatchmakingQueue implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(MatchmakingQueue.class);
     private static final long MATCHMAKING_CHECK_INTERVAL = 1000; // 1 second
     
     private final GameServer server;
     private final Queue<ClientHandler> queue;
+    private final Map<ClientHandler, Long> waitingSince = new ConcurrentHashMap<>();
     private boolean running;
     
     public MatchmakingQueue(GameServer server) {
@@ -26,8 +40,9 @@ public class MatchmakingQueue implements Runnable {
 // Adds a client to the matchmaking queue.
 // 
 // @param client The client handler to add
-    public void addToQueue(ClientHandler client) {
+    public synchronized void addToQueue(ClientHandler client) {
         if (!queue.contains(client)) {
+            waitingSince.put(client, System.currentTimeMillis());
             queue.add(client);
             logger.info("Added client to matchmaking queue: {}. Queue size: {}", client.getUsername(), queue.size());
         }
@@ -37,8 +52,9 @@ public class MatchmakingQueue implements Runnable {
 // Removes a client from the matchmaking queue.
 // 
 // @param client The client handler to remove
-    public void removeFromQueue(ClientHandler client) {
+    public synchronized void removeFromQueue(ClientHandler client) {
         queue.remove(client);
+        waitingSince.remove(client);
         logger.info("Removed client from matchmaking queue: {}. Queue size: {}", client.getUsername(), queue.size());
     }
     
@@ -62,40 +78,79 @@ public class MatchmakingQueue implements Runnable {
     }
     
     // 
-// Attempts to match waiting players.
+// Attempts to match waiting players. Players are only matched with someone who asked
+// for the same board; the others keep their place in the queue.
     private void matchPlayers() {
-        if (queue.size() >= 2) {
-            logger.info("Attempting to match players. Current queue size: {}", queue.size());
-        }
+        List<ClientHandler[]> matches = new ArrayList<>();
+        List<ClientHandler> botPlayers = new ArrayList<>();
         
-        while (queue.size() >= 2) {
-            ClientHandler player1 = queue.poll();
-            ClientHandler player2 = queue.poll();
+        synchronized (this) {
+            if (queue.size() >= 2) {
+                logger.info("Attempting to match players. Current queue size: {}", queue.size());
+            }
+            
+            // Oldest unmatched player for each board, in queue order
+            Map<BoardGeometry, ClientHandler> waiting = new LinkedHashMap<>();
+            int pending = queue.size();
+            
+            while (pending-- > 0) {
+                ClientHandler player = queue.poll();
+                if (player == null) {
+                    break;
+                }
+                
+                // Drop clients that cancelled or disconnected while waiting
+                if (!waitingSince.containsKey(player)) {
+                    continue;
+                }
+                if (!player.isConnected()) {
+                    logger.info("Player {} left the queue after disconnecting", player.getUsername());
+                    waitingSince.remove(player);
+                    continue;
+                }
+                
+                ClientHandler opponent = waiting.remove(player.getBoardGeometry());
+                if (opponent == null) {
+                    waiting.put(player.getBoardGeometry(), player);
+                    continue;
+                }
+                
+                if (opponent.isConnected()) {
+                    waitingSince.remove(opponent);
+                    waitingSince.remove(player);
+                    matches.add(new ClientHandler[] {opponent, player});
+                } else {
+                    // The opponent disconnected in the meantime, wait for the next one
+                    waitingSince.remove(opponent);
+                    waiting.put(player.getBoardGeometry(), player);
+                }
+            }
             
-            if (player1 != null && player2 != null) {
-                // Check if both clients are still connected
-                if (player1.isConnected() && player2.isConnected()) {
-                    // Create a new game session
-                    GameSession gameSession = new GameSession(player1, player2, server);
-                    
-                    // Start the game
-                    gameSession.start();
-                    
-                    logger.info("Matched players: {} vs {}. Remaining in queue: {}", 
-                        player1.getUsername(), player2.getUsername(), queue.size());
+            // Put players without an opponent back in the queue, unless they have waited long enough for a bot
+            long botWaitMillis = server.getBotWaitMillis();
+            long now = System.currentTimeMillis();
+            for (ClientHandler player : waiting.values()) {
+                long since = waitingSince.get(player);
+                if (botWaitMillis >= 0 && now - since >= botWaitMillis) {
+                    waitingSince.remove(player);
+                    logger.info("Player {} waited {} ms without an opponent, seating a bot", player.getUsername(), now - since);
+                    botPlayers.add(player);
                 } else {
-                    // If one of the clients is disconnected, put the connected one back in the queue
-                    if (player1.isConnected()) {
-                        queue.add(player1);
-                        logger.info("Player {} reconnected to queue after failed match", player1.getUsername());
-                    }
-                    if (player2.isConnected()) {
-                        queue.add(player2);
-                        logger.info("Player {} reconnected to queue after failed match", player2.getUsername());
-                    }
+                    queue.add(player);
                 }
             }
         }
+        
+        // Games are started outside the lock, as starting one sends messages
+        for (ClientHandler[] match : matches) {
+            GameSession gameSession = new GameSession(match[0], match[1], server);
+            gameSession.start();
+            logger.info("Matched players: {} vs {} on {}. Remaining in queue: {}", 
+                match[0].getUsername(), match[1].getUsername(), match[1].getBoardGeometry(), queue.size());
+        }
+        for (ClientHandler player : botPlayers) {
+            server.startBotGame(player);
+        }
     }
     
     // 
@@ -0,0 +1,55 @@
+package com.connectfour.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// 
+// A client served by NioServer rather than by a thread of its own.
+// 
+// Its messages are handled on the connection's event loop, and messages to it are
+// encoded by the sending thread, once for all the clients a message goes to, and queued
+// on the connection, so sending never blocks.
+// The connection's queue is bounded as a blocking handler's is.
+// The client always speaks the binary protocol.
+class NioClientHandler extends ClientHandler {
+    private static final Logger logger = LoggerFactory.getLogger(NioClientHandler.class);
+    
+    private final NioServer.Connection connection;
+    
+    NioClientHandler(NioServer.Connection connection, GameServer server) {
+        super(null, server);
+        this.connection = connection;
+    }
+    
+    // 
+// Gets the connection the client is served on.
+// 
+// @return The connection
+    NioServer.Connection getConnection() {
+        return connection;
+    }
+    
+    @Override
+    public void run() {
+        // The event loop reads for this client
+    }
+    
+    @Override
+    void send(OutboundMessage message) {
+        if (isConnected()) {
+            connection.send(message.buffer(), message.isChat());
+            logger.debug("Sent message to {}: {}", getUsername(), message.getMessage().getType());
+        }
+    }
+    
+    @Override
+    public void disconnect(String reason) {
+        super.disconnect(reason);
+        connection.closeWhenFlushed();
+    }
+    
+    @Override
+    public boolean acceptsMoveUpdates() {
+        return true;
+    }
+} 
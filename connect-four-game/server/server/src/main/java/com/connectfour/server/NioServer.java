@@ -0,0 +1,512 @@
+package com.connectfour.server;
+
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MessageChannel;
+import com.connectfour.common.messages.MessageCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 
+// Non-blocking server core: a few event-loop threads serve every connection.
+// 
+// The thread calling run accepts connections and hands them to the event loops in turn.
+// An event loop owns a Selector and the connections registered with it. It reads what
+// has arrived, cuts it into MessageCodec frames, decodes them and passes the messages to
+// the connection's NioClientHandler, all on its own thread. Messages to a client are
+// encoded once by whichever thread sends them, however many clients they go to, and
+// queued on the connection, and the event loop writes out everything queued with one
+// gathering write as the socket takes it. A client that lets the queue fill up is
+// dropped, see OutboundQueue. An idle connection costs a small read buffer and a few
+// objects rather than a thread.
+// 
+// Only the binary protocol is served here. A client that opens with Java serialization
+// is handed to a blocking ClientHandler on a thread of its own, as in the blocking server.
+final class NioServer {
+    private static final Logger logger = LoggerFactory.getLogger(NioServer.class);
+    
+    // Pending connections the operating system may hold while the acceptor catches up
+    private static final int ACCEPT_BACKLOG = 1024;
+    
+    // Read buffer of an idle connection; grown for a longer frame and shrunk again after it
+    static final int READ_BUFFER_SIZE = 512;
+    
+    // Frames a connection can write at once before its write array grows
+    private static final int WRITE_BATCH_SIZE = 16;
+    
+    // How long the event loops keep running on shutdown to send the last messages
+    private static final long SHUTDOWN_GRACE_MILLIS = 1000;
+    
+    private final GameServer server;
+    private final ExecutorService blockingExecutor;
+    private final ServerSocketChannel acceptor;
+    private final EventLoop[] loops;
+    private int nextLoop;
+    
+    // 
+// Opens the server socket and starts the event loops.
+// 
+// @param server The game server the connections belong to
+// @param port The port to listen on
+// @param eventLoops The number of event-loop threads
+// @param blockingExecutor Runs the handlers of clients that use Java serialization
+// @throws IOException if the port cannot be opened
+    NioServer(GameServer server, int port, int eventLoops, ExecutorService blockingExecutor) throws IOException {
+        this.server = server;
+        this.blockingExecutor = blockingExecutor;
+        this.acceptor = ServerSocketChannel.open();
+        acceptor.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop("nio-event-loop-" + i);
+        }
+    }
+    
+    // 
+// Gets the port the server listens on, which is chosen by the system when 0 is asked for.
+// 
+// @return The local port
+    int getPort() {
+        return acceptor.socket().getLocalPort();
+    }
+    
+    // 
+// Accepts connections until close is called.
+    void run() {
+        while (acceptor.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = acceptor.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Error accepting client connection", e);
+                continue;
+            }
+            logger.info("New client connected: {}", channel.socket().getInetAddress().getHostAddress());
+            loops[nextLoop].register(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+    
+    // 
+// Stops accepting connections. The connections already open are served until shutdown.
+    void close() {
+        try {
+            acceptor.close();
+        } catch (IOException e) {
+            logger.error("Error closing server socket", e);
+        }
+    }
+    
+    // 
+// Stops the event loops once every connection has sent its queued messages and closed,
+// or after a short grace period, and closes what is still open.
+    void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+        for (EventLoop loop : loops) {
+            loop.awaitTermination();
+        }
+    }
+    
+    // 
+// One selector thread and the connections registered with it.
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile long stopDeadline; // 0 while running
+        
+        EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+        
+        // 
+// Runs a task on the event loop thread, before it next waits for the sockets.
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (!inEventLoop()) {
+                selector.wakeup();
+            }
+        }
+        
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    logger.error("Error registering client connection", e);
+                    closeQuietly(channel);
+                }
+            });
+        }
+        
+        void stop() {
+            stopDeadline = System.currentTimeMillis() + SHUTDOWN_GRACE_MILLIS;
+            selector.wakeup();
+        }
+        
+        void awaitTermination() {
+            try {
+                thread.join(SHUTDOWN_GRACE_MILLIS * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    runTasks();
+                    long deadline = stopDeadline;
+                    if (deadline != 0 && (selector.keys().isEmpty() || System.currentTimeMillis() >= deadline)) {
+                        break;
+                    }
+                    selector.select(deadline != 0 ? 50 : 0);
+                    processSelectedKeys();
+                }
+            } catch (IOException e) {
+                logger.error("Event loop {} failed", thread.getName(), e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                closeQuietly(selector);
+            }
+        }
+        
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error in event loop task", e);
+                }
+            }
+        }
+        
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            }
+        }
+    }
+    
+    // 
+// A client connection served by an event loop. Reading, writing and closing happen on
+// the loop's thread; send may be called from any thread.
+    final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private NioClientHandler handler; // set once the client has opened with the binary handshake
+        
+        private final OutboundQueue<ByteBuffer> outbound = new OutboundQueue<>(server.getOutboundLimit());
+        // Frames taken from outbound and not yet fully written, in writing[writingStart,
+        // writingEnd); the array is reused for every gathering write. Event loop only.
+        private ByteBuffer[] writing = new ByteBuffer[WRITE_BATCH_SIZE];
+        private int writingStart;
+        private int writingEnd;
+        private final List<ByteBuffer> drained = new ArrayList<>(WRITE_BATCH_SIZE);
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean closeWhenFlushed;
+        private volatile boolean dropped; // too slow, closing
+        private volatile boolean closed;
+        
+        Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+        
+        // 
+// Queues a frame for the client and makes sure the event loop will write it.
+// 
+// @param frame A complete frame, as from MessageCodec.encode, in a buffer of its own;
+// the bytes may be shared with other connections
+// @param isChat Whether the frame is chat, which waits behind game messages
+        void send(ByteBuffer frame, boolean isChat) {
+            if (closed || dropped) {
+                return;
+            }
+            switch (outbound.offer(frame, isChat)) {
+                case FULL:
+                    dropped = true;
+                    logger.warn("Dropping {}: {} messages waiting to be sent", describe(), outbound.size());
+                    loop.execute(this::close);
+                    return;
+                case DISCARDED:
+                    return;
+                default:
+                    break;
+            }
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (loop.inEventLoop()) {
+                    flush();
+                } else {
+                    loop.execute(this::flush);
+                }
+            }
+        }
+        
+        // 
+// Closes the connection once the frames queued so far have been written.
+        void closeWhenFlushed() {
+            closeWhenFlushed = true;
+            loop.execute(() -> {
+                if (!flushScheduled.get()) {
+                    close();
+                }
+            });
+        }
+        
+        private void flush() {
+            if (closed) {
+                return;
+            }
+            try {
+                while (true) {
+                    while (writingStart < writingEnd || takeQueued() > 0) {
+                        channel.write(writing, writingStart, writingEnd - writingStart);
+                        int written = 0;
+                        while (writingStart < writingEnd && !writing[writingStart].hasRemaining()) {
+                            writing[writingStart++] = null;
+                            written++;
+                        }
+                        outbound.written(written);
+                        if (writingStart < writingEnd) {
+                            // The socket is full; carry on when it can take more
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    flushScheduled.set(false);
+                    
+                    // A frame queued just before the flag was cleared found it still set
+                    if (outbound.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                        break;
+                    }
+                }
+                if (closeWhenFlushed) {
+                    close();
+                }
+            } catch (IOException e) {
+                logger.debug("Error writing to client {}: {}", describe(), e.getMessage());
+                close();
+            }
+        }
+        
+        // 
+// Moves the frames queued for the client into the write array, once everything
+// taken before has been written.
+// 
+// @return The number of frames taken
+        private int takeQueued() {
+            writingStart = 0;
+            writingEnd = 0;
+            int count = outbound.drainTo(drained);
+            if (count > writing.length) {
+                writing = new ByteBuffer[Math.max(count, writing.length * 2)];
+            }
+            for (int i = 0; i < count; i++) {
+                writing[i] = drained.get(i);
+            }
+            writingEnd = count;
+            drained.clear();
+            return count;
+        }
+        
+        private void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                if (handler == null) {
+                    if (readBuffer.remaining() < Integer.BYTES) {
+                        readBuffer.compact();
+                        return;
+                    }
+                    if (!acceptHandshake(readBuffer.getInt())) {
+                        return;
+                    }
+                }
+                while (!closed && readBuffer.remaining() >= Integer.BYTES) {
+                    int length = readBuffer.getInt(readBuffer.position());
+                    if (length < 1 || length > MessageCodec.MAX_FRAME_LENGTH) {
+                        throw new StreamCorruptedException("Invalid frame length: " + length);
+                    }
+                    if (readBuffer.remaining() < Integer.BYTES + length) {
+                        break;
+                    }
+                    readBuffer.position(readBuffer.position() + Integer.BYTES);
+                    byte[] body = new byte[length];
+                    readBuffer.get(body);
+                    dispatch(MessageCodec.decode(body));
+                }
+                if (!closed) {
+                    readBuffer = prepareReadBuffer(readBuffer);
+                }
+            } catch (StreamCorruptedException e) {
+                logger.warn("Closing connection from {}: {}", describe(), e.getMessage());
+                close();
+            } catch (IOException e) {
+                logger.debug("Error reading from client {}: {}", describe(), e.getMessage());
+                close();
+            }
+        }
+        
+        // 
+// Answers the client's first four bytes.
+// 
+// @return true if the client speaks the binary protocol and reading goes on
+        private boolean acceptHandshake(int header) throws IOException {
+            if (header == MessageChannel.HANDSHAKE) {
+                handler = new NioClientHandler(this, server);
+                server.clientAccepted(handler);
+                send(ByteBuffer.allocate(Integer.BYTES).putInt(MessageChannel.HANDSHAKE).flip(), false);
+                return true;
+            }
+            if ((header >>> 16) == MessageChannel.SERIALIZATION_MAGIC) {
+                handOff(header);
+                return false;
+            }
+            throw new StreamCorruptedException(String.format("Unknown protocol header: %08x", header));
+        }
+        
+        // 
+// Passes a client using Java serialization on to a blocking ClientHandler, replaying
+// the bytes read so far.
+        private void handOff(int header) {
+            byte[] prefix = new byte[Integer.BYTES + readBuffer.remaining()];
+            ByteBuffer.wrap(prefix).putInt(header).put(readBuffer);
+            closed = true;
+            key.cancel();
+            loop.execute(() -> {
+                try {
+                    // The channel only leaves the selector at its next select
+                    loop.selector.selectNow();
+                    loop.processSelectedKeys();
+                    channel.configureBlocking(true);
+                    Socket socket = channel.socket();
+                    InputStream input = new SequenceInputStream(new ByteArrayInputStream(prefix), socket.getInputStream());
+                    ClientHandler clientHandler = new ClientHandler(socket, input, server);
+                    server.clientAccepted(clientHandler);
+                    blockingExecutor.submit(clientHandler);
+                } catch (IOException e) {
+                    logger.error("Error handing over client {}", describe(), e);
+                    closeQuietly(channel);
+                }
+            });
+        }
+        
+        private void dispatch(Message message) {
+            try {
+                handler.handleMessage(message);
+            } catch (RuntimeException e) {
+                logger.error("Error handling {} message from {}", message.getType(), handler.getUsername(), e);
+            }
+        }
+        
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            outbound.clear();
+            Arrays.fill(writing, null);
+            writingStart = 0;
+            writingEnd = 0;
+            if (handler != null) {
+                handler.connectionClosed();
+            }
+        }
+        
+        private String describe() {
+            Socket socket = channel.socket();
+            return (socket.getInetAddress() != null) ? socket.getInetAddress().getHostAddress() : "unknown";
+        }
+    }
+    
+    // 
+// Keeps the unread bytes of a read buffer and sizes it for the frame they start: a
+// buffer is grown to hold a frame longer than it, and shrunk back to READ_BUFFER_SIZE
+// once it is empty.
+// 
+// @param readBuffer The buffer after reading, in read mode
+// @return The buffer to read into next, in write mode; the same one if its size is right
+    static ByteBuffer prepareReadBuffer(ByteBuffer readBuffer) {
+        readBuffer.compact();
+        int needed = READ_BUFFER_SIZE;
+        if (readBuffer.position() >= Integer.BYTES) {
+            needed = Math.max(needed, Integer.BYTES + readBuffer.getInt(0));
+        }
+        if (needed != readBuffer.capacity() && (needed > readBuffer.capacity() || readBuffer.position() == 0)) {
+            ByteBuffer resized = ByteBuffer.allocate(needed);
+            readBuffer.flip();
+            resized.put(readBuffer);
+            return resized;
+        }
+        return readBuffer;
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+} 
@@ -0,0 +1,89 @@
+package com.connectfour.server;
+
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MessageCodec;
+
+import java.nio.ByteBuffer;
+
+// 
+// A message on its way to one or more clients, encoded at most once however many of them
+// it goes to.
+// 
+// The binary frame is encoded the first time a client needs it and then shared: blocking
+// connections write the same bytes and event-loop connections get views of one read-only
+// buffer. Frames of DIRECT_THRESHOLD bytes or more go into a direct buffer, which the
+// event loops write to every socket without copying; smaller ones stay on the heap, as
+// copying a few dozen bytes costs less than allocating direct memory. Clients on Java
+// serialization still serialize the message each, since every object stream has state of
+// its own.
+// 
+// The message must not change once it is passed in, as it may be encoded or serialized
+// later on another thread.
+final class OutboundMessage {
+    // Frame length from which sharing a direct buffer beats copying into the socket's own
+    private static final int DIRECT_THRESHOLD = 1024;
+    
+    private final Message message;
+    private final boolean chat;
+    
+    // Encoded on first use; two threads racing to do it both produce the same bytes
+    private volatile byte[] frame;
+    private volatile ByteBuffer buffer;
+    
+    // 
+// Wraps a message for sending.
+// 
+// @param message The message
+    OutboundMessage(Message message) {
+        this.message = message;
+        this.chat = OutboundQueue.isChat(message);
+    }
+    
+    // 
+// Gets the message, for clients that are not sent the binary frame.
+// 
+// @return The message
+    Message getMessage() {
+        return message;
+    }
+    
+    // 
+// Checks whether the message is chat, which waits behind game messages.
+// 
+// @return true for chat
+    boolean isChat() {
+        return chat;
+    }
+    
+    // 
+// Gets the binary frame. The array is shared and must not be modified.
+// 
+// @return The frame, length prefix included
+    byte[] frame() {
+        byte[] encoded = frame;
+        if (encoded == null) {
+            encoded = MessageCodec.encode(message);
+            frame = encoded;
+        }
+        return encoded;
+    }
+    
+    // 
+// Gets the binary frame as a buffer of its own, positioned at the start, over bytes
+// shared with every other client the message goes to.
+// 
+// @return A read-only buffer holding the frame
+    ByteBuffer buffer() {
+        ByteBuffer shared = buffer;
+        if (shared == null) {
+            byte[] encoded = frame();
+            if (encoded.length >= DIRECT_THRESHOLD) {
+                shared = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip().asReadOnlyBuffer();
+            } else {
+                shared = ByteBuffer.wrap(encoded).asReadOnlyBuffer();
+            }
+            buffer = shared;
+        }
+        return shared.duplicate();
+    }
+} 
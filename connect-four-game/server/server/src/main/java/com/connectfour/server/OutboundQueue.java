@@ -0,0 +1,157 @@
+package com.connectfour.server;
+
+import com.connectfour.common.messages.Message;
+import com.connectfour.common.messages.MessageType;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 
+// Messages waiting to be written to one client, in two classes: game messages, which go
+// out first, and chat, which waits behind them and is the first to be given up.
+// 
+// The queue is bounded. Chat is discarded once the queue is half full, and an offer that
+// would take it past its limit is refused, which tells the caller the client is not
+// keeping up and should be dropped. Items a writer has taken count against the limit
+// until it reports them written, so a client that has stopped reading fills the queue
+// even while its writer is stuck on the socket with the queue itself empty.
+// 
+// Any thread may offer; one writer at a time drains.
+// 
+// @param <T> The queued item: a message, or an encoded frame
+final class OutboundQueue<T> {
+    // 
+// What became of an offered item.
+    enum Result {
+        QUEUED,
+        // a chat item given up because the client is behind
+        DISCARDED,
+        // the queue is full and the client should be dropped
+        FULL
+    }
+    
+    private final int limit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<T> game = new ArrayDeque<>();
+    private final ArrayDeque<T> chat = new ArrayDeque<>();
+    private int taken; // drained but not yet reported written
+    
+    // 
+// Creates an empty queue.
+// 
+// @param limit The most items queued or being written at once
+    OutboundQueue(int limit) {
+        this.limit = limit;
+    }
+    
+    // 
+// Checks whether a message may wait behind game messages and be discarded when the
+// client falls behind.
+// 
+// @param message The message
+// @return true for chat
+    static boolean isChat(Message message) {
+        return message.getType() == MessageType.CHAT_MESSAGE;
+    }
+    
+    // 
+// Adds an item for the writer.
+// 
+// @param item The item to send
+// @param isChat Whether it is chat rather than a game message
+// @return Whether the item was queued, discarded or refused
+    Result offer(T item, boolean isChat) {
+        lock.lock();
+        try {
+            int size = game.size() + chat.size() + taken;
+            if (size >= limit) {
+                return Result.FULL;
+            }
+            if (isChat) {
+                if (size >= limit / 2) {
+                    return Result.DISCARDED;
+                }
+                chat.add(item);
+            } else {
+                game.add(item);
+            }
+            return Result.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // 
+// Moves every queued item to a batch for writing, game messages first. The items count
+// against the limit until written is called for them.
+// 
+// @param batch The collection to add the items to
+// @return The number of items moved
+    int drainTo(Collection<? super T> batch) {
+        lock.lock();
+        try {
+            int count = game.size() + chat.size();
+            batch.addAll(game);
+            batch.addAll(chat);
+            game.clear();
+            chat.clear();
+            taken += count;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // 
+// Reports items taken by drainTo as written, making room for more.
+// 
+// @param count The number of items written
+    void written(int count) {
+        lock.lock();
+        try {
+            taken = Math.max(0, taken - count); // after clear, a writer may still report what it had taken
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // 
+// Checks whether there is nothing waiting to be drained.
+// 
+// @return true if the queue is empty
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return game.isEmpty() && chat.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // 
+// Gets the number of items queued or being written.
+// 
+// @return The number of items
+    int size() {
+        lock.lock();
+        try {
+            return game.size() + chat.size() + taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // 
+// Discards everything, once the connection is closed.
+    void clear() {
+        lock.lock();
+        try {
+            game.clear();
+            chat.clear();
+            taken = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+} 
@@ -0,0 +1,39 @@
+package com.connectfour.server;
+
+import com.connectfour.common.trace.TraceLevel;
+import com.connectfour.common.trace.TraceSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 
+// Trace sink that forwards model and message traces to SLF4J.
+// Each trace source gets its own logger under "com.connectfour.common.".
+public class Slf4jTraceSink implements TraceSink {
+    private final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    
+    @Override
+    public void trace(TraceLevel level, String source, String message) {
+        Logger logger = loggers.computeIfAbsent(source, s -> LoggerFactory.getLogger("com.connectfour.common." + s));
+        switch (level) {
+            case ERROR:
+                logger.error(message);
+                break;
+            case WARN:
+                logger.warn(message);
+                break;
+            case INFO:
+                logger.info(message);
+                break;
+            case DEBUG:
+                logger.debug(message);
+                break;
+            case TRACE:
+            default:
+                logger.trace(message);
+                break;
+        }
+    }
+} 
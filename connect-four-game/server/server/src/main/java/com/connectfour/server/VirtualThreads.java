@@ -0,0 +1,50 @@
+package com.connectfour.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// 
+// Access to virtual threads when the server runs on Java 21 or later.
+// 
+// The server is built for Java 17, so the Java 21 API is looked up by reflection; on an
+// older runtime, or one where virtual threads are a preview feature that is not enabled,
+// the methods here return null and the caller stays with platform threads.
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+    
+    // 
+// Creates a factory of virtual threads named prefix0, prefix1 and so on.
+// 
+// @param prefix The start of the thread names
+// @return The factory, or null if virtual threads are not available
+    static ThreadFactory newFactory(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    // 
+// Creates an executor that runs every task on a new virtual thread.
+// 
+// @param prefix The start of the thread names
+// @return The executor, or null if virtual threads are not available
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        ThreadFactory factory = newFactory(prefix);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+} 
@@ -0,0 +1,257 @@
+package com.connectfour.server;
+
+import com.connectfour.common.messages.DisconnectMessage;
+import com.connectfour.common.messages.LoginRequestMessage;
+import com.connectfour.common.messages.LoginResponseMessage;
+import com.connectfour.common.messages.MessageChannel;
+import com.connectfour.common.messages.MessageCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class NioServerTest {
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final int OUTBOUND_LIMIT = 8;
+    
+    private final BlockingQueue<ClientHandler> accepted = new LinkedBlockingQueue<>();
+    private final List<SocketChannel> clients = new ArrayList<>();
+    private ExecutorService blockingExecutor;
+    private NioServer nio;
+    
+    @BeforeEach
+    void start() throws IOException {
+        System.setProperty("connectfour.server.outboundLimit", String.valueOf(OUTBOUND_LIMIT));
+        GameServer server;
+        try {
+            server = new GameServer(0) {
+                @Override
+                public void clientConnected(ClientHandler client) {
+                    accepted.add(client);
+                }
+            };
+        } finally {
+            System.clearProperty("connectfour.server.outboundLimit");
+        }
+        blockingExecutor = Executors.newCachedThreadPool();
+        nio = new NioServer(server, 0, 1, blockingExecutor);
+        Thread acceptor = new Thread(nio::run, "test-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    @AfterEach
+    void stop() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        nio.close();
+        nio.shutdown();
+        blockingExecutor.shutdownNow();
+    }
+    
+    @Test
+    void handshakeIsEchoed() throws Exception {
+        SocketChannel client = connect();
+        write(client, ByteBuffer.allocate(Integer.BYTES).putInt(MessageChannel.HANDSHAKE).flip());
+        assertEquals(MessageChannel.HANDSHAKE, input(client).readInt());
+        assertInstanceOf(NioClientHandler.class, nextHandler());
+    }
+    
+    @Test
+    void framesSplitAcrossReadsAreReassembled() throws Exception {
+        SocketChannel client = connect();
+        byte[] frame = MessageCodec.encode(new LoginRequestMessage("alice"));
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES + frame.length).putInt(MessageChannel.HANDSHAKE).put(frame).flip();
+        
+        // A byte at a time, so that the handshake and the frame each take several reads
+        while (bytes.hasRemaining()) {
+            write(client, ByteBuffer.wrap(new byte[] {bytes.get()}));
+            Thread.sleep(5);
+        }
+        DataInputStream in = input(client);
+        assertEquals(MessageChannel.HANDSHAKE, in.readInt());
+        assertTrue(assertInstanceOf(LoginResponseMessage.class, MessageCodec.read(in)).isSuccess());
+    }
+    
+    @Test
+    void framesLongerThanTheReadBufferAreRead() throws Exception {
+        SocketChannel client = connect();
+        DataInputStream in = handshake(client);
+        
+        String longName = "x".repeat(NioServer.READ_BUFFER_SIZE * 4);
+        write(client, ByteBuffer.wrap(MessageCodec.encode(new LoginRequestMessage(longName))));
+        LoginResponseMessage refused = assertInstanceOf(LoginResponseMessage.class, MessageCodec.read(in));
+        assertFalse(refused.isSuccess());
+        
+        // And the shrunk buffer reads the next frame
+        write(client, ByteBuffer.wrap(MessageCodec.encode(new LoginRequestMessage("bob"))));
+        assertTrue(assertInstanceOf(LoginResponseMessage.class, MessageCodec.read(in)).isSuccess());
+    }
+    
+    @Test
+    void readBufferGrowsForALongFrameAndShrinksAfterIt() {
+        int length = NioServer.READ_BUFFER_SIZE * 4;
+        ByteBuffer buffer = ByteBuffer.allocate(NioServer.READ_BUFFER_SIZE);
+        buffer.putInt(length).put(new byte[100]).flip();
+        
+        // The start of a frame longer than the buffer
+        ByteBuffer grown = NioServer.prepareReadBuffer(buffer);
+        assertEquals(Integer.BYTES + length, grown.capacity());
+        assertEquals(Integer.BYTES + 100, grown.position());
+        assertEquals(length, grown.getInt(0));
+        
+        // Read to the end and taken; an empty buffer shrinks back
+        grown.put(new byte[length - 100]).flip();
+        grown.position(grown.limit());
+        ByteBuffer shrunk = NioServer.prepareReadBuffer(grown);
+        assertEquals(NioServer.READ_BUFFER_SIZE, shrunk.capacity());
+        assertEquals(0, shrunk.position());
+        
+        // A large buffer holding the start of a shorter frame keeps its size until it is empty
+        ByteBuffer large = ByteBuffer.allocate(Integer.BYTES + length);
+        large.putInt(NioServer.READ_BUFFER_SIZE + 100).put(new byte[6]).flip();
+        ByteBuffer kept = NioServer.prepareReadBuffer(large);
+        assertSame(large, kept);
+        assertEquals(Integer.BYTES + 6, kept.position());
+        
+        kept.flip();
+        kept.position(kept.limit());
+        assertEquals(NioServer.READ_BUFFER_SIZE, NioServer.prepareReadBuffer(kept).capacity());
+        
+        // A buffer of the right size is reused
+        shrunk.flip();
+        assertSame(shrunk, NioServer.prepareReadBuffer(shrunk));
+    }
+    
+    @Test
+    void serializationClientsAreHandedToABlockingHandler() throws Exception {
+        SocketChannel client = connect();
+        
+        // The stream header and the login in one write, so the first read has more than the header
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new LoginRequestMessage("carol"));
+        out.flush();
+        assertTrue(bytes.size() > Integer.BYTES && bytes.size() < NioServer.READ_BUFFER_SIZE);
+        write(client, ByteBuffer.wrap(bytes.toByteArray()));
+        
+        ObjectInputStream in = new ObjectInputStream(input(client));
+        LoginResponseMessage response = assertInstanceOf(LoginResponseMessage.class, in.readObject());
+        assertTrue(response.isSuccess());
+        ClientHandler handler = nextHandler();
+        assertFalse(handler instanceof NioClientHandler);
+        assertEquals("carol", handler.getUsername());
+    }
+    
+    @Test
+    void clientsThatFallBehindAreDropped() throws Exception {
+        SocketChannel client = connectWithSmallBuffer();
+        handshake(client);
+        NioClientHandler handler = (NioClientHandler) nextHandler();
+        
+        // The client reads nothing, so once the socket is full the queue fills up
+        ByteBuffer frame = ByteBuffer.allocate(1 << 20);
+        for (int i = 0; i < 1024 && handler.isConnected(); i++) {
+            handler.getConnection().send(frame.duplicate(), false);
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (handler.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(handler.isConnected());
+    }
+    
+    @Test
+    void closeWhenFlushedWritesEverythingQueuedFirst() throws Exception {
+        SocketChannel client = connectWithSmallBuffer();
+        DataInputStream in = handshake(client);
+        NioClientHandler handler = (NioClientHandler) nextHandler();
+        
+        // More than the sockets hold, so the close waits for the client to read
+        byte[] payload = new byte[1 << 20];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        int frames = OUTBOUND_LIMIT / 2;
+        for (int i = 0; i < frames; i++) {
+            handler.getConnection().send(ByteBuffer.wrap(payload), false);
+        }
+        handler.disconnect("Server shutting down");
+        Thread.sleep(100);
+        
+        byte[] received = new byte[payload.length];
+        for (int i = 0; i < frames; i++) {
+            in.readFully(received);
+            assertArrayEquals(payload, received, "frame " + i);
+        }
+        DisconnectMessage goodbye = assertInstanceOf(DisconnectMessage.class, MessageCodec.read(in));
+        assertEquals("Server shutting down", goodbye.getReason());
+        assertEquals(-1, in.read());
+    }
+    
+    private SocketChannel connect() throws IOException {
+        SocketChannel client = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), nio.getPort()));
+        clients.add(client);
+        return client;
+    }
+    
+    private SocketChannel connectWithSmallBuffer() throws IOException {
+        SocketChannel client = SocketChannel.open();
+        client.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+        client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), nio.getPort()));
+        clients.add(client);
+        return client;
+    }
+    
+    private static DataInputStream handshake(SocketChannel client) throws IOException {
+        write(client, ByteBuffer.allocate(Integer.BYTES).putInt(MessageChannel.HANDSHAKE).flip());
+        DataInputStream in = input(client);
+        assertEquals(MessageChannel.HANDSHAKE, in.readInt());
+        return in;
+    }
+    
+    private static void write(SocketChannel client, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            client.write(bytes);
+        }
+    }
+    
+    private static DataInputStream input(SocketChannel client) throws IOException {
+        client.socket().setSoTimeout(TIMEOUT_MILLIS);
+        return new DataInputStream(client.socket().getInputStream());
+    }
+    
+    private ClientHandler nextHandler() throws InterruptedException {
+        ClientHandler handler = accepted.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(handler, "no client accepted");
+        return handler;
+    }
+} 
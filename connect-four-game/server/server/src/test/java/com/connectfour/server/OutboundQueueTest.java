@@ -0,0 +1,89 @@
+package com.connectfour.server;
+
+import com.connectfour.common.messages.ChatMessage;
+import com.connectfour.common.messages.MoveMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+    @Test
+    void refusesOffersAtTheLimit() {
+        OutboundQueue<String> queue = new OutboundQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(OutboundQueue.Result.QUEUED, queue.offer("game " + i, false));
+        }
+        assertEquals(4, queue.size());
+        assertEquals(OutboundQueue.Result.FULL, queue.offer("game 4", false));
+        assertEquals(OutboundQueue.Result.FULL, queue.offer("chat", true));
+        assertEquals(4, queue.size());
+    }
+    
+    @Test
+    void discardsChatOnceHalfFull() {
+        OutboundQueue<String> queue = new OutboundQueue<>(4);
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer("chat 0", true));
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer("game 0", false));
+        assertEquals(OutboundQueue.Result.DISCARDED, queue.offer("chat 1", true));
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer("game 1", false));
+        assertEquals(3, queue.size());
+    }
+    
+    @Test
+    void drainsGameMessagesBeforeChat() {
+        OutboundQueue<String> queue = new OutboundQueue<>(16);
+        queue.offer("chat 0", true);
+        queue.offer("game 0", false);
+        queue.offer("chat 1", true);
+        queue.offer("game 1", false);
+        
+        List<String> batch = new ArrayList<>();
+        assertEquals(4, queue.drainTo(batch));
+        assertEquals(List.of("game 0", "game 1", "chat 0", "chat 1"), batch);
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    void takenItemsCountUntilWritten() {
+        OutboundQueue<String> queue = new OutboundQueue<>(2);
+        queue.offer("game 0", false);
+        queue.offer("game 1", false);
+        assertEquals(2, queue.drainTo(new ArrayList<>()));
+        
+        // A writer stuck on the socket still holds the queue's room
+        assertTrue(queue.isEmpty());
+        assertEquals(2, queue.size());
+        assertEquals(OutboundQueue.Result.FULL, queue.offer("game 2", false));
+        
+        queue.written(2);
+        assertEquals(0, queue.size());
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer("game 2", false));
+    }
+    
+    @Test
+    void clearForgetsQueuedAndTakenItems() {
+        OutboundQueue<String> queue = new OutboundQueue<>(4);
+        queue.offer("game 0", false);
+        queue.drainTo(new ArrayList<>());
+        queue.offer("game 1", false);
+        queue.clear();
+        assertEquals(0, queue.size());
+        assertTrue(queue.isEmpty());
+        
+        // A writer reporting what it took before the clear must not go below zero
+        queue.written(1);
+        assertEquals(0, queue.size());
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer("game 2", false));
+    }
+    
+    @Test
+    void onlyChatMessagesAreChat() {
+        assertTrue(OutboundQueue.isChat(new ChatMessage("red", "hello")));
+        assertFalse(OutboundQueue.isChat(new MoveMessage(3)));
+    }
+} 